@@ -0,0 +1,66 @@
+package de.codesourcery.spritedesigner.benchmarks;
+
+import java.util.Random;
+
+import de.codesourcery.spritedesigner.Sprite;
+import de.codesourcery.spritedesigner.SpriteSet;
+
+final class BenchmarkUtils
+{
+    private BenchmarkUtils() {
+    }
+
+    /**
+     * Creates a sprite with pseudo-random content.
+     * 
+     * A border of blank pixels is left around the content so that cropping has something to do.
+     */
+    public static Sprite randomSprite(int width,int height,Random rnd) 
+    {
+        final Sprite result = new Sprite( width , height );
+        for ( int y = height/8 ; y < height - height/8 ; y++ ) 
+        {
+            for ( int x = width/8 ; x < width - width/8 ; x++ ) 
+            {
+                if ( rnd.nextBoolean() ) {
+                    result.setPixel( x , y );
+                }
+            }
+        }
+        return result;
+    }
+
+    public static Sprite copy(Sprite sprite) 
+    {
+        final Sprite result = new Sprite( sprite.getWidth() , sprite.getHeight() );
+        for ( int y = 0 ; y < sprite.getHeight() ; y++ ) 
+        {
+            for ( int x = 0 ; x < sprite.getWidth() ; x++ ) 
+            {
+                if ( sprite.isSet( x , y ) ) {
+                    result.setPixel( x , y );
+                }
+            }
+        }
+        if ( sprite.hasIndex() ) {
+            result.setIndex( sprite.index() );
+        }
+        return result;
+    }
+
+    /**
+     * Creates a set of random sprites that all have an index assigned.
+     */
+    public static SpriteSet randomSet(int count,int width,int height) 
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        final SpriteSet result = new SpriteSet();
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            final Sprite sprite = randomSprite( width , height , rnd );
+            sprite.setIndex( i );
+            result.add( sprite );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,76 @@
+package de.codesourcery.spritedesigner.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.spritedesigner.Sprite;
+import de.codesourcery.spritedesigner.Sprite.Flip;
+import de.codesourcery.spritedesigner.SpriteCodec;
+import de.codesourcery.spritedesigner.SpriteEncoder;
+import de.codesourcery.spritedesigner.SpriteSet;
+
+/**
+ * Compressing and decompressing 256 column-encoded sprites as one block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark
+{
+    @Param({"8","16","32"})
+    public int size;
+
+    @Param({"rle","lz"})
+    public String codecName;
+
+    private SpriteCodec codec;
+    private byte[] data;
+    private byte[] compressed;
+    private byte[] output;
+
+    @Setup
+    public void setup()
+    {
+        codec = "rle".equals( codecName ) ? SpriteCodec.rle() : SpriteCodec.lz();
+
+        final SpriteSet set = BenchmarkUtils.randomSet( 256 , size , size );
+        final SpriteEncoder encoder = SpriteEncoder.columns( Flip.NONE );
+        final ByteBuffer buffer = ByteBuffer.allocate( 256 * encoder.sizeInBytes( set.getSprites().get(0) ) );
+        int ptr = 0;
+        for ( Sprite sprite : set.getSprites() ) {
+            encoder.encode( sprite , buffer , ptr );
+            ptr += encoder.sizeInBytes( sprite );
+        }
+        data = buffer.array();
+        compressed = new byte[ codec.maxCompressedLength( data.length ) ];
+        codec.compress( data , 0 , data.length , compressed , 0 );
+        output = new byte[ data.length ];
+    }
+
+    @Benchmark
+    public int compress() {
+        return codec.compress( data , 0 , data.length , compressed , 0 );
+    }
+
+    @Benchmark
+    public byte[] decompress()
+    {
+        codec.decompress( compressed , 0 , output , 0 , output.length );
+        return output;
+    }
+}
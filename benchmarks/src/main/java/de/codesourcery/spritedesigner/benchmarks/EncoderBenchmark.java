@@ -0,0 +1,77 @@
+package de.codesourcery.spritedesigner.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.spritedesigner.Sprite;
+import de.codesourcery.spritedesigner.Sprite.Flip;
+import de.codesourcery.spritedesigner.SpriteEncoder;
+
+/**
+ * Encoding a single sprite in row and column layout, for all {@link Flip} values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncoderBenchmark
+{
+    @Param({"8","16","32","64","128","256"})
+    public int size;
+
+    @Param({"NONE","FLIP_X","FLIP_Y","FLIP_XY"})
+    public Flip flip;
+
+    private Sprite sprite;
+    private ByteBuffer buffer;
+    private SpriteEncoder rowEncoder;
+    private SpriteEncoder columnEncoder;
+
+    @Setup
+    public void setup() 
+    {
+        sprite = BenchmarkUtils.randomSprite( size , size , new Random( 0xdeadbeef ) );
+        rowEncoder = SpriteEncoder.rows( flip );
+        columnEncoder = SpriteEncoder.columns( flip );
+        buffer = ByteBuffer.allocate( sprite.getSizeInBytes() );
+    }
+
+    @Benchmark
+    public byte[] getDataRows() {
+        return sprite.getDataRows( flip );
+    }
+
+    @Benchmark
+    public byte[] getDataColumns() {
+        return sprite.getDataColumns( flip );
+    }
+
+    @Benchmark
+    public ByteBuffer encodeRows() 
+    {
+        rowEncoder.encode( sprite , buffer , 0 );
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeColumns() 
+    {
+        columnEncoder.encode( sprite , buffer , 0 );
+        return buffer;
+    }
+}
@@ -0,0 +1,68 @@
+package de.codesourcery.spritedesigner.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.spritedesigner.Sprite;
+
+/**
+ * Converting images into sprites.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageImportBenchmark
+{
+    @Param({"8","16","32","64","128","256"})
+    public int size;
+
+    @Param({"TYPE_BYTE_BINARY","TYPE_INT_RGB"})
+    public String imageType;
+
+    private BufferedImage image;
+    private Sprite sprite;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        final int type = BufferedImage.class.getField( imageType ).getInt( null );
+        image = new BufferedImage( size , size , type );
+        final Random rnd = new Random( 0xdeadbeef );
+        final Graphics2D gfx = image.createGraphics();
+        for ( int y = 0 ; y < size ; y++ ) 
+        {
+            for ( int x = 0 ; x < size ; x++ ) 
+            {
+                gfx.setColor( new Color( rnd.nextInt( 0xffffff ) ) );
+                gfx.fillRect( x , y , 1 , 1 );
+            }
+        }
+        gfx.dispose();
+        sprite = new Sprite( size , size );
+    }
+
+    @Benchmark
+    public Sprite setToImage() 
+    {
+        sprite.setToImage( image );
+        return sprite;
+    }
+}
@@ -0,0 +1,64 @@
+package de.codesourcery.spritedesigner.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.spritedesigner.Sprite;
+import de.codesourcery.spritedesigner.SpriteEncoder;
+
+/**
+ * Encoding a single sprite in page layout.
+ * 
+ * 8 bits per column uses the block-transposing encoder, other values the generic bit-by-bit one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PageEncoderBenchmark
+{
+    @Param({"8","16","32","64","128","256"})
+    public int size;
+
+    @Param({"4","8"})
+    public int bitsPerColumn;
+
+    private Sprite sprite;
+    private ByteBuffer buffer;
+    private SpriteEncoder encoder;
+
+    @Setup
+    public void setup() 
+    {
+        sprite = BenchmarkUtils.randomSprite( size , size , new Random( 0xdeadbeef ) );
+        encoder = SpriteEncoder.pages( bitsPerColumn );
+        buffer = ByteBuffer.allocate( sprite.getSizeInBytes() );
+    }
+
+    @Benchmark
+    public byte[] getDataColumns() {
+        return sprite.getDataColumns( bitsPerColumn );
+    }
+
+    @Benchmark
+    public ByteBuffer encode() 
+    {
+        encoder.encode( sprite , buffer , 0 );
+        return buffer;
+    }
+}
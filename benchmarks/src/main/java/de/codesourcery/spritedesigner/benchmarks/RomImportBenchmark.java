@@ -0,0 +1,73 @@
+package de.codesourcery.spritedesigner.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.spritedesigner.Importer;
+import de.codesourcery.spritedesigner.SpriteSet;
+
+/**
+ * Importing glyphs from a (random) 4 MB ROM image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RomImportBenchmark
+{
+    private static final int ROM_SIZE = 4*1024*1024;
+
+    @Param({"8","16","32"})
+    public int glyphSize;
+
+    @Param({"ROWS","COLUMNS","PAGES"})
+    public Importer.Layout layout;
+
+    @Param({"MSB_FIRST","LSB_FIRST"})
+    public Importer.BitOrder bitOrder;
+
+    private File rom;
+    private Importer importer;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        final byte[] data = new byte[ ROM_SIZE ];
+        new Random( 0xdeadbeef ).nextBytes( data );
+        rom = File.createTempFile( "rom" , ".bin" );
+        Files.write( rom.toPath() , data );
+
+        importer = new Importer();
+        importer.setGlyphSize( glyphSize , glyphSize );
+        importer.setLayout( layout );
+        importer.setBitOrder( bitOrder );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( rom.toPath() );
+    }
+
+    @Benchmark
+    public SpriteSet load() throws IOException {
+        return importer.load( rom );
+    }
+}
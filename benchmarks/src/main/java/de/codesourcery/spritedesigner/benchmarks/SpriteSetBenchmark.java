@@ -0,0 +1,201 @@
+package de.codesourcery.spritedesigner.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.spritedesigner.DedupIndex;
+import de.codesourcery.spritedesigner.ExportCache;
+import de.codesourcery.spritedesigner.Sprite;
+import de.codesourcery.spritedesigner.Sprite.Flip;
+import de.codesourcery.spritedesigner.SpriteEncoder;
+import de.codesourcery.spritedesigner.SpriteLibrary;
+import de.codesourcery.spritedesigner.SpriteSet;
+import de.codesourcery.spritedesigner.SpriteSetExporter;
+import de.codesourcery.spritedesigner.SpriteSetFile;
+
+/**
+ * Exporting, saving and loading whole sprite sets.
+ * 
+ * The biggest parameter combinations need a few gigabytes of heap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SpriteSetBenchmark
+{
+    @Param({"8","32","64"})
+    public int spriteSize;
+
+    @Param({"256","10000","100000"})
+    public int setSize;
+
+    private SpriteSet spriteSet;
+    private byte[] serialized;
+    private byte[] binary;
+    private byte[] binaryCompressed;
+    private File libraryFile;
+    private SpriteSetExporter exporter;
+    private SpriteSetExporter parallelExporter;
+    private SpriteEncoder cachedEncoder;
+
+    @Setup
+    public void setup() throws IOException 
+    {
+        spriteSet = BenchmarkUtils.randomSet( setSize , spriteSize , spriteSize );
+        exporter = new SpriteSetExporter( spriteSet );
+        parallelExporter = new SpriteSetExporter( spriteSet );
+        parallelExporter.setParallelism( Runtime.getRuntime().availableProcessors() );
+        cachedEncoder = new ExportCache().encoder( SpriteEncoder.pages( 8 ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        saveJavaSerialization( out );
+        serialized = out.toByteArray();
+
+        out = new ByteArrayOutputStream();
+        SpriteSetFile.write( spriteSet , out , false );
+        binary = out.toByteArray();
+
+        out = new ByteArrayOutputStream();
+        SpriteSetFile.write( spriteSet , out , true );
+        binaryCompressed = out.toByteArray();
+
+        libraryFile = File.createTempFile( "library" , ".font" );
+        Files.write( libraryFile.toPath() , binary );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( libraryFile.toPath() );
+    }
+
+    @Benchmark
+    public byte[] getDataRows() {
+        return spriteSet.getDataRows( false );
+    }
+
+    @Benchmark
+    public byte[] getDataColumns() {
+        return spriteSet.getDataColumns( false , 8 );
+    }
+
+    @Benchmark
+    public String getDataRowsAsAssembly() {
+        return spriteSet.getDataRowsAsAssembly( "    " , Flip.NONE );
+    }
+
+    @Benchmark
+    public String getDataColumnsAsAssembly() {
+        return spriteSet.getDataColumnsAsAssembly( "    " , 8 );
+    }
+
+    @Benchmark
+    public String getSpriteMappingAsAssembly() {
+        return spriteSet.getSpriteMappingAsAssembly( "    " );
+    }
+
+    @Benchmark
+    public long streamDataColumns() throws IOException {
+        return exporter.writeData( false , SpriteEncoder.pages( 8 ) , OutputStream.nullOutputStream() );
+    }
+
+    @Benchmark
+    public long streamDataColumnsParallel() throws IOException {
+        return parallelExporter.writeData( false , SpriteEncoder.pages( 8 ) , OutputStream.nullOutputStream() );
+    }
+
+    @Benchmark
+    public void streamDataColumnsAsAssembly() throws IOException {
+        exporter.writeAsAssembly( "    " , SpriteEncoder.pages( 8 ) , Writer.nullWriter() );
+    }
+
+    @Benchmark
+    public void streamDataColumnsAsAssemblyParallel() throws IOException {
+        parallelExporter.writeAsAssembly( "    " , SpriteEncoder.pages( 8 ) , Writer.nullWriter() );
+    }
+
+    @Benchmark
+    public void streamDataColumnsAsAssemblyCached() throws IOException 
+    {
+        // one changed sprite per export, like after editing a single pixel
+        spriteSet.getSprites().get( 0 ).togglePixel( 0 , 0 );
+        exporter.writeAsAssembly( "    " , cachedEncoder , Writer.nullWriter() );
+    }
+
+    @Benchmark
+    public DedupIndex dedupIndex() {
+        return DedupIndex.of( spriteSet.getSprites() );
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        SpriteSetFile.write( spriteSet , OutputStream.nullOutputStream() , false );
+    }
+
+    @Benchmark
+    public void saveCompressed() throws IOException {
+        SpriteSetFile.write( spriteSet , OutputStream.nullOutputStream() , true );
+    }
+
+    @Benchmark
+    public SpriteSet load() throws IOException {
+        return SpriteSetFile.read( new BufferedInputStream( new ByteArrayInputStream( binary ) ) );
+    }
+
+    @Benchmark
+    public SpriteSet loadCompressed() throws IOException {
+        return SpriteSetFile.read( new BufferedInputStream( new ByteArrayInputStream( binaryCompressed ) ) );
+    }
+
+    @Benchmark
+    public Sprite openLibrary() throws IOException 
+    {
+        try ( SpriteLibrary library = SpriteLibrary.open( libraryFile ) ) {
+            return library.getSpriteSet().sprite( setSize / 2 );
+        }
+    }
+
+    @Benchmark
+    public void saveJavaSerialization() throws IOException {
+        saveJavaSerialization( OutputStream.nullOutputStream() );
+    }
+
+    private void saveJavaSerialization(OutputStream out) throws IOException 
+    {
+        try ( ObjectOutputStream objOut = new ObjectOutputStream( out ) ) {
+            objOut.writeObject( spriteSet );
+        }
+    }
+
+    @Benchmark
+    public SpriteSet loadJavaSerialization() throws IOException, ClassNotFoundException 
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( serialized ) ) ) {
+            return (SpriteSet) in.readObject();
+        }
+    }
+}
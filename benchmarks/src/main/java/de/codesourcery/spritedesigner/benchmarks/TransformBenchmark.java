@@ -0,0 +1,217 @@
+package de.codesourcery.spritedesigner.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.spritedesigner.Sprite;
+import de.codesourcery.spritedesigner.SpriteScaler;
+
+/**
+ * Whole-sprite transformations.
+ *
+ * Transformations that keep the sprite's size run over and over on the same sprite. Transformations that change
+ * the size need a fresh sprite every time, they process a {@link Batch} of copies that is prepared outside of
+ * the measurement before each iteration. Each iteration makes a single call that transforms the whole batch,
+ * results are reported per sprite.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformBenchmark
+{
+    // sprites per batch
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"8","16","32","64","128","256"})
+    public int size;
+
+    private Sprite sprite;
+
+    /**
+     * Copies of sprites for transformations that change their size, recreated before each iteration.
+     */
+    @State(Scope.Thread)
+    public static class Batch
+    {
+        private Sprite[] templates;
+        private Sprite[] framedTemplates;
+
+        public Sprite[] sprites;
+        // content only in the center, so cropping removes a wide blank border
+        public Sprite[] framed;
+
+        @Setup(Level.Trial)
+        public void setupTrial(TransformBenchmark benchmark)
+        {
+            final Random rnd = new Random( 0xdeadbeef );
+            final int size = benchmark.size;
+            templates = new Sprite[ BATCH_SIZE ];
+            framedTemplates = new Sprite[ BATCH_SIZE ];
+            for ( int i = 0 ; i < BATCH_SIZE ; i++ )
+            {
+                templates[i] = BenchmarkUtils.randomSprite( size , size , rnd );
+                final Sprite center = BenchmarkUtils.randomSprite( size / 2 , size / 2 , rnd );
+                center.cropToSize();
+                framedTemplates[i] = new Sprite( size , size );
+                for ( int y = 0 ; y < center.getHeight() ; y++ )
+                {
+                    for ( int x = 0 ; x < center.getWidth() ; x++ )
+                    {
+                        if ( center.isSet( x , y ) ) {
+                            framedTemplates[i].setPixel( size / 4 + x , size / 4 + y );
+                        }
+                    }
+                }
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void setupIteration()
+        {
+            sprites = new Sprite[ BATCH_SIZE ];
+            framed = new Sprite[ BATCH_SIZE ];
+            for ( int i = 0 ; i < BATCH_SIZE ; i++ )
+            {
+                sprites[i] = BenchmarkUtils.copy( templates[i] );
+                framed[i] = BenchmarkUtils.copy( framedTemplates[i] );
+            }
+        }
+    }
+
+    private final SpriteScaler areaScaler = new SpriteScaler( SpriteScaler.Algorithm.AREA );
+    private final SpriteScaler scale2xScaler = new SpriteScaler( SpriteScaler.Algorithm.SCALE2X );
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        sprite = BenchmarkUtils.randomSprite( size , size , new Random( 0xdeadbeef ) );
+    }
+
+    @Benchmark
+    public Sprite rotateCW()
+    {
+        sprite.rotateCW();
+        return sprite;
+    }
+
+    @Benchmark
+    public Sprite rotateCCW()
+    {
+        sprite.rotateCCW();
+        return sprite;
+    }
+
+    @Benchmark
+    public Sprite invert()
+    {
+        sprite.invert();
+        return sprite;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Sprite[] cropToSize(Batch batch)
+    {
+        for ( Sprite s : batch.framed ) {
+            s.cropToSize();
+        }
+        return batch.framed;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Sprite[] upscale(Batch batch)
+    {
+        for ( Sprite s : batch.sprites ) {
+            s.resize( size * 2 , size * 2 , true );
+        }
+        return batch.sprites;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Sprite[] downscale(Batch batch)
+    {
+        for ( Sprite s : batch.sprites ) {
+            s.resize( size / 2 , size / 2 , true );
+        }
+        return batch.sprites;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Sprite[] downscaleArea(Batch batch)
+    {
+        for ( Sprite s : batch.sprites ) {
+            areaScaler.scale( s , size / 2 , size / 2 );
+        }
+        return batch.sprites;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Sprite[] upscaleScale2x(Batch batch)
+    {
+        for ( Sprite s : batch.sprites ) {
+            scale2xScaler.scale( s , size * 2 , size * 2 );
+        }
+        return batch.sprites;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Sprite[] enlargeWithoutScaling(Batch batch)
+    {
+        for ( Sprite s : batch.sprites ) {
+            s.resize( size * 2 , size * 2 , false );
+        }
+        return batch.sprites;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Sprite[] shrinkWithoutScaling(Batch batch)
+    {
+        for ( Sprite s : batch.sprites ) {
+            s.resize( size / 2 , size / 2 , false );
+        }
+        return batch.sprites;
+    }
+}
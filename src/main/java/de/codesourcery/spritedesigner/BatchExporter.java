@@ -0,0 +1,852 @@
+package de.codesourcery.spritedesigner;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import de.codesourcery.spritedesigner.Sprite.Flip;
+
+/**
+ * Command-line tool that exports sprites without a GUI, for use in build scripts.
+ *
+ * Arguments are processed from left to right: inputs append sprites to the set, transforms are applied
+ * to all sprites loaded so far and outputs write the set as it is at that point. Options like
+ * <code>--flip</code> or <code>--glyph-size</code> affect all following arguments.
+ *
+ * AWT is never initialized (images are decoded in headless mode), so the tool starts quickly.
+ * With <code>--cache</code> outputs are kept in a {@link BuildCache} across runs, if the arguments and the
+ * contents of all input files are unchanged they are written from the cache without loading any sprites.
+ * With <code>--watch</code> the tool keeps running and exports again whenever an input file changes.
+ * Run without arguments for a list of options.
+ */
+public final class BatchExporter
+{
+    private static final String USAGE =
+        "Usage: java -cp spritedesigner.jar "+BatchExporter.class.getName()+" [argument...]\n"+
+        "\n"+
+        "Arguments are processed from left to right.\n"+
+        "\n"+
+        "Inputs, append sprites:\n"+
+        "  FILE.font                   sprite set file\n"+
+        "  FILE.png|.bmp|.jpg          image, becomes a single sprite\n"+
+        "  FILE.gif                    (animated) GIF, each frame becomes a sprite\n"+
+        "  --rom FILE                  glyphs from raw binary data, see ROM options\n"+
+        "  --sheet FILE                sprite sheet image, see sprite sheet options\n"+
+        "\n"+
+        "ROM options:\n"+
+        "  --glyph-size WxH            glyph size in pixels (default 8x8)\n"+
+        "  --glyph-count N             number of glyphs to import (default: as many as the file holds)\n"+
+        "  --layout rows|columns|pages (default rows)\n"+
+        "  --bit-order msb|lsb         bit holding the first pixel (default msb)\n"+
+        "  --offset N                  offset of the first glyph in bytes\n"+
+        "  --stride N                  bytes from one glyph to the next (default: glyph size)\n"+
+        "\n"+
+        "Image options, apply to images and sprite sheets loaded afterwards:\n"+
+        "  --convert threshold|otsu|ordered|floyd-steinberg\n"+
+        "                              fixed or automatic (Otsu) luminance threshold, Bayer or Floyd-Steinberg dithering.\n"+
+        "                              Without any image option pixels are converted like the GUI's \"Import image...\".\n"+
+        "  --luma-threshold N          luminance (1-255) from which on pixels are set with --convert threshold (default 128)\n"+
+        "  --alpha black|white|cutout  blend transparent pixels onto black or white, or cut them out (default black)\n"+
+        "  --set-dark                  dark instead of light pixels become set pixels\n"+
+        "\n"+
+        "Sprite sheet options:\n"+
+        "  --cell-size WxH             cell size in pixels (default 8x8)\n"+
+        "  --margin N                  distance of the first cell from the top-left corner\n"+
+        "  --spacing N                 gap between neighbouring cells\n"+
+        "  --skip-empty                leave out cells without any set pixels\n"+
+        "\n"+
+        "Transforms, apply to all sprites loaded so far:\n"+
+        "  --crop                      crop sprites to their content\n"+
+        "  --rotate-cw, --rotate-ccw   rotate sprites by 90 degrees\n"+
+        "  --invert                    invert all pixels\n"+
+        "  --resize WxH                change size, keeping pixels at the top-left corner\n"+
+        "  --scale WxH                 change size, scaling the pixels\n"+
+        "  --scaler nearest|area|scale2x\n"+
+        "                              algorithm used by --scale (default nearest)\n"+
+        "  --threshold PERCENT         part of a pixel that needs to be covered with --scaler area (default 50)\n"+
+        "  --index-from N              map sprites to character codes N, N+1, ...\n"+
+        "\n"+
+        "Output options:\n"+
+        "  --flip none|x|y|xy          flip applied by --rows/--columns (default none)\n"+
+        "  --bits-per-column N         page height used by --pages (default 8)\n"+
+        "  --format asm|bin            write assembly .db directives or raw bytes (default asm)\n"+
+        "  --dedup                     write identical sprites only once\n"+
+        "  --label NAME                label in front of the data (default charset)\n"+
+        "  --prefix TEXT               prefix of each assembly line (default 4 spaces)\n"+
+        "\n"+
+        "Outputs, FILE may be - for standard output. --rows, --columns, --pages and --mapping only include sprites\n"+
+        "mapped to a character code, sprite set files keep their mapping, all other inputs need --index-from:\n"+
+        "  --rows FILE                 row-oriented data\n"+
+        "  --columns FILE              column-oriented data\n"+
+        "  --pages FILE                page-oriented data (SSD1306)\n"+
+        "  --mapping FILE              table mapping character codes to sprites, for the data written last\n"+
+        "  --save FILE                 sprite set file\n"+
+        "\n"+
+        "Build options:\n"+
+        "  --cache DIR                 keep outputs in DIR, later runs copy them from there as long as the\n"+
+        "                              arguments and input files are unchanged\n"+
+        "  --watch                     keep running and export again whenever an input file changes.\n"+
+        "                              Output files are only replaced if their contents changed.\n";
+
+    // how long to wait for more file changes before exporting again, editors often save in several steps
+    private static final long WATCH_DELAY_MILLIS = 200;
+
+    private final PrintStream stdout;
+
+    private BuildCache cache;
+    private boolean watch;
+    // files read by the last run
+    private final Set<Path> inputs = new HashSet<>();
+    // outputs of the current run in the order they are written, null without --cache
+    private Iterator<CachedOutput> cachedOutputs;
+    // contents of the input files the cache keys were made of, inputs get decoded from these instead of
+    // reading the files again. Empty without --cache.
+    private final Map<Path,byte[]> snapshots = new HashMap<>();
+
+    private SpriteSet spriteSet;
+    private Importer romImporter;
+    private SpriteScaler scaler;
+    private SpriteSheetImporter sheetImporter;
+    // null unless image options are used
+    private ImageConverter converter;
+
+    private Flip flip;
+    private int bitsPerColumn;
+    private boolean binary;
+    private boolean deduplicate;
+    private String label;
+    private String prefix;
+    // encoder used by the most recent data output
+    private SpriteEncoder lastEncoder;
+
+    /**
+     * Output option together with its entry in the {@link BuildCache}.
+     */
+    private static final class CachedOutput
+    {
+        public final String file;
+        public final BuildCache.Key key;
+        // null if not cached
+        public final byte[] data;
+
+        public CachedOutput(String file,BuildCache.Key key,byte[] data)
+        {
+            this.file = file;
+            this.key = key;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Thrown on invalid command-line arguments.
+     */
+    static final class UsageException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        public UsageException(String message) {
+            super( message );
+        }
+    }
+
+    BatchExporter(PrintStream stdout) {
+        this.stdout = stdout;
+    }
+
+    public static void main(String[] args)
+    {
+        System.setProperty( "java.awt.headless" , "true" );
+        if ( args.length == 0 || "--help".equals( args[0] ) || "-h".equals( args[0] ) )
+        {
+            System.out.print( USAGE );
+            System.exit( args.length == 0 ? 2 : 0 );
+        }
+        try
+        {
+            final BatchExporter exporter = new BatchExporter( System.out );
+            exporter.run( args );
+            if ( exporter.watch ) {
+                exporter.watch( args );
+            }
+        }
+        catch(UsageException e)
+        {
+            System.err.println( "ERROR: "+e.getMessage()+"\n\n"+USAGE );
+            System.exit( 2 );
+        }
+        catch(IOException | RuntimeException e)
+        {
+            System.err.println( "ERROR: "+e.getMessage() );
+            System.exit( 1 );
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Processes command-line arguments.
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     */
+    void run(String[] args) throws UsageException, IOException
+    {
+        spriteSet = new SpriteSet();
+        romImporter = new Importer();
+        scaler = new SpriteScaler();
+        sheetImporter = new SpriteSheetImporter();
+        converter = null;
+        flip = Flip.NONE;
+        bitsPerColumn = 8;
+        binary = false;
+        deduplicate = false;
+        label = "charset";
+        prefix = "    ";
+        lastEncoder = null;
+        inputs.clear();
+        cachedOutputs = null;
+        snapshots.clear();
+        try
+        {
+            final List<CachedOutput> outputs = planCachedOutputs( args );
+            if ( outputs != null && outputs.stream().allMatch( output -> output.data != null ) )
+            {
+                for ( CachedOutput output : outputs ) {
+                    write( output.file , out -> out.write( output.data ) );
+                }
+                return;
+            }
+            cachedOutputs = outputs != null ? outputs.iterator() : null;
+            process( args );
+        }
+        finally {
+            snapshots.clear();
+        }
+    }
+
+    /**
+     * Looks up all outputs in the build cache.
+     *
+     * Only walks over the arguments to find inputs and outputs, errors are left to {@link #process(String[])}.
+     * Also records the input files and picks up <code>--watch</code>, as processing is skipped if all outputs are cached.
+     * Input files are read into {@link #snapshots} to be decoded from there.
+     *
+     * @param args
+     * @return outputs in the order they get written, <code>null</code> if there is no <code>--cache</code> option
+     * or an input file could not be read
+     * @throws IOException if the cache directory could not be created
+     */
+    private List<CachedOutput> planCachedOutputs(String[] args) throws IOException
+    {
+        for ( int i = 0 ; i < args.length && cache == null ; i++ )
+        {
+            if ( "--cache".equals( args[i] ) && i + 1 < args.length ) {
+                cache = new BuildCache( new File( args[i+1] ) );
+            }
+        }
+        if ( cache == null ) {
+            return null;
+        }
+        final BuildCache.KeyBuilder keys = new BuildCache.KeyBuilder();
+        final List<CachedOutput> outputs = new ArrayList<>();
+        try
+        {
+            for ( int i = 0 ; i < args.length ; i++ )
+            {
+                final String arg = args[i];
+                keys.argument( arg );
+                if ( ! arg.startsWith( "--" ) )
+                {
+                    keys.file( snapshot( input( arg ) ) );
+                    continue;
+                }
+                watch |= "--watch".equals( arg );
+                if ( i + 1 >= args.length || ! takesValue( arg ) ) {
+                    continue;
+                }
+                final String value = args[++i];
+                keys.argument( value );
+                switch( arg )
+                {
+                    case "--rom":
+                    case "--sheet":
+                        keys.file( snapshot( input( value ) ) );
+                        break;
+                    case "--rows":
+                    case "--columns":
+                    case "--pages":
+                    case "--mapping":
+                    case "--save":
+                        final BuildCache.Key key = keys.build();
+                        outputs.add( new CachedOutput( value , key , cache.get( key ) ) );
+                        break;
+                    default:
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            // reported when processing the arguments
+            snapshots.clear();
+            return null;
+        }
+        return outputs;
+    }
+
+    private byte[] snapshot(Path file) throws IOException
+    {
+        byte[] data = snapshots.get( file );
+        if ( data == null )
+        {
+            data = Files.readAllBytes( file );
+            snapshots.put( file , data );
+        }
+        return data;
+    }
+
+    private Path input(String file)
+    {
+        final Path path = Paths.get( file ).toAbsolutePath().normalize();
+        inputs.add( path );
+        return path;
+    }
+
+    private void process(String[] args) throws UsageException, IOException
+    {
+        for ( int i = 0 ; i < args.length ; i++ )
+        {
+            final String arg = args[i];
+            if ( ! arg.startsWith( "--" ) ) {
+                load( new File( arg ) );
+                continue;
+            }
+            if ( i + 1 < args.length && takesValue( arg ) ) {
+                process( arg , args[++i] );
+            } else if ( takesValue( arg ) ) {
+                throw new UsageException( "Option "+arg+" needs a value" );
+            } else {
+                process( arg , null );
+            }
+        }
+    }
+
+    private static boolean takesValue(String option)
+    {
+        switch( option )
+        {
+            case "--crop":
+            case "--rotate-cw":
+            case "--rotate-ccw":
+            case "--invert":
+            case "--dedup":
+            case "--skip-empty":
+            case "--watch":
+            case "--set-dark":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private void process(String option,String value) throws UsageException, IOException
+    {
+        switch( option )
+        {
+            // inputs
+            case "--rom":
+                final byte[] romData = snapshots.get( input( value ) );
+                final SpriteSet rom = romData != null ? romImporter.load( ByteBuffer.wrap( romData ) ) : romImporter.load( new File( value ) );
+                spriteSet.getSprites().addAll( rom.getSprites() );
+                break;
+            case "--sheet":
+                final byte[] sheetData = snapshots.get( input( value ) );
+                final SpriteSet sheet = sheetData != null ? sheetImporter.load( readImage( sheetData , value ) ) : sheetImporter.load( new File( value ) );
+                spriteSet.getSprites().addAll( sheet.getSprites() );
+                break;
+            // ROM options
+            case "--glyph-size":
+                final int[] size = parseSize( option , value );
+                romImporter.setGlyphSize( size[0] , size[1] );
+                break;
+            case "--glyph-count":
+                romImporter.setGlyphCount( parseInt( option , value ) );
+                break;
+            case "--layout":
+                romImporter.setLayout( parseEnum( option , value , Importer.Layout.class ) );
+                break;
+            case "--bit-order":
+                if ( ! "msb".equalsIgnoreCase( value ) && ! "lsb".equalsIgnoreCase( value ) ) {
+                    throw new UsageException( "Unknown value for "+option+": "+value );
+                }
+                romImporter.setBitOrder( "msb".equalsIgnoreCase( value ) ? Importer.BitOrder.MSB_FIRST : Importer.BitOrder.LSB_FIRST );
+                break;
+            case "--offset":
+                romImporter.setOffset( parseInt( option , value ) );
+                break;
+            case "--stride":
+                romImporter.setStride( parseInt( option , value ) );
+                break;
+            // image options
+            case "--convert":
+                switch( value.toLowerCase( Locale.ROOT ) )
+                {
+                    case "threshold":       converter().setMethod( ImageConverter.Method.THRESHOLD ); break;
+                    case "otsu":            converter().setMethod( ImageConverter.Method.OTSU ); break;
+                    case "ordered":         converter().setMethod( ImageConverter.Method.ORDERED ); break;
+                    case "floyd-steinberg": converter().setMethod( ImageConverter.Method.FLOYD_STEINBERG ); break;
+                    default:
+                        throw new UsageException( "Unknown conversion: "+value );
+                }
+                break;
+            case "--luma-threshold":
+                final int luminance = parseInt( option , value );
+                if ( luminance < 1 || luminance > 255 ) {
+                    throw new UsageException( "Option "+option+" needs a value between 1 and 255, got: "+value );
+                }
+                converter().setThreshold( luminance );
+                break;
+            case "--alpha":
+                converter().setAlpha( parseEnum( option , value , ImageConverter.Alpha.class ) );
+                break;
+            case "--set-dark":
+                converter().setInvert( true );
+                break;
+            // sprite sheet options
+            case "--cell-size":
+                final int[] cellSize = parseSize( option , value );
+                sheetImporter.setCellSize( cellSize[0] , cellSize[1] );
+                break;
+            case "--margin":
+                sheetImporter.setMargin( parseInt( option , value ) );
+                break;
+            case "--spacing":
+                sheetImporter.setSpacing( parseInt( option , value ) );
+                break;
+            case "--skip-empty":
+                sheetImporter.setSkipEmpty( true );
+                break;
+            // transforms
+            case "--crop":
+                spriteSet.getSprites().forEach( Sprite::cropToSize );
+                break;
+            case "--rotate-cw":
+                spriteSet.rotateCW();
+                break;
+            case "--rotate-ccw":
+                spriteSet.rotateCCW();
+                break;
+            case "--invert":
+                spriteSet.getSprites().forEach( Sprite::invert );
+                break;
+            case "--resize":
+                final int[] newSize = parseSize( option , value );
+                for ( Sprite sprite : spriteSet.getSprites() ) {
+                    sprite.resize( newSize[0] , newSize[1] , false );
+                }
+                break;
+            case "--scale":
+                final int[] scaledSize = parseSize( option , value );
+                scaler.scale( spriteSet , scaledSize[0] , scaledSize[1] );
+                break;
+            case "--scaler":
+                switch( value.toLowerCase( Locale.ROOT ) )
+                {
+                    case "nearest": scaler.setAlgorithm( SpriteScaler.Algorithm.NEAREST ); break;
+                    case "area":    scaler.setAlgorithm( SpriteScaler.Algorithm.AREA ); break;
+                    case "scale2x": scaler.setAlgorithm( SpriteScaler.Algorithm.SCALE2X ); break;
+                    default:
+                        throw new UsageException( "Unknown scaler: "+value );
+                }
+                break;
+            case "--threshold":
+                final int percent = parseInt( option , value );
+                if ( percent < 1 || percent > 100 ) {
+                    throw new UsageException( "Option "+option+" needs a percentage between 1 and 100, got: "+value );
+                }
+                scaler.setThreshold( percent / 100.0 );
+                break;
+            case "--index-from":
+                int index = parseInt( option , value );
+                for ( Sprite sprite : spriteSet.getSprites() ) {
+                    sprite.setIndex( index++ );
+                }
+                break;
+            // output options
+            case "--flip":
+                flip = parseFlip( value );
+                break;
+            case "--bits-per-column":
+                bitsPerColumn = parseInt( option , value );
+                break;
+            case "--format":
+                if ( ! "asm".equals( value ) && ! "bin".equals( value ) ) {
+                    throw new UsageException( "Unknown format: "+value );
+                }
+                binary = "bin".equals( value );
+                break;
+            case "--dedup":
+                deduplicate = true;
+                break;
+            case "--label":
+                label = value;
+                break;
+            case "--prefix":
+                prefix = value;
+                break;
+            // build options
+            case "--cache":
+                if ( cache == null ) {
+                    cache = new BuildCache( new File( value ) );
+                }
+                break;
+            case "--watch":
+                watch = true;
+                break;
+            // outputs
+            case "--rows":
+                requireMappedSprites( option );
+                writeData( SpriteEncoder.rows( flip ) , "rows "+flip , value );
+                break;
+            case "--columns":
+                requireMappedSprites( option );
+                writeData( SpriteEncoder.columns( flip ) , "columns "+flip , value );
+                break;
+            case "--pages":
+                requireMappedSprites( option );
+                writeData( SpriteEncoder.pages( bitsPerColumn ) , bitsPerColumn+" bits per column columns" , value );
+                break;
+            case "--mapping":
+                requireMappedSprites( option );
+                writeMapping( value );
+                break;
+            case "--save":
+                write( value , out -> SpriteSetFile.write( spriteSet , out , false ) );
+                break;
+            default:
+                throw new UsageException( "Unknown option: "+option );
+        }
+    }
+
+    private void load(File file) throws IOException
+    {
+        final byte[] data = snapshots.get( input( file.getPath() ) );
+        final String name = file.getName().toLowerCase( Locale.ROOT );
+        if ( name.endsWith( ".gif" ) )
+        {
+            final GifImporter importer = new GifImporter();
+            importer.setConverter( converter );
+            if ( data == null ) {
+                importer.load( file , spriteSet::add );
+                return;
+            }
+            try ( ImageInputStream in = ImageIO.createImageInputStream( new ByteArrayInputStream( data ) ) ) {
+                importer.load( in , spriteSet::add );
+            }
+            return;
+        }
+        if ( name.endsWith( ".png" ) || name.endsWith( ".bmp" ) || name.endsWith( ".jpg" ) || name.endsWith( ".jpeg" ) )
+        {
+            final BufferedImage image = data != null ? readImage( data , file ) : ImageIO.read( file );
+            if ( image == null ) {
+                throw new IOException( "Unsupported image format: "+file );
+            }
+            final Sprite sprite = new Sprite( image.getWidth() , image.getHeight() );
+            if ( converter != null ) {
+                converter.convert( image , sprite );
+            } else {
+                sprite.setToImage( image );
+            }
+            spriteSet.add( sprite );
+            return;
+        }
+        final SpriteSet loaded = data != null ? SpriteSetFile.load( new ByteArrayInputStream( data ) , file.getAbsolutePath() ) : SpriteSetFile.load( file );
+        if ( spriteSet.isEmpty() ) {
+            spriteSet = loaded;
+        } else {
+            spriteSet.getSprites().addAll( loaded.getSprites() );
+        }
+    }
+
+    private static BufferedImage readImage(byte[] data,Object file) throws IOException
+    {
+        final BufferedImage image = ImageIO.read( new ByteArrayInputStream( data ) );
+        if ( image == null ) {
+            throw new IOException( "Unsupported image format: "+file );
+        }
+        return image;
+    }
+
+    private ImageConverter converter()
+    {
+        if ( converter == null )
+        {
+            converter = new ImageConverter();
+            sheetImporter.setConverter( converter );
+        }
+        return converter;
+    }
+
+    private SpriteSetExporter exporter()
+    {
+        final SpriteSetExporter exporter = new SpriteSetExporter( spriteSet );
+        exporter.setParallelism( Runtime.getRuntime().availableProcessors() );
+        exporter.setDeduplicate( deduplicate );
+        return exporter;
+    }
+
+    /**
+     * Writes the contents of an output file.
+     */
+    @FunctionalInterface
+    private interface Output
+    {
+        public void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Fails if an output would be empty because no sprite is mapped to a character code.
+     */
+    private void requireMappedSprites(String option) throws UsageException
+    {
+        if ( spriteSet.getSprites().stream().noneMatch( Sprite::hasIndex ) ) {
+            throw new UsageException( "Option "+option+" only writes sprites mapped to a character code but none of the "+
+                spriteSet.size()+" sprites is, use --index-from first" );
+        }
+    }
+
+    private void writeData(SpriteEncoder encoder,String organization,String file) throws IOException
+    {
+        lastEncoder = encoder;
+        if ( binary )
+        {
+            write( file , out -> exporter().writeData( true , encoder , out ) );
+            return;
+        }
+        write( file , stream ->
+        {
+            final Writer out = new OutputStreamWriter( stream , StandardCharsets.UTF_8 );
+            out.write( label+":\n; data organization: "+organization+"\n" );
+            exporter().writeAsAssembly( prefix , encoder , out );
+            out.flush();
+        });
+    }
+
+    private void writeMapping(String file) throws IOException
+    {
+        write( file , stream ->
+        {
+            final Writer out = new OutputStreamWriter( stream , StandardCharsets.UTF_8 );
+            out.write( label+"_mapping:\n" );
+            exporter().writeSpriteMappingAsAssembly( prefix , lastEncoder , out );
+            out.flush();
+        });
+    }
+
+    /**
+     * Writes an output file.
+     *
+     * Data is written to a temporary file that replaces the target file only after everything was written,
+     * so a failed export never leaves a truncated file behind for the build to pick up. If the contents
+     * didn't change, the target file is left alone so that build tools don't consider it modified.
+     * With <code>--cache</code> the contents are taken from the cache if possible and stored in it otherwise.
+     *
+     * @param file file to write, <code>-</code> for standard output
+     * @param output
+     * @throws IOException
+     */
+    private void write(String file,Output output) throws IOException
+    {
+        if ( cachedOutputs != null )
+        {
+            final CachedOutput cached = cachedOutputs.next();
+            final byte[] data;
+            if ( cached.data != null ) {
+                data = cached.data;
+            }
+            else
+            {
+                final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                output.write( buffer );
+                data = buffer.toByteArray();
+                cache.put( cached.key , data );
+            }
+            output = out -> out.write( data );
+        }
+        if ( "-".equals( file ) )
+        {
+            final BufferedOutputStream out = new BufferedOutputStream( stdout );
+            output.write( out );
+            out.flush();
+            return;
+        }
+        final Path target = Paths.get( file ).toAbsolutePath();
+        final Path tmp = target.resolveSibling( target.getFileName()+".tmp" );
+        try
+        {
+            try ( OutputStream out = new BufferedOutputStream( Files.newOutputStream( tmp ) ) ) {
+                output.write( out );
+            }
+            if ( sameContent( tmp , target ) ) {
+                return;
+            }
+            Files.move( tmp , target , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            Files.deleteIfExists( tmp );
+        }
+    }
+
+    private static boolean sameContent(Path a,Path b) throws IOException
+    {
+        if ( ! Files.exists( b ) || Files.size( a ) != Files.size( b ) ) {
+            return false;
+        }
+        try ( InputStream in1 = Files.newInputStream( a ) ; InputStream in2 = Files.newInputStream( b ) )
+        {
+            final byte[] buffer1 = new byte[ 64*1024 ];
+            final byte[] buffer2 = new byte[ 64*1024 ];
+            int len;
+            while ( ( len = in1.readNBytes( buffer1 , 0 , buffer1.length ) ) > 0 )
+            {
+                if ( in2.readNBytes( buffer2 , 0 , len ) != len || ! Arrays.equals( buffer1 , 0 , len , buffer2 , 0 , len ) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Exports again whenever one of the input files changes, until the process gets killed.
+     *
+     * @param args command-line arguments to process on each change
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void watch(String[] args) throws IOException, InterruptedException
+    {
+        try ( WatchService service = FileSystems.getDefault().newWatchService() )
+        {
+            final Set<Path> directories = new HashSet<>();
+            register( service , directories );
+            System.err.println( "Watching "+inputs.size()+" input files, press Ctrl+C to stop." );
+            while ( true )
+            {
+                boolean changed = false;
+                // collect events until things calm down
+                for ( WatchKey key = service.take() ; key != null ; key = service.poll( WATCH_DELAY_MILLIS , TimeUnit.MILLISECONDS ) )
+                {
+                    final Path directory = (Path) key.watchable();
+                    for ( WatchEvent<?> event : key.pollEvents() )
+                    {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                                   inputs.contains( directory.resolve( (Path) event.context() ) );
+                    }
+                    key.reset();
+                }
+                if ( ! changed ) {
+                    continue;
+                }
+                final long start = System.currentTimeMillis();
+                try
+                {
+                    run( args );
+                    System.err.println( "Exported in "+( System.currentTimeMillis() - start )+" ms" );
+                }
+                catch(UsageException | IOException | RuntimeException e) {
+                    System.err.println( "ERROR: "+e.getMessage() );
+                }
+                register( service , directories );
+            }
+        }
+    }
+
+    private void register(WatchService service,Set<Path> directories) throws IOException
+    {
+        for ( Path input : inputs )
+        {
+            // files are watched through their directory, editors often replace a file instead of writing to it
+            if ( directories.add( input.getParent() ) ) {
+                input.getParent().register( service , StandardWatchEventKinds.ENTRY_CREATE , StandardWatchEventKinds.ENTRY_MODIFY );
+            }
+        }
+    }
+
+    private static int parseInt(String option,String value) throws UsageException
+    {
+        try {
+            return Integer.decode( value );
+        } catch(NumberFormatException e) {
+            throw new UsageException( "Option "+option+" needs a number, got: "+value );
+        }
+    }
+
+    private static int[] parseSize(String option,String value) throws UsageException
+    {
+        final String[] parts = value.toLowerCase( Locale.ROOT ).split( "x" );
+        if ( parts.length != 2 ) {
+            throw new UsageException( "Option "+option+" needs a size like 8x8, got: "+value );
+        }
+        final int[] result = { parseInt( option , parts[0] ) , parseInt( option , parts[1] ) };
+        if ( result[0] < 1 || result[1] < 1 ) {
+            throw new UsageException( "Option "+option+" needs a size of at least 1x1, got: "+value );
+        }
+        return result;
+    }
+
+    private static Flip parseFlip(String value) throws UsageException
+    {
+        switch( value.toLowerCase( Locale.ROOT ) )
+        {
+            case "none": return Flip.NONE;
+            case "x":    return Flip.FLIP_X;
+            case "y":    return Flip.FLIP_Y;
+            case "xy":   return Flip.FLIP_XY;
+            default:
+                throw new UsageException( "Unknown flip: "+value );
+        }
+    }
+
+    private static <T extends Enum<T>> T parseEnum(String option,String value,Class<T> type) throws UsageException
+    {
+        try {
+            return Enum.valueOf( type , value.toUpperCase( Locale.ROOT ) );
+        } catch(IllegalArgumentException e) {
+            throw new UsageException( "Unknown value for "+option+": "+value );
+        }
+    }
+}
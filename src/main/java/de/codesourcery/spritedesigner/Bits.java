@@ -0,0 +1,95 @@
+package de.codesourcery.spritedesigner;
+
+/**
+ * Bit-twiddling helpers for working with packed sprite data.
+ * 
+ * All methods assume the layout used by {@link Sprite}: Pixels are
+ * stored MSB-first, so the left-most pixel of a byte is bit 7 and the
+ * left-most pixel of a long is bit 63.
+ */
+final class Bits
+{
+    /**
+     * Lookup table holding the bit-reversed value for every byte.
+     */
+    public static final byte[] REVERSED = new byte[256];
+    
+    static 
+    {
+        for ( int i = 0 ; i < 256 ; i++ ) {
+            REVERSED[i] = (byte) ( Integer.reverse( i ) >>> 24 );
+        }
+    }
+    
+    private Bits() {
+    }
+
+    /**
+     * Transposes an 8x8 bit matrix.
+     * 
+     * Byte <code>i</code> (counting from the most significant byte) holds row <code>i</code>
+     * of the matrix, bit 7 of each byte being column 0.
+     * 
+     * @param x
+     * @return transposed matrix, byte <code>i</code> holds what used to be column <code>i</code>
+     */
+    public static long transpose8(long x) 
+    {
+        x = (x & 0xAA55AA55AA55AA55L) | ((x & 0x00AA00AA00AA00AAL) << 7) | ((x >>> 7) & 0x00AA00AA00AA00AAL);
+        x = (x & 0xCCCC3333CCCC3333L) | ((x & 0x0000CCCC0000CCCCL) << 14) | ((x >>> 14) & 0x0000CCCC0000CCCCL);
+        x = (x & 0xF0F0F0F00F0F0F0FL) | ((x & 0x00000000F0F0F0F0L) << 28) | ((x >>> 28) & 0x00000000F0F0F0F0L);
+        return x;
+    }
+
+    /**
+     * Reverses the bit order inside each byte of a long while keeping the byte order.
+     */
+    public static long reverseBitsInBytes(long x) {
+        return Long.reverseBytes( Long.reverse( x ) );
+    }
+
+    /**
+     * Returns one byte (8 pixels) from a packed row.
+     * 
+     * @param bits packed pixel data
+     * @param rowStart index of the first word of the row
+     * @param byteOffset byte offset relative to the start of the row
+     */
+    public static int getByte(long[] bits,int rowStart,int byteOffset) {
+        return (int) ( bits[ rowStart + (byteOffset >>> 3) ] >>> ( 56 - ((byteOffset & 7) << 3) ) ) & 0xff;
+    }
+
+    /**
+     * ORs 8 pixels into a packed row at an arbitrary bit offset.
+     * 
+     * Bit 7 of the value ends up at <code>bitOffset</code>. Offsets between -7 and -1 are
+     * allowed, pixels that would end up left of the row's start are discarded. The caller needs 
+     * to make sure that no set pixels end up beyond the last word of the row. 
+     * 
+     * @param bits packed pixel data
+     * @param rowStart index of the first word of the row
+     * @param bitOffset bit offset relative to the start of the row
+     * @param value the pixels to set
+     */
+    public static void or8(long[] bits,int rowStart,int bitOffset,int value) 
+    {
+        if ( bitOffset < 0 ) 
+        {
+            value = ( value << -bitOffset ) & 0xff;
+            bitOffset = 0;
+        }
+        if ( value == 0 ) {
+            return;
+        }
+        final int word = rowStart + (bitOffset >>> 6);
+        final int shift = bitOffset & 63;
+        if ( shift <= 56 ) {
+            bits[word] |= (long) value << ( 56 - shift );
+        } 
+        else 
+        {
+            bits[word] |= (long) value >>> ( shift - 56 );
+            bits[word+1] |= (long) value << ( 120 - shift );
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package de.codesourcery.spritedesigner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * On-disk cache for the contents of output files that survives process restarts.
+ *
+ * The contents of an output only depend on the arguments in front of it and on the input files these name,
+ * so a {@link Key} is made of a hash over the arguments (identifying the output) and a hash over the arguments
+ * plus the contents of the input files (identifying its contents). Looking up an output only needs to hash
+ * the input files, which is a lot cheaper than loading, transforming and encoding the sprites. Outputs
+ * have to be created from the very bytes that were hashed, see {@link KeyBuilder#file(byte[])}.
+ *
+ * Each output has one file in the cache directory holding the contents it had last, so the cache doesn't grow
+ * when inputs change. Files are written to a temporary file that replaces the old one, so several processes may
+ * share a cache directory and a crash never leaves a truncated entry behind. Instances are thread-safe.
+ *
+ * @see ExportCache
+ */
+public final class BuildCache
+{
+    // file header, the last byte is the format version. Needs to be incremented when an encoder changes its output.
+    private static final byte[] MAGIC = { 'S' , 'D' , 'B' , 'C' , 2 };
+
+    private static final int HASH_LENGTH = 32;
+
+    private final Path directory;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Identifies an output and its contents.
+     */
+    public static final class Key
+    {
+        // hash of the arguments, names the cache file
+        private final String output;
+        // hash of the arguments and input file contents
+        private final byte[] contents;
+
+        private Key(String output,byte[] contents)
+        {
+            this.output = output;
+            this.contents = contents;
+        }
+
+        @Override
+        public String toString() {
+            return output;
+        }
+    }
+
+    /**
+     * Creates the keys of outputs while walking over the command-line arguments.
+     */
+    public static final class KeyBuilder
+    {
+        private final MessageDigest arguments = sha256();
+        private final MessageDigest contents = sha256();
+
+        /**
+         * Adds a command-line argument.
+         *
+         * @param argument
+         * @return this instance
+         */
+        public KeyBuilder argument(String argument)
+        {
+            final byte[] bytes = argument.getBytes( StandardCharsets.UTF_8 );
+            final byte[] length = ByteBuffer.allocate( 4 ).putInt( bytes.length ).array();
+            arguments.update( length );
+            arguments.update( bytes );
+            contents.update( length );
+            contents.update( bytes );
+            return this;
+        }
+
+        /**
+         * Adds the contents of an input file.
+         *
+         * The outputs need to be created from exactly these bytes, not by reading the file again,
+         * otherwise a file changing in between would get output cached for contents it wasn't created from.
+         *
+         * @param data
+         * @return this instance
+         */
+        public KeyBuilder file(byte[] data)
+        {
+            final MessageDigest digest = sha256();
+            digest.update( data );
+            contents.update( digest.digest() );
+            return this;
+        }
+
+        /**
+         * Returns the key of an output written after all arguments added so far.
+         */
+        public Key build()
+        {
+            try
+            {
+                final byte[] output = ( (MessageDigest) arguments.clone() ).digest();
+                final StringBuilder name = new StringBuilder();
+                for ( byte b : output ) {
+                    name.append( Character.forDigit( ( b >> 4 ) & 0x0f , 16 ) ).append( Character.forDigit( b & 0x0f , 16 ) );
+                }
+                return new Key( name.toString() , ( (MessageDigest) contents.clone() ).digest() );
+            }
+            catch(CloneNotSupportedException e) {
+                throw new RuntimeException( e );
+            }
+        }
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param directory directory to keep cache files in, created if it doesn't exist
+     * @throws IOException
+     */
+    public BuildCache(File directory) throws IOException
+    {
+        this.directory = directory.toPath();
+        Files.createDirectories( this.directory );
+    }
+
+    private static MessageDigest sha256()
+    {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        } catch(NoSuchAlgorithmException e) {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private Path file(Key key) {
+        return directory.resolve( key.output+".cache" );
+    }
+
+    /**
+     * Returns the cached contents of an output.
+     *
+     * @param key
+     * @return contents or <code>null</code> if the output isn't cached or was written from different inputs
+     * @throws IOException
+     */
+    public byte[] get(Key key) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file( key ) ) )
+        {
+            final ByteBuffer header = ByteBuffer.allocate( MAGIC.length + HASH_LENGTH );
+            if ( read( channel , header ) &&
+                 Arrays.equals( header.array() , 0 , MAGIC.length , MAGIC , 0 , MAGIC.length ) &&
+                 Arrays.equals( header.array() , MAGIC.length , header.capacity() , key.contents , 0 , HASH_LENGTH ) )
+            {
+                final long size = channel.size() - header.capacity();
+                if ( size <= Integer.MAX_VALUE - 8 )
+                {
+                    final ByteBuffer data = ByteBuffer.allocate( (int) size );
+                    if ( read( channel , data ) )
+                    {
+                        hits.increment();
+                        return data.array();
+                    }
+                }
+            }
+        }
+        catch(NoSuchFileException e) {
+            // not cached yet
+        }
+        misses.increment();
+        return null;
+    }
+
+    private static boolean read(FileChannel channel,ByteBuffer buffer) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer ) < 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the contents of an output, replacing what was cached for it before.
+     *
+     * @param key
+     * @param data
+     * @throws IOException
+     */
+    public void put(Key key,byte[] data) throws IOException
+    {
+        final Path target = file( key );
+        final Path tmp = Files.createTempFile( directory , key.output , ".tmp" );
+        try
+        {
+            try ( FileChannel channel = FileChannel.open( tmp , StandardOpenOption.WRITE ) )
+            {
+                final ByteBuffer buffer = ByteBuffer.allocate( MAGIC.length + HASH_LENGTH );
+                buffer.put( MAGIC ).put( key.contents ).flip();
+                while ( buffer.hasRemaining() ) {
+                    channel.write( buffer );
+                }
+                final ByteBuffer contents = ByteBuffer.wrap( data );
+                while ( contents.hasRemaining() ) {
+                    channel.write( contents );
+                }
+            }
+            try {
+                Files.move( tmp , target , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move( tmp , target , StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        finally {
+            Files.deleteIfExists( tmp );
+        }
+    }
+
+    /**
+     * Returns how many outputs could be taken from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns how many outputs needed to be written.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,100 @@
+package de.codesourcery.spritedesigner;
+
+import java.nio.ByteBuffer;
+
+import de.codesourcery.spritedesigner.Sprite.Flip;
+
+/**
+ * Encodes a sprite column by column, 8 pixels per byte with the top-most pixel in bit 7.
+ * 
+ * The whole byte sequence is written in reverse order, so the first column ends up at the 
+ * end of the output. Sprite width and height both need to be multiples of 8.
+ *  
+ * Pixels are read in 8x8 blocks that get transposed in a single long, there is 
+ * one specialized instance per {@link Flip} value.
+ */
+public final class ColumnEncoder implements SpriteEncoder
+{
+    public static final ColumnEncoder NONE = new ColumnEncoder(Flip.NONE,false,false);
+    public static final ColumnEncoder FLIP_X = new ColumnEncoder(Flip.FLIP_X,true,false);
+    public static final ColumnEncoder FLIP_Y = new ColumnEncoder(Flip.FLIP_Y,false,true);
+    public static final ColumnEncoder FLIP_XY = new ColumnEncoder(Flip.FLIP_XY,true,true);
+
+    private final Flip flip;
+    private final boolean flipX;
+    private final boolean flipY;
+
+    private ColumnEncoder(Flip flip,boolean flipX,boolean flipY) 
+    {
+        this.flip = flip;
+        this.flipX = flipX;
+        this.flipY = flipY;
+    }
+
+    public static ColumnEncoder of(Flip flip) 
+    {
+        switch( flip ) 
+        {
+            case NONE:    return NONE;
+            case FLIP_X:  return FLIP_X;
+            case FLIP_Y:  return FLIP_Y;
+            case FLIP_XY: return FLIP_XY;
+            default:
+                throw new IllegalArgumentException("Unhandled flip: "+flip);
+        }
+    }
+
+    public Flip getFlip() {
+        return flip;
+    }
+
+    @Override
+    public int sizeInBytes(Sprite sprite) {
+        return sprite.sizeInBits() / 8;
+    }
+
+    @Override
+    public void encode(Sprite sprite, ByteBuffer buffer, int offset)
+    {
+        if ( ( sprite.getWidth() % 8 ) != 0 ) {
+            throw new IllegalStateException("Glyph width needs to be a multiple of 8");
+        }
+        if ( ( sprite.getHeight() % 8 ) != 0 ) {
+            throw new IllegalStateException("Glyph height needs to be a multiple of 8");
+        }
+        final long[] bits = sprite.bits();
+        final int width = sprite.getWidth();
+        final int wordsPerRow = Sprite.wordsPerRow( width );
+        final int bytesPerColumn = sprite.getHeight() / 8;
+        final int last = offset + sizeInBytes( sprite ) - 1;
+
+        for ( int by = 0 ; by < bytesPerColumn ; by++ ) 
+        {
+            final int rowStart = by * 8 * wordsPerRow;
+            final int k = flipY ? bytesPerColumn - 1 - by : by;
+            for ( int bx = 0 , bytesPerRow = width / 8 ; bx < bytesPerRow ; bx++ ) 
+            {
+                long block = 0;
+                for ( int i = 0 ; i < 8 ; i++ ) {
+                    block |= (long) Bits.getByte( bits , rowStart + i * wordsPerRow , bx ) << ( 56 - (i << 3) );
+                }
+                // byte j now holds column (8*bx+j) with the top-most pixel in bit 7
+                block = Bits.transpose8( block );
+                if ( flipY ) {
+                    block = Bits.reverseBitsInBytes( block );
+                }
+                for ( int j = 0 ; j < 8 ; j++ ) 
+                {
+                    final int srcX = bx * 8 + j;
+                    final int x = flipX ? width - 1 - srcX : srcX;
+                    buffer.put( last - ( x * bytesPerColumn + k ) , (byte) ( block >>> ( 56 - (j << 3) ) ) );
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "columns "+flip;
+    }
+}
@@ -0,0 +1,235 @@
+package de.codesourcery.spritedesigner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Writes mapped sprites as compressed assembly data together with a mapping table and the matching decompressor.
+ *
+ * Sprites are encoded and then compressed in blocks of {@link #setSpritesPerBlock(int) a configurable number of sprites}.
+ * Every block is compressed on its own, so a single sprite can be unpacked by only decompressing the start of its block.
+ * Larger blocks compress better, but need a bigger buffer and more time to unpack the sprites at their end.
+ *
+ * The mapping table holds one 6-byte entry for each character code 0...255:
+ * <pre>
+ * offset of compressed block       16 bit little endian, relative to the start of the sprite data
+ * offset of sprite in block        16 bit little endian, relative to the start of the decompressed block
+ * sprite width                     8 bit
+ * sprite height                    8 bit
+ * </pre>
+ * To unpack a sprite, decompress (offset in block + sprite size) bytes from the block's offset and
+ * find the sprite at its offset in the output.
+ */
+public class CompressingExporter
+{
+    private final SpriteSet spriteSet;
+    private final SpriteEncoder encoder;
+    private final SpriteCodec codec;
+    private int spritesPerBlock = 1;
+    private boolean deduplicate;
+
+    /**
+     * The result of compressing all mapped sprites.
+     */
+    private static final class Compressed
+    {
+        // all mapped sprites, in the order of the sprite set
+        public List<Sprite> mapped;
+        // sprites in the order they were written
+        public List<Sprite> data;
+        public DedupIndex dedup;
+        public byte[] compressed;
+        public int compressedLength;
+        public int uncompressedLength;
+        public int[] blockOffsets;
+        public int[] blockLengths;
+        // offset of each sprite in its decompressed block
+        public int[] offsetInBlock;
+    }
+
+    public CompressingExporter(SpriteSet spriteSet,SpriteEncoder encoder,SpriteCodec codec)
+    {
+        if ( spriteSet == null || encoder == null || codec == null ) {
+            throw new IllegalArgumentException("Sprite set, encoder and codec must not be NULL");
+        }
+        this.spriteSet = spriteSet;
+        this.encoder = encoder;
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the number of sprites to compress together.
+     *
+     * @param spritesPerBlock number of sprites, 1 compresses each sprite on its own
+     */
+    public void setSpritesPerBlock(int spritesPerBlock)
+    {
+        if ( spritesPerBlock < 1 ) {
+            throw new IllegalArgumentException("Sprites per block must be > 0, was: "+spritesPerBlock);
+        }
+        this.spritesPerBlock = spritesPerBlock;
+    }
+
+    public int getSpritesPerBlock() {
+        return spritesPerBlock;
+    }
+
+    /**
+     * Sets whether to write sprites that look exactly like an earlier sprite only once.
+     *
+     * @param deduplicate
+     * @see DedupIndex
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    public SpriteCodec getCodec() {
+        return codec;
+    }
+
+    private Compressed compress()
+    {
+        final Compressed result = new Compressed();
+        result.mapped = spriteSet.getSprites().stream().filter( Sprite::hasIndex ).collect( Collectors.toList() );
+        result.dedup = deduplicate ? DedupIndex.of( result.mapped ) : null;
+        result.data = result.dedup != null ? result.dedup.getUniqueSprites() : result.mapped;
+
+        final int count = result.data.size();
+        final int blockCount = ( count + spritesPerBlock - 1 ) / spritesPerBlock;
+        result.offsetInBlock = new int[ count ];
+        result.blockOffsets = new int[ blockCount ];
+        result.blockLengths = new int[ blockCount ];
+
+        byte[] block = new byte[0];
+        byte[] compressed = new byte[0];
+        int ptr = 0;
+        for ( int b = 0 ; b < blockCount ; b++ )
+        {
+            final int start = b * spritesPerBlock;
+            final int end = Math.min( count , start + spritesPerBlock );
+            int len = 0;
+            for ( int i = start ; i < end ; i++ )
+            {
+                result.offsetInBlock[i] = len;
+                len += encoder.sizeInBytes( result.data.get( i ) );
+            }
+            if ( len > block.length ) {
+                block = new byte[ len ];
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap( block );
+            for ( int i = start ; i < end ; i++ ) {
+                encoder.encode( result.data.get( i ) , buffer , result.offsetInBlock[i] );
+            }
+            final int required = ptr + codec.maxCompressedLength( len );
+            if ( required > compressed.length ) {
+                compressed = Arrays.copyOf( compressed , Math.max( required , compressed.length * 2 ) );
+            }
+            result.blockOffsets[b] = ptr;
+            result.blockLengths[b] = len;
+            ptr += codec.compress( block , 0 , len , compressed , ptr );
+            result.uncompressedLength += len;
+        }
+        result.compressed = compressed;
+        result.compressedLength = ptr;
+        return result;
+    }
+
+    /**
+     * Writes the compressed sprite data as assembly <code>.db</code> directives, one block after another.
+     *
+     * @param prefix prefix to write at the start of each line
+     * @param out writer to write to, will be flushed but not closed
+     * @throws IOException
+     */
+    public void writeAsAssembly(String prefix,Writer out) throws IOException
+    {
+        final Compressed data = compress();
+        final HexWriter writer = new HexWriter( 16 , prefix + ".db " , out );
+        writer.append( "; "+data.data.size()+" sprites compressed with "+codec.getName()+" in blocks of "+spritesPerBlock+
+            " sprites: "+data.uncompressedLength+" -> "+data.compressedLength+" bytes\n" );
+        final ByteBuffer buffer = ByteBuffer.wrap( data.compressed );
+        for ( int b = 0 ; b < data.blockOffsets.length ; b++ )
+        {
+            final int end = b+1 < data.blockOffsets.length ? data.blockOffsets[b+1] : data.compressedLength;
+            writer.appendHexString( buffer , data.blockOffsets[b] , end - data.blockOffsets[b] );
+            writer.append( " ; block "+b+" ("+data.blockLengths[b]+" bytes unpacked)" );
+            writer.maybeAppendNewline();
+        }
+        writer.flush();
+        out.flush();
+    }
+
+    /**
+     * Writes the table that maps character codes 0...255 to compressed sprites as assembly <code>.db</code> directives.
+     *
+     * @param prefix prefix to write at the start of each line
+     * @param out writer to write to, will be flushed but not closed
+     * @throws IOException if offsets do not fit into 16 bits
+     */
+    public void writeSpriteMappingAsAssembly(String prefix,Writer out) throws IOException
+    {
+        final Compressed data = compress();
+        if ( data.compressedLength > 0xffff || maxBlockLength( data ) > 0xffff ) {
+            throw new IOException("Compressed sprite data is too large to be addressed with 16-bit offsets");
+        }
+        final Map<Integer,Integer> asciiToIndex = new HashMap<>();
+        for ( int i = 0 ; i < data.mapped.size() ; i++ ) {
+            asciiToIndex.put( data.mapped.get(i).index() , i );
+        }
+
+        final HexWriter result = new HexWriter( 16 , prefix + ".db " , out );
+        result.append("; Compressed sprites, this mapping table holds 6-byte entries with each containing 16-bit offset of the compressed block,"+
+            "16-bit offset in the decompressed block,sprite width (pixels),sprite height (pixels)\n");
+        for ( int i = 0 ; i < 256 ; i++ )
+        {
+            final Integer glyphIndex = asciiToIndex.get( i );
+            if ( glyphIndex != null )
+            {
+                final int dataIndex = data.dedup != null ? data.dedup.uniqueIndex( glyphIndex ) : glyphIndex;
+                final Sprite sprite = data.data.get( dataIndex );
+                result.appendHexWordStringLittleEndian( data.blockOffsets[ dataIndex / spritesPerBlock ] )
+                .appendHexWordStringLittleEndian( data.offsetInBlock[ dataIndex ] )
+                .appendHexByteString( sprite.getWidth() )
+                .appendHexByteString( sprite.getHeight() );
+            } else {
+                result.appendHexWordStringLittleEndian( 0 );
+                result.appendHexWordStringLittleEndian( 0 );
+                result.appendHexWordStringLittleEndian( 0 );
+            }
+        }
+        result.flush();
+        out.flush();
+    }
+
+    private static int maxBlockLength(Compressed data)
+    {
+        int result = 0;
+        for ( int len : data.blockLengths ) {
+            result = Math.max( result , len );
+        }
+        return result;
+    }
+
+    /**
+     * Writes the decompression routine for this exporter's codec.
+     *
+     * @param out writer to write to, will be flushed but not closed
+     * @throws IOException
+     */
+    public void writeDecompressorAsAssembly(Writer out) throws IOException
+    {
+        out.write( codec.getDecompressorAsAssembly() );
+        out.flush();
+    }
+}
@@ -0,0 +1,220 @@
+package de.codesourcery.spritedesigner;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Compares how well and how fast codecs compress the mapped sprites of a sprite set.
+ *
+ * For every codec the compression ratio, the throughput of compression and decompression on the JVM
+ * and the estimated number of AVR cycles needed to unpack a sprite are reported.
+ *
+ * @see CompressingExporter
+ */
+public final class CompressionReport
+{
+    // min. time to spend measuring throughput
+    private static final long MIN_MEASUREMENT_NANOS = 50_000_000L;
+
+    private final int spritesPerBlock;
+    private final int spriteCount;
+    private final List<Entry> entries;
+
+    /**
+     * Results for one codec.
+     */
+    public static final class Entry
+    {
+        private final SpriteCodec codec;
+        private final long uncompressedBytes;
+        private final long compressedBytes;
+        private final double compressBytesPerSecond;
+        private final double decompressBytesPerSecond;
+        private final long avrCycles;
+
+        private Entry(SpriteCodec codec,long uncompressedBytes,long compressedBytes,double compressBytesPerSecond,double decompressBytesPerSecond,long avrCycles)
+        {
+            this.codec = codec;
+            this.uncompressedBytes = uncompressedBytes;
+            this.compressedBytes = compressedBytes;
+            this.compressBytesPerSecond = compressBytesPerSecond;
+            this.decompressBytesPerSecond = decompressBytesPerSecond;
+            this.avrCycles = avrCycles;
+        }
+
+        public SpriteCodec getCodec() {
+            return codec;
+        }
+
+        public long getUncompressedBytes() {
+            return uncompressedBytes;
+        }
+
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+
+        /**
+         * Returns compressed size divided by uncompressed size.
+         */
+        public double getRatio() {
+            return uncompressedBytes == 0 ? 1 : compressedBytes / (double) uncompressedBytes;
+        }
+
+        /**
+         * Returns how many uncompressed bytes per second were compressed.
+         */
+        public double getCompressBytesPerSecond() {
+            return compressBytesPerSecond;
+        }
+
+        /**
+         * Returns how many uncompressed bytes per second were produced by decompression.
+         */
+        public double getDecompressBytesPerSecond() {
+            return decompressBytesPerSecond;
+        }
+
+        /**
+         * Returns the estimated number of AVR cycles needed to unpack every sprite once.
+         */
+        public long getAvrCycles() {
+            return avrCycles;
+        }
+    }
+
+    private CompressionReport(int spritesPerBlock,int spriteCount,List<Entry> entries)
+    {
+        this.spritesPerBlock = spritesPerBlock;
+        this.spriteCount = spriteCount;
+        this.entries = entries;
+    }
+
+    /**
+     * Compresses all mapped sprites with each codec.
+     *
+     * @param spriteSet
+     * @param encoder encoder to turn sprites into bytes
+     * @param spritesPerBlock number of sprites to compress together
+     * @param codecs
+     * @return
+     * @see CompressingExporter#setSpritesPerBlock(int)
+     */
+    public static CompressionReport create(SpriteSet spriteSet,SpriteEncoder encoder,int spritesPerBlock,List<SpriteCodec> codecs)
+    {
+        if ( spritesPerBlock < 1 ) {
+            throw new IllegalArgumentException("Sprites per block must be > 0, was: "+spritesPerBlock);
+        }
+        final List<Sprite> sprites = spriteSet.getSprites().stream().filter( Sprite::hasIndex ).collect( Collectors.toList() );
+
+        // encode all blocks up-front, only compression is measured
+        final List<byte[]> blocks = new ArrayList<>();
+        // number of bytes that need to be unpacked for each sprite
+        final List<int[]> unpackLengths = new ArrayList<>();
+        long uncompressed = 0;
+        for ( int start = 0 ; start < sprites.size() ; start += spritesPerBlock )
+        {
+            final int end = Math.min( sprites.size() , start + spritesPerBlock );
+            final int[] lengths = new int[ end - start ];
+            int len = 0;
+            for ( int i = start ; i < end ; i++ ) {
+                len += encoder.sizeInBytes( sprites.get( i ) );
+                lengths[i-start] = len;
+            }
+            final byte[] block = new byte[ len ];
+            final ByteBuffer buffer = ByteBuffer.wrap( block );
+            for ( int i = start , ptr = 0 ; i < end ; i++ )
+            {
+                encoder.encode( sprites.get( i ) , buffer , ptr );
+                ptr += encoder.sizeInBytes( sprites.get( i ) );
+            }
+            blocks.add( block );
+            unpackLengths.add( lengths );
+            uncompressed += len;
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        for ( SpriteCodec codec : codecs ) {
+            entries.add( measure( codec , blocks , unpackLengths , uncompressed ) );
+        }
+        return new CompressionReport( spritesPerBlock , sprites.size() , entries );
+    }
+
+    private static Entry measure(SpriteCodec codec,List<byte[]> blocks,List<int[]> unpackLengths,long uncompressed)
+    {
+        final byte[][] compressed = new byte[ blocks.size() ][];
+        long compressedBytes = 0;
+        int rounds = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do
+        {
+            compressedBytes = 0;
+            for ( int i = 0 ; i < blocks.size() ; i++ )
+            {
+                final byte[] block = blocks.get( i );
+                final byte[] buffer = new byte[ codec.maxCompressedLength( block.length ) ];
+                final int len = codec.compress( block , 0 , block.length , buffer , 0 );
+                compressed[i] = Arrays.copyOf( buffer , len );
+                compressedBytes += len;
+            }
+            rounds++;
+            elapsed = System.nanoTime() - start;
+        } while ( elapsed < MIN_MEASUREMENT_NANOS );
+        final double compressSpeed = uncompressed * (double) rounds / ( elapsed / 1e9 );
+
+        rounds = 0;
+        start = System.nanoTime();
+        do
+        {
+            for ( int i = 0 ; i < blocks.size() ; i++ )
+            {
+                final byte[] block = blocks.get( i );
+                final byte[] output = new byte[ block.length ];
+                codec.decompress( compressed[i] , 0 , output , 0 , block.length );
+                if ( rounds == 0 && ! Arrays.equals( block , output ) ) {
+                    throw new IllegalStateException("Codec "+codec.getName()+" failed to reproduce its input");
+                }
+            }
+            rounds++;
+            elapsed = System.nanoTime() - start;
+        } while ( elapsed < MIN_MEASUREMENT_NANOS );
+        final double decompressSpeed = uncompressed * (double) rounds / ( elapsed / 1e9 );
+
+        long cycles = 0;
+        for ( int i = 0 ; i < blocks.size() ; i++ )
+        {
+            for ( int len : unpackLengths.get( i ) ) {
+                cycles += codec.estimateDecodeCycles( compressed[i] , 0 , len );
+            }
+        }
+        return new Entry( codec , uncompressed , compressedBytes , compressSpeed , decompressSpeed , cycles );
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder result = new StringBuilder();
+        result.append( spriteCount ).append( " mapped sprites, " ).append( spritesPerBlock ).append( " sprite(s) per block\n\n" );
+        result.append( String.format( "%-6s %10s %10s %7s %14s %14s %16s\n" , "codec" , "raw" , "packed" , "ratio" , "pack MB/s" , "unpack MB/s" , "AVR cycles/sprite" ) );
+        for ( Entry entry : entries )
+        {
+            result.append( String.format( "%-6s %10d %10d %6.1f%% %14.1f %14.1f %16d\n" ,
+                entry.getCodec().getName() ,
+                entry.getUncompressedBytes() ,
+                entry.getCompressedBytes() ,
+                entry.getRatio() * 100 ,
+                entry.getCompressBytesPerSecond() / ( 1024*1024 ) ,
+                entry.getDecompressBytesPerSecond() / ( 1024*1024 ) ,
+                spriteCount == 0 ? 0 : entry.getAvrCycles() / spriteCount ) );
+        }
+        return result.toString();
+    }
+}
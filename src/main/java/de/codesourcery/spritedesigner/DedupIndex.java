@@ -0,0 +1,171 @@
+package de.codesourcery.spritedesigner;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Content-addressed index that detects sprites with identical size and pixels.
+ *
+ * Sprites are looked up by a 64-bit hash of their packed pixel data in an open-addressing
+ * hash table, hash collisions are resolved by comparing the pixel data. Building the
+ * index takes time linear in the total size of all sprites.
+ *
+ * The index is a snapshot, it does not notice when sprites are changed afterwards.
+ */
+public final class DedupIndex
+{
+    private static final long C1 = 0x9E3779B97F4A7C15L;
+    private static final long C2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final List<Sprite> sprites;
+    // unique bitmap number of each sprite
+    private final int[] uniqueIndex;
+    // position of the first sprite with a given unique bitmap
+    private final int[] firstOccurrence;
+    private final int uniqueCount;
+
+    private DedupIndex(List<Sprite> sprites,int[] uniqueIndex,int[] firstOccurrence,int uniqueCount)
+    {
+        this.sprites = sprites;
+        this.uniqueIndex = uniqueIndex;
+        this.firstOccurrence = firstOccurrence;
+        this.uniqueCount = uniqueCount;
+    }
+
+    /**
+     * Builds an index over a list of sprites.
+     *
+     * Unique bitmaps are numbered in the order of their first occurrence.
+     *
+     * @param sprites
+     * @return
+     */
+    public static DedupIndex of(List<Sprite> sprites)
+    {
+        final int count = sprites.size();
+        final int[] uniqueIndex = new int[ count ];
+        final int[] firstOccurrence = new int[ count ];
+        final long[] hashes = new long[ count ];
+
+        // power-of-two table with at most 50% load, slots hold (unique bitmap number + 1)
+        final int capacity = Integer.highestOneBit( Math.max( 1 , count ) * 2 - 1 ) << 1;
+        final int[] table = new int[ capacity ];
+        final int mask = capacity - 1;
+
+        int uniqueCount = 0;
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            final Sprite sprite = sprites.get( i );
+            final long hash = hash( sprite );
+            int slot = (int) ( hash ^ ( hash >>> 32 ) ) & mask;
+            while ( true )
+            {
+                final int entry = table[slot];
+                if ( entry == 0 )
+                {
+                    table[slot] = uniqueCount + 1;
+                    hashes[uniqueCount] = hash;
+                    firstOccurrence[uniqueCount] = i;
+                    uniqueIndex[i] = uniqueCount++;
+                    break;
+                }
+                if ( hashes[entry-1] == hash && sameBitmap( sprite , sprites.get( firstOccurrence[entry-1] ) ) )
+                {
+                    uniqueIndex[i] = entry - 1;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        return new DedupIndex( sprites , uniqueIndex , firstOccurrence , uniqueCount );
+    }
+
+    static long hash(Sprite sprite)
+    {
+        final long[] bits = sprite.bits();
+        long h = ( ( (long) sprite.getWidth() << 32 ) | sprite.getHeight() ) * C1;
+        for ( int i = 0 , len = Sprite.wordsPerRow( sprite.getWidth() ) * sprite.getHeight() ; i < len ; i++ ) {
+            h = Long.rotateLeft( h ^ ( bits[i] * C2 ) , 27 ) * C1;
+        }
+        h ^= h >>> 33;
+        h *= C2;
+        return h ^ ( h >>> 29 );
+    }
+
+    static boolean sameBitmap(Sprite a,Sprite b)
+    {
+        if ( ! a.hasSize( b.getWidth() , b.getHeight() ) ) {
+            return false;
+        }
+        final int len = Sprite.wordsPerRow( a.getWidth() ) * a.getHeight();
+        return Arrays.equals( a.bits() , 0 , len , b.bits() , 0 , len );
+    }
+
+    /**
+     * Returns the number of indexed sprites.
+     */
+    public int size() {
+        return uniqueIndex.length;
+    }
+
+    /**
+     * Returns the number of distinct bitmaps.
+     */
+    public int getUniqueCount() {
+        return uniqueCount;
+    }
+
+    /**
+     * Returns the number of the distinct bitmap a sprite has.
+     *
+     * @param spriteIndex position of the sprite in the indexed list
+     * @return number in the range 0...{@link #getUniqueCount()}-1
+     */
+    public int uniqueIndex(int spriteIndex) {
+        return uniqueIndex[spriteIndex];
+    }
+
+    /**
+     * Returns the position of the first sprite with the same bitmap as a given sprite.
+     *
+     * @param spriteIndex position of the sprite in the indexed list
+     * @return
+     */
+    public int firstOccurrence(int spriteIndex) {
+        return firstOccurrence[ uniqueIndex[spriteIndex] ];
+    }
+
+    /**
+     * Returns whether a sprite has the same bitmap as some sprite before it.
+     *
+     * @param spriteIndex position of the sprite in the indexed list
+     * @return
+     */
+    public boolean isDuplicate(int spriteIndex) {
+        return firstOccurrence( spriteIndex ) != spriteIndex;
+    }
+
+    /**
+     * Returns the first sprite of each distinct bitmap, in the order of {@link #uniqueIndex(int)}.
+     */
+    public List<Sprite> getUniqueSprites()
+    {
+        return new AbstractList<Sprite>()
+        {
+            @Override
+            public Sprite get(int index)
+            {
+                if ( index < 0 || index >= uniqueCount ) {
+                    throw new IndexOutOfBoundsException("Index "+index+" out of bounds for size "+uniqueCount);
+                }
+                return sprites.get( firstOccurrence[index] );
+            }
+
+            @Override
+            public int size() {
+                return uniqueCount;
+            }
+        };
+    }
+}
@@ -0,0 +1,205 @@
+package de.codesourcery.spritedesigner;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * Remembers the encoded bytes of sprites so that only sprites that changed since their last
+ * export need to be encoded again.
+ *
+ * Entries are keyed by sprite instance and encoder (layout and {@link Sprite.Flip}) and are
+ * tagged with the sprite's {@link Sprite#version() modification counter}, an entry is only used
+ * while the counter still has the same value. Sprites are referenced weakly, so entries of
+ * sprites that are no longer used anywhere else are discarded automatically.
+ *
+ * Encoders returned by {@link #encoder(SpriteEncoder)} can be passed to {@link SpriteSetExporter}
+ * like any other encoder. Instances are thread-safe.
+ */
+public final class ExportCache
+{
+    private final Map<SpriteEncoder,Map<Sprite,Entry>> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static final class Entry
+    {
+        public final int version;
+        public final byte[] data;
+
+        public Entry(int version,byte[] data)
+        {
+            this.version = version;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Encoder that returns cached data if possible.
+     */
+    private final class CachingEncoder implements SpriteEncoder
+    {
+        private final SpriteEncoder delegate;
+
+        public CachingEncoder(SpriteEncoder delegate) {
+            this.delegate = delegate;
+        }
+
+        public ExportCache owner() {
+            return ExportCache.this;
+        }
+
+        @Override
+        public int sizeInBytes(Sprite sprite) {
+            return delegate.sizeInBytes( sprite );
+        }
+
+        @Override
+        public void encode(Sprite sprite,ByteBuffer buffer,int offset)
+        {
+            final byte[] data = get( sprite , delegate );
+            if ( buffer.hasArray() ) {
+                System.arraycopy( data , 0 , buffer.array() , buffer.arrayOffset() + offset , data.length );
+            } else {
+                buffer.duplicate().position( offset ).put( data );
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    /**
+     * Returns an encoder that writes the same bytes as a given encoder but
+     * only encodes sprites that are not cached yet or changed since they were cached.
+     *
+     * @param encoder encoder to use for cache misses. Needs to implement <code>equals()</code>/<code>hashCode()</code>
+     * if different instances produce the same output.
+     * @return
+     */
+    public SpriteEncoder encoder(SpriteEncoder encoder)
+    {
+        if ( encoder == null ) {
+            throw new IllegalArgumentException("Encoder must not be NULL");
+        }
+        return encoder instanceof CachingEncoder && ( (CachingEncoder) encoder).owner() == this ? encoder : new CachingEncoder( encoder );
+    }
+
+    private Map<Sprite,Entry> entries(SpriteEncoder encoder) {
+        return entries.computeIfAbsent( encoder , key -> Collections.synchronizedMap( new WeakHashMap<>() ) );
+    }
+
+    private byte[] get(Sprite sprite,SpriteEncoder encoder)
+    {
+        final int version = sprite.version();
+        final Map<Sprite,Entry> map = entries( encoder );
+        final Entry existing = map.get( sprite );
+        if ( existing != null && existing.version == version )
+        {
+            hits.increment();
+            return existing.data;
+        }
+        misses.increment();
+        final byte[] data = encode( sprite , encoder );
+        map.put( sprite , new Entry( version , data ) );
+        return data;
+    }
+
+    private static byte[] encode(Sprite sprite,SpriteEncoder encoder)
+    {
+        final byte[] data = new byte[ encoder.sizeInBytes( sprite ) ];
+        encoder.encode( sprite , ByteBuffer.wrap( data ) , 0 );
+        return data;
+    }
+
+    /**
+     * Returns whether up-to-date data for a sprite is cached.
+     *
+     * @param sprite
+     * @param encoder
+     * @return
+     */
+    public boolean isCached(Sprite sprite,SpriteEncoder encoder)
+    {
+        final Entry entry = entries( encoder ).get( sprite );
+        return entry != null && entry.version == sprite.version();
+    }
+
+    /**
+     * Encodes all sprites that are not cached yet or changed since they were cached.
+     *
+     * Sprites are encoded in parallel, when called from a {@link java.util.concurrent.ForkJoinPool} task
+     * that pool's threads are used.
+     *
+     * Sprites may be changed by other threads while this method is running. To make sure such
+     * changes are never missed, cache entries are tagged with the versions passed in, not with
+     * the versions this method sees.
+     *
+     * @param sprites sprites to encode
+     * @param versions {@link Sprite#version()} of each sprite, read by the thread that modifies the sprites
+     * @param encoders encoders to precompute data for
+     * @param cancelled polled before each sprite, returning <code>true</code> stops precomputing
+     * @return number of sprites that were encoded
+     */
+    public int precompute(List<Sprite> sprites,int[] versions,Collection<SpriteEncoder> encoders,BooleanSupplier cancelled)
+    {
+        if ( sprites.size() != versions.length ) {
+            throw new IllegalArgumentException("Need exactly one version per sprite");
+        }
+        int result = 0;
+        for ( SpriteEncoder encoder : encoders )
+        {
+            final Map<Sprite,Entry> map = entries( encoder );
+            result += (int) IntStream.range( 0 , sprites.size() ).parallel().filter( i ->
+            {
+                if ( cancelled.getAsBoolean() ) {
+                    return false;
+                }
+                final Sprite sprite = sprites.get( i );
+                final Entry existing = map.get( sprite );
+                if ( existing != null && existing.version == versions[i] ) {
+                    return false;
+                }
+                try {
+                    map.put( sprite , new Entry( versions[i] , encode( sprite , encoder ) ) );
+                }
+                catch(RuntimeException e) {
+                    // sprite was changed concurrently or can't be encoded in this layout, will be retried on export
+                    return false;
+                }
+                return true;
+            }).count();
+        }
+        return result;
+    }
+
+    /**
+     * Discards all cached data.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns how many times encoded data could be taken from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns how many times sprites needed to be encoded during an export.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
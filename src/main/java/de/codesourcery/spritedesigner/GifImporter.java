@@ -0,0 +1,201 @@
+package de.codesourcery.spritedesigner;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Imports the frames of an (animated) GIF as sprites.
+ *
+ * Frames are read one at a time and drawn onto a canvas the size of the GIF's logical screen, honoring each
+ * frame's disposal method, so every sprite shows the complete picture as a viewer would display it.
+ * Only the canvas and the current frame are kept in memory, no matter how many frames the file has.
+ * Frame delays are not imported.
+ *
+ * Pixels are converted like {@link Sprite#setToImage(BufferedImage)} does unless an {@link ImageConverter} is set.
+ */
+public final class GifImporter
+{
+    private static final String STREAM_METADATA = "javax_imageio_gif_stream_1.0";
+    private static final String IMAGE_METADATA = "javax_imageio_gif_image_1.0";
+
+    private ImageConverter converter;
+
+    /**
+     * Sets how frames are converted into sprites.
+     *
+     * @param converter converter to use, <code>null</code> to convert like {@link Sprite#setToImage(BufferedImage)}
+     */
+    public void setConverter(ImageConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Imports all frames of a GIF file.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file could not be read or is no GIF
+     */
+    public SpriteSet load(File file) throws IOException
+    {
+        final SpriteSet result = new SpriteSet();
+        load( file , result::add );
+        return result;
+    }
+
+    /**
+     * Imports all frames of a GIF file, passing each sprite on as soon as its frame has been decoded.
+     *
+     * @param file
+     * @param consumer
+     * @return number of frames
+     * @throws IOException if the file could not be read or is no GIF
+     */
+    public int load(File file,Consumer<Sprite> consumer) throws IOException
+    {
+        try ( ImageInputStream in = ImageIO.createImageInputStream( file ) )
+        {
+            if ( in == null ) {
+                throw new IOException("Failed to open "+file);
+            }
+            return load( in , consumer );
+        }
+    }
+
+    /**
+     * Imports all frames of a GIF, passing each sprite on as soon as its frame has been decoded.
+     *
+     * @param in stream to read from, not closed by this method
+     * @param consumer
+     * @return number of frames
+     * @throws IOException if the stream could not be read or holds no GIF
+     */
+    public int load(ImageInputStream in,Consumer<Sprite> consumer) throws IOException
+    {
+        final Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName( "gif" );
+        if ( ! readers.hasNext() ) {
+            throw new IOException("No GIF decoder available");
+        }
+        final ImageReader reader = readers.next();
+        try
+        {
+            // forward only, so the reader doesn't need to keep data of earlier frames
+            reader.setInput( in , true , false );
+
+            BufferedImage canvas = null;
+            int[] pixels = null;
+            int frames = 0;
+            while ( true )
+            {
+                final BufferedImage frame;
+                try {
+                    frame = reader.read( frames );
+                } catch(IndexOutOfBoundsException e) {
+                    break;
+                }
+                final IIOMetadataNode metadata = (IIOMetadataNode) reader.getImageMetadata( frames ).getAsTree( IMAGE_METADATA );
+                final IIOMetadataNode descriptor = child( metadata , "ImageDescriptor" );
+                final IIOMetadataNode control = child( metadata , "GraphicControlExtension" );
+                final int left = intAttribute( descriptor , "imageLeftPosition" );
+                final int top = intAttribute( descriptor , "imageTopPosition" );
+                final String disposal = control == null ? "none" : control.getAttribute( "disposalMethod" );
+
+                if ( canvas == null )
+                {
+                    canvas = createCanvas( reader.getStreamMetadata() , left + frame.getWidth() , top + frame.getHeight() );
+                    pixels = ( (DataBufferInt) canvas.getRaster().getDataBuffer() ).getData();
+                }
+
+                // area of the canvas covered by this frame
+                final int width = canvas.getWidth();
+                final int x0 = Math.max( 0 , left );
+                final int y0 = Math.max( 0 , top );
+                final int x1 = Math.min( width , left + frame.getWidth() );
+                final int y1 = Math.min( canvas.getHeight() , top + frame.getHeight() );
+
+                final int[] previous = "restoreToPrevious".equals( disposal ) ? Arrays.copyOf( pixels , pixels.length ) : null;
+
+                final Graphics2D gfx = canvas.createGraphics();
+                try {
+                    gfx.drawImage( frame , left , top , null );
+                } finally {
+                    gfx.dispose();
+                }
+
+                final Sprite sprite = new Sprite( canvas.getWidth() , canvas.getHeight() );
+                if ( converter != null ) {
+                    converter.convert( canvas , sprite );
+                } else {
+                    sprite.setToImage( canvas );
+                }
+                consumer.accept( sprite );
+                frames++;
+
+                for ( int y = y0 ; y < y1 ; y++ )
+                {
+                    if ( previous != null ) {
+                        System.arraycopy( previous , y * width + x0 , pixels , y * width + x0 , x1 - x0 );
+                    } else if ( "restoreToBackgroundColor".equals( disposal ) ) {
+                        // like browsers do, the background color is ignored and the area becomes transparent
+                        Arrays.fill( pixels , y * width + x0 , y * width + x1 , 0 );
+                    }
+                }
+            }
+            if ( frames == 0 ) {
+                throw new IOException("GIF has no frames");
+            }
+            return frames;
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    private static BufferedImage createCanvas(IIOMetadata streamMetadata,int defaultWidth,int defaultHeight)
+    {
+        int width = 0;
+        int height = 0;
+        if ( streamMetadata != null )
+        {
+            final IIOMetadataNode screen = child( (IIOMetadataNode) streamMetadata.getAsTree( STREAM_METADATA ) , "LogicalScreenDescriptor" );
+            width = intAttribute( screen , "logicalScreenWidth" );
+            height = intAttribute( screen , "logicalScreenHeight" );
+        }
+        // some encoders write a logical screen size of 0x0
+        return new BufferedImage( width > 0 ? width : defaultWidth , height > 0 ? height : defaultHeight , BufferedImage.TYPE_INT_ARGB );
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode node,String name)
+    {
+        if ( node != null )
+        {
+            for ( int i = 0 ; i < node.getLength() ; i++ )
+            {
+                if ( name.equals( node.item( i ).getNodeName() ) ) {
+                    return (IIOMetadataNode) node.item( i );
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int intAttribute(IIOMetadataNode node,String name)
+    {
+        if ( node == null || node.getAttribute( name ).isEmpty() ) {
+            return 0;
+        }
+        return Integer.parseInt( node.getAttribute( name ) );
+    }
+}
@@ -0,0 +1,170 @@
+package de.codesourcery.spritedesigner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Writes bytes as comma-separated hex literals, wrapping lines after a fixed number of bytes.
+ * 
+ * Characters are looked up from a table and collected in a fixed-size <code>char[]</code> that 
+ * gets handed to the target {@link Appendable} whenever it fills up, so no objects are 
+ * created per byte written. Call {@link #flush()} when done.
+ */
+class HexWriter 
+{
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    
+    private static final int BUFFER_SIZE = 8*1024;
+    
+    private final char[] buffer = new char[ BUFFER_SIZE ];
+    private int ptr;
+    
+    private final String linePrefix;
+    private final int bytesPerRow;
+    private final Appendable out;
+    
+    private int currentByteCount=0;
+    private boolean printLinefeed;
+    
+    /**
+     * Create instance.
+     * 
+     * @param bytesPerRow
+     * @param linePrefix prefix to write at the start of each line, may be <code>null</code>
+     * @param out where to write text to
+     */
+    public HexWriter(int bytesPerRow,String linePrefix,Appendable out) 
+    {
+        if ( out == null ) {
+            throw new IllegalArgumentException("Output must not be NULL");
+        }
+        this.bytesPerRow = bytesPerRow;
+        this.linePrefix = linePrefix;
+        this.out = out;
+    }
+    
+    /**
+     * Hands all buffered text to the underlying {@link Appendable}.
+     * 
+     * Note that this method does not flush the {@link Appendable} itself.
+     * @throws IOException
+     */
+    public void flush() throws IOException 
+    {
+        if ( ptr == 0 ) {
+            return;
+        }
+        if ( out instanceof Writer ) {
+            ((Writer) out).write( buffer , 0 , ptr );
+        } else if ( out instanceof StringBuilder ) {
+            ((StringBuilder) out).append( buffer , 0 , ptr );
+        } else {
+            out.append( CharBuffer.wrap( buffer , 0 , ptr ) );
+        }
+        ptr = 0;
+    }
+    
+    private void ensureSpace(int chars) throws IOException 
+    {
+        if ( ptr + chars > buffer.length ) {
+            flush();
+        }
+    }
+    
+    public HexWriter append(String s) throws IOException 
+    {
+        for ( int start = 0 , len = s.length() ; start < len ; ) 
+        {
+            ensureSpace( 1 );
+            final int count = Math.min( len - start , buffer.length - ptr );
+            s.getChars( start , start + count , buffer , ptr );
+            ptr += count;
+            start += count;
+        }
+        return this;
+    }
+    
+    public HexWriter append(char s) throws IOException 
+    {
+        ensureSpace( 1 );
+        buffer[ptr++] = s;
+        return this;
+    }
+    
+    public HexWriter append(int value) throws IOException {
+        return append( Integer.toString( value ) );
+    }
+    
+    private HexWriter writeByte(int value) throws IOException 
+    {
+        if ( value < 0 || value > 255 ) {
+            throw new IllegalArgumentException("Value out of byte range: "+value);
+        }
+        if ( printLinefeed ) 
+        {
+            appendNewline();
+            currentByteCount = 0;
+            printLinefeed = false;
+        }
+        if ( currentByteCount != 0 ) 
+        {
+            append( ',' );
+        } 
+        else if ( linePrefix != null ) 
+        {
+            append( linePrefix );
+        }
+        ensureSpace( 4 );
+        buffer[ptr++] = '0';
+        buffer[ptr++] = 'x';
+        buffer[ptr++] = HEX_CHARS[ value >>> 4 ];
+        buffer[ptr++] = HEX_CHARS[ value & 0x0f ];
+        currentByteCount++;
+        if ( currentByteCount == bytesPerRow ) 
+        {
+            currentByteCount = 0;
+            printLinefeed = true;
+        }
+        return this;
+    }
+    
+    public HexWriter maybeAppendNewline() {
+        printLinefeed = true;
+        return this;
+    }        
+    
+    public HexWriter appendNewline() throws IOException {
+        return append( '\n' );
+    }
+    
+    public HexWriter appendHexByteString(int value) throws IOException 
+    {
+        return writeByte( value );
+    }
+
+    public HexWriter appendHexWordStringLittleEndian(int value) throws IOException 
+    {
+        writeByte( value & 0xff );
+        return writeByte( (value & 0xff00) >>> 8 );
+    }    
+
+    public HexWriter appendHexString(byte[] data) throws IOException 
+    {
+        for ( byte b : data ) 
+        {
+            writeByte( b & 0xff );
+        }
+        return this;
+    }    
+    
+    public HexWriter appendHexString(ByteBuffer data,int offset,int len) throws IOException 
+    {
+        for ( int i = 0 ; i < len ; i++ ) 
+        {
+            writeByte( data.get( offset + i ) & 0xff );
+        }
+        return this;
+    }    
+}
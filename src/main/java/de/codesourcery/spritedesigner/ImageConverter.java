@@ -0,0 +1,406 @@
+package de.codesourcery.spritedesigner;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Converts images into sprites using a configurable threshold or dithering method.
+ *
+ * Images are first turned into one gray value per pixel (ITU-R BT.601 luminance, after applying the
+ * {@link Alpha alpha handling}), the gray values then become set or unset pixels. Light pixels become set pixels unless
+ * {@link #setInvert(boolean)} is used. Both steps work on primitive arrays and split large images into bands
+ * of rows that are processed in parallel, except for Floyd-Steinberg dithering where each pixel depends on all pixels before it.
+ *
+ * Unlike {@link Sprite#setToImage(BufferedImage)}, which reproduces how Java2D draws onto a black and white image,
+ * results only depend on the pixel colors. Instances can be used by several threads at once as long as they are not modified.
+ */
+public final class ImageConverter
+{
+    // rows are processed in bands of about this many pixels
+    private static final int BAND_PIXELS = 64 * 1024;
+
+    // 8x8 Bayer matrix
+    private static final int[] BAYER = {
+         0, 32,  8, 40,  2, 34, 10, 42,
+        48, 16, 56, 24, 50, 18, 58, 26,
+        12, 44,  4, 36, 14, 46,  6, 38,
+        60, 28, 52, 20, 62, 30, 54, 22,
+         3, 35, 11, 43,  1, 33,  9, 41,
+        51, 19, 59, 27, 49, 17, 57, 25,
+        15, 47,  7, 39, 13, 45,  5, 37,
+        63, 31, 55, 23, 61, 29, 53, 21
+    };
+
+    // a pixel is set by ordered dithering if its gray value is above BAYER_LEVELS[ (y & 7) << 3 | (x & 7) ]
+    private static final int[] BAYER_LEVELS = new int[ 64 ];
+
+    static
+    {
+        for ( int i = 0 ; i < 64 ; i++ ) {
+            BAYER_LEVELS[i] = ( ( 2 * BAYER[i] + 1 ) * 255 ) / 128;
+        }
+    }
+
+    public enum Method
+    {
+        /**
+         * A pixel is set if its gray value is at least the {@link ImageConverter#setThreshold(int) threshold}.
+         */
+        THRESHOLD("fixed threshold"),
+        /**
+         * Like {@link #THRESHOLD} but the threshold is picked for each image so that it separates its
+         * gray values best (Otsu's method). Images with a single gray value use the configured threshold.
+         */
+        OTSU("automatic threshold (Otsu)"),
+        /**
+         * Ordered dithering with an 8x8 Bayer matrix, gives regular patterns that compress well.
+         */
+        ORDERED("ordered dithering (Bayer)"),
+        /**
+         * Error diffusion, scanning rows alternately left to right and right to left.
+         * Best for photos, runs on a single thread.
+         */
+        FLOYD_STEINBERG("Floyd-Steinberg dithering");
+
+        private final String name;
+
+        Method(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * How transparent pixels are handled.
+     */
+    public enum Alpha
+    {
+        /**
+         * Blend colors onto black, transparent pixels become unset pixels.
+         */
+        BLACK("blend onto black"),
+        /**
+         * Blend colors onto white, transparent pixels become set pixels.
+         */
+        WHITE("blend onto white"),
+        /**
+         * Pixels with less than 50% alpha are black, all others are taken as opaque.
+         */
+        CUTOUT("cut out transparent pixels");
+
+        private final String name;
+
+        Alpha(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private Method method = Method.THRESHOLD;
+    private Alpha alpha = Alpha.BLACK;
+    private int threshold = 128;
+    private boolean invert;
+
+    // maps alpha << 8 | luminance to a gray value, built on first use
+    private volatile byte[] table;
+
+    public ImageConverter() {
+    }
+
+    public ImageConverter(Method method) {
+        setMethod( method );
+    }
+
+    public void setMethod(Method method)
+    {
+        if ( method == null ) {
+            throw new IllegalArgumentException("Method must not be NULL");
+        }
+        this.method = method;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public void setAlpha(Alpha alpha)
+    {
+        if ( alpha == null ) {
+            throw new IllegalArgumentException("Alpha handling must not be NULL");
+        }
+        this.alpha = alpha;
+        this.table = null;
+    }
+
+    public Alpha getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Sets the gray value from which on pixels are set by {@link Method#THRESHOLD}.
+     *
+     * @param threshold gray value in the range [1,255], default is 128
+     */
+    public void setThreshold(int threshold)
+    {
+        if ( threshold < 1 || threshold > 255 ) {
+            throw new IllegalArgumentException("Threshold needs to be in the range [1,255], was: "+threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets whether dark instead of light image pixels become set pixels.
+     *
+     * @param invert
+     */
+    public void setInvert(boolean invert)
+    {
+        this.invert = invert;
+        this.table = null;
+    }
+
+    public boolean isInvert() {
+        return invert;
+    }
+
+    /**
+     * Replaces a sprite's pixels with those of an image, adjusting the sprite's size to the image.
+     *
+     * @param image
+     * @param sprite
+     */
+    public void convert(BufferedImage image,Sprite sprite)
+    {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        sprite.setBits( convert( new RasterDecoder( image , BufferedImage.TYPE_INT_ARGB ) , 0 , 0 , w , h ) , w , h );
+    }
+
+    /**
+     * Converts a rectangular area of an image.
+     *
+     * @param decoder decoder for the image, created with a fallback type that keeps colors
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @return packed bits as used by {@link Sprite}, one row after the other
+     */
+    long[] convert(RasterDecoder decoder,int x,int y,int w,int h)
+    {
+        final byte[] table = table();
+        final byte[] gray = new byte[ w * h ];
+        final int bandHeight = Math.max( 1 , BAND_PIXELS / w );
+        final int bands = ( h + bandHeight - 1 ) / bandHeight;
+
+        bands( bands ).forEach( band ->
+        {
+            final int y0 = band * bandHeight;
+            decoder.luminance( x , y + y0 , w , Math.min( bandHeight , h - y0 ) , table , gray , y0 * w );
+        });
+
+        final long[] bits = new long[ Sprite.wordsPerRow( w ) * h ];
+        switch( method )
+        {
+            case THRESHOLD:
+            case OTSU:
+                final int t = method == Method.THRESHOLD ? threshold : otsu( histogram( gray , bands , bandHeight * w ) , threshold );
+                bands( bands ).forEach( band -> threshold( gray , w , band * bandHeight , Math.min( h , ( band + 1 ) * bandHeight ) , t , bits ) );
+                break;
+            case ORDERED:
+                bands( bands ).forEach( band -> ordered( gray , w , band * bandHeight , Math.min( h , ( band + 1 ) * bandHeight ) , bits ) );
+                break;
+            case FLOYD_STEINBERG:
+                floydSteinberg( gray , w , h , bits );
+                break;
+            default:
+                throw new IllegalStateException("Unhandled method: "+method);
+        }
+        return bits;
+    }
+
+    private static IntStream bands(int count)
+    {
+        final IntStream result = IntStream.range( 0 , count );
+        return count > 1 ? result.parallel() : result;
+    }
+
+    private byte[] table()
+    {
+        byte[] result = table;
+        if ( result == null )
+        {
+            result = new byte[ 256 * 256 ];
+            for ( int a = 0 ; a < 256 ; a++ )
+            {
+                for ( int luminance = 0 ; luminance < 256 ; luminance++ )
+                {
+                    final int value = invert ? 255 - luminance : luminance;
+                    final int gray;
+                    switch( alpha )
+                    {
+                        case BLACK:  gray = ( a * value + 127 ) / 255; break;
+                        case WHITE:  gray = ( a * value + ( 255 - a ) * 255 + 127 ) / 255; break;
+                        case CUTOUT: gray = a < 128 ? 0 : value; break;
+                        default:
+                            throw new IllegalStateException("Unhandled alpha handling: "+alpha);
+                    }
+                    result[ a << 8 | luminance ] = (byte) gray;
+                }
+            }
+            table = result;
+        }
+        return result;
+    }
+
+    private static int[] histogram(byte[] gray,int bands,int bandPixels)
+    {
+        return bands( bands ).mapToObj( band ->
+        {
+            final int[] histogram = new int[ 256 ];
+            final int end = Math.min( gray.length , ( band + 1 ) * bandPixels );
+            for ( int i = band * bandPixels ; i < end ; i++ ) {
+                histogram[ gray[i] & 0xff ]++;
+            }
+            return histogram;
+        }).reduce( new int[ 256 ] , (a,b) ->
+        {
+            final int[] sum = new int[ 256 ];
+            for ( int i = 0 ; i < 256 ; i++ ) {
+                sum[i] = a[i] + b[i];
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Picks the threshold that maximizes the variance between the gray values below and above it (Otsu's method).
+     *
+     * @param histogram number of pixels per gray value
+     * @param fallback returned if all pixels have the same gray value
+     * @return lowest gray value of set pixels
+     */
+    static int otsu(int[] histogram,int fallback)
+    {
+        long total = 0;
+        long sum = 0;
+        for ( int i = 0 ; i < 256 ; i++ )
+        {
+            total += histogram[i];
+            sum += (long) i * histogram[i];
+        }
+        int result = fallback;
+        double best = -1;
+        long countBelow = 0;
+        long sumBelow = 0;
+        for ( int i = 0 ; i < 255 ; i++ )
+        {
+            countBelow += histogram[i];
+            sumBelow += (long) i * histogram[i];
+            final long countAbove = total - countBelow;
+            if ( countBelow == 0 ) {
+                continue;
+            }
+            if ( countAbove == 0 ) {
+                break;
+            }
+            final double delta = sumBelow / (double) countBelow - ( sum - sumBelow ) / (double) countAbove;
+            final double variance = countBelow * (double) countAbove * delta * delta;
+            if ( variance > best )
+            {
+                best = variance;
+                result = i + 1;
+            }
+        }
+        return result;
+    }
+
+    private static void threshold(byte[] gray,int w,int fromRow,int toRow,int threshold,long[] bits)
+    {
+        final int limit = threshold - 1;
+        int dst = fromRow * Sprite.wordsPerRow( w );
+        for ( int row = fromRow ; row < toRow ; row++ )
+        {
+            int ptr = row * w;
+            for ( int start = 0 ; start < w ; start += 64 )
+            {
+                final int count = Math.min( 64 , w - start );
+                long word = 0;
+                for ( int i = 0 ; i < count ; i++ ) {
+                    word = ( word << 1 ) | ( ( limit - ( gray[ptr++] & 0xff ) ) >>> 31 );
+                }
+                bits[dst++] = word << ( 64 - count );
+            }
+        }
+    }
+
+    private static void ordered(byte[] gray,int w,int fromRow,int toRow,long[] bits)
+    {
+        final int[] levels = BAYER_LEVELS;
+        int dst = fromRow * Sprite.wordsPerRow( w );
+        for ( int row = fromRow ; row < toRow ; row++ )
+        {
+            final int matrixRow = ( row & 7 ) << 3;
+            int ptr = row * w;
+            for ( int start = 0 ; start < w ; start += 64 )
+            {
+                final int count = Math.min( 64 , w - start );
+                long word = 0;
+                for ( int i = 0 ; i < count ; i++ ) {
+                    word = ( word << 1 ) | ( ( levels[ matrixRow | ( ( start + i ) & 7 ) ] - ( gray[ptr++] & 0xff ) ) >>> 31 );
+                }
+                bits[dst++] = word << ( 64 - count );
+            }
+        }
+    }
+
+    private static void floydSteinberg(byte[] gray,int w,int h,long[] bits)
+    {
+        final int wordsPerRow = Sprite.wordsPerRow( w );
+        // accumulated errors times 16, index x+1 holds the error for column x
+        int[] current = new int[ w + 2 ];
+        int[] next = new int[ w + 2 ];
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            final boolean leftToRight = ( row & 1 ) == 0;
+            final int step = leftToRight ? 1 : -1;
+            final int rowStart = row * w;
+            final int rowWords = row * wordsPerRow;
+            for ( int i = 0 ; i < w ; i++ )
+            {
+                final int x = leftToRight ? i : w - 1 - i;
+                final int value = ( gray[ rowStart + x ] & 0xff ) + ( ( current[ x + 1 ] + 8 ) >> 4 );
+                final int error;
+                if ( value >= 128 )
+                {
+                    bits[ rowWords + ( x >>> 6 ) ] |= 1L << ( 63 - ( x & 63 ) );
+                    error = value - 255;
+                } else {
+                    error = value;
+                }
+                current[ x + 1 + step ] += 7 * error;
+                next[ x + 1 - step ] += 3 * error;
+                next[ x + 1 ] += 5 * error;
+                next[ x + 1 + step ] += error;
+            }
+            final int[] tmp = current;
+            current = next;
+            next = tmp;
+            Arrays.fill( next , 0 );
+        }
+    }
+}
@@ -2,44 +2,298 @@ package de.codesourcery.spritedesigner;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 
-public class Importer {
+/**
+ * Imports fixed-size glyphs from raw binary data like character ROM dumps or firmware images.
+ *
+ * Files are memory-mapped, only the part holding the glyphs is accessed and nothing but
+ * the decoded sprites is kept on the heap.
+ *
+ * Glyphs are expected to be stored back-to-back starting at {@link #setOffset(long) an offset},
+ * each glyph taking up {@link #setStride(int) a fixed number of bytes}.
+ */
+public class Importer
+{
+    /**
+     * How the pixels of a glyph are stored.
+     */
+    public enum Layout
+    {
+        /**
+         * Row by row, <code>ceil(width/8)</code> bytes per row.
+         */
+        ROWS("rows"),
+        /**
+         * Column by column, <code>ceil(height/8)</code> bytes per column.
+         */
+        COLUMNS("columns"),
+        /**
+         * Page by page (as used by the SSD1306 and similar displays), each page covering 8 rows
+         * with one byte per column.
+         */
+        PAGES("pages");
 
-    public static final File file = new File("/home/tobi/intellij_workspace/spritedesigner/character.rom");
-    
-    public SpriteSet load() {
-        
-        try 
+        private final String name;
+
+        Layout(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Which bit of a byte holds the first (left-most resp. top-most) pixel.
+     */
+    public enum BitOrder
+    {
+        MSB_FIRST("MSB first"),
+        LSB_FIRST("LSB first");
+
+        private final String name;
+
+        BitOrder(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private int glyphWidth = 8;
+    private int glyphHeight = 8;
+    private int glyphCount = -1;
+    private Layout layout = Layout.ROWS;
+    private BitOrder bitOrder = BitOrder.MSB_FIRST;
+    private long offset;
+    private int stride;
+
+    public void setGlyphSize(int width,int height)
+    {
+        if ( width < 1 || height < 1 ) {
+            throw new IllegalArgumentException("Glyph size needs to be at least 1x1, was "+width+"x"+height);
+        }
+        this.glyphWidth = width;
+        this.glyphHeight = height;
+    }
+
+    /**
+     * Sets the number of glyphs to import.
+     *
+     * @param count number of glyphs or -1 to import as many glyphs as the input holds
+     */
+    public void setGlyphCount(int count)
+    {
+        if ( count < -1 ) {
+            throw new IllegalArgumentException("Invalid glyph count: "+count);
+        }
+        this.glyphCount = count;
+    }
+
+    public void setLayout(Layout layout)
+    {
+        if ( layout == null ) {
+            throw new IllegalArgumentException("Layout must not be NULL");
+        }
+        this.layout = layout;
+    }
+
+    public void setBitOrder(BitOrder bitOrder)
+    {
+        if ( bitOrder == null ) {
+            throw new IllegalArgumentException("Bit order must not be NULL");
+        }
+        this.bitOrder = bitOrder;
+    }
+
+    /**
+     * Sets the offset of the first glyph.
+     *
+     * @param offset offset in bytes
+     */
+    public void setOffset(long offset)
+    {
+        if ( offset < 0 ) {
+            throw new IllegalArgumentException("Offset must be >= 0, was: "+offset);
+        }
+        this.offset = offset;
+    }
+
+    /**
+     * Sets the distance between the start of consecutive glyphs.
+     *
+     * @param stride stride in bytes or 0 if glyphs are stored without any gaps
+     * @see #getGlyphSizeInBytes()
+     */
+    public void setStride(int stride)
+    {
+        if ( stride < 0 ) {
+            throw new IllegalArgumentException("Stride must be >= 0, was: "+stride);
+        }
+        this.stride = stride;
+    }
+
+    /**
+     * Returns the number of bytes a glyph occupies with the current size and layout.
+     */
+    public int getGlyphSizeInBytes()
+    {
+        if ( layout == Layout.ROWS ) {
+            return ( (glyphWidth+7) >>> 3 ) * glyphHeight;
+        }
+        return ( (glyphHeight+7) >>> 3 ) * glyphWidth;
+    }
+
+    private int stride()
+    {
+        final int size = getGlyphSizeInBytes();
+        if ( stride != 0 && stride < size ) {
+            throw new IllegalStateException("Stride "+stride+" is less than the glyph size ("+size+" bytes)");
+        }
+        return stride == 0 ? size : stride;
+    }
+
+    /**
+     * Imports glyphs from a file.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file could not be read or holds less than the requested number of glyphs
+     */
+    public SpriteSet load(File file) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file.toPath() , StandardOpenOption.READ ) )
         {
-            final byte[] data = Files.readAllBytes( file.toPath() );
-            int dataPtr = 0;
-            
-            final SpriteSet result = new SpriteSet();
-            
-            for ( int i = 0 ; i < 256 ; i++ ) 
+            final long available = Math.max( 0 , channel.size() - offset );
+            final int count = glyphCount( available );
+            if ( count == 0 ) {
+                return new SpriteSet();
+            }
+            // the last glyph only needs to be complete, not the stride after it
+            final long length = (long) ( count - 1 ) * stride() + getGlyphSizeInBytes();
+            if ( length > Integer.MAX_VALUE ) {
+                throw new IOException("Can't import more than 2 GB at once");
+            }
+            return decode( channel.map( MapMode.READ_ONLY , offset , length ) , count );
+        }
+    }
+
+    /**
+     * Imports glyphs from a buffer.
+     *
+     * @param data buffer to read from, offsets are absolute. The buffer's position is not changed.
+     * @return
+     * @throws IOException if the buffer holds less than the requested number of glyphs
+     */
+    public SpriteSet load(ByteBuffer data) throws IOException
+    {
+        // like load(File), an offset beyond the end leaves no glyphs
+        final int count = glyphCount( Math.max( 0 , data.limit() - offset ) );
+        if ( count == 0 ) {
+            return new SpriteSet();
+        }
+        final ByteBuffer slice = data.duplicate();
+        slice.position( (int) offset );
+        return decode( slice.slice() , count );
+    }
+
+    private int glyphCount(long available) throws IOException
+    {
+        final int glyphSize = getGlyphSizeInBytes();
+        final int stride = stride();
+        final long fitting = available < glyphSize ? 0 : 1 + ( available - glyphSize ) / stride;
+        if ( glyphCount == -1 )
+        {
+            if ( fitting > Integer.MAX_VALUE ) {
+                throw new IOException("Input holds too many glyphs ("+fitting+")");
+            }
+            return (int) fitting;
+        }
+        if ( fitting < glyphCount ) {
+            throw new IOException("Input only holds "+fitting+" glyphs of "+glyphSize+" bytes, expected "+glyphCount);
+        }
+        return glyphCount;
+    }
+
+    private SpriteSet decode(ByteBuffer data,int count)
+    {
+        final int stride = stride();
+        final int bytesPerRow = (glyphWidth+7) >>> 3;
+        final byte[] rows = new byte[ bytesPerRow * glyphHeight ];
+        final SpriteSet result = new SpriteSet();
+        for ( int i = 0 , ptr = 0 ; i < count ; i++ , ptr += stride )
+        {
+            if ( layout == Layout.ROWS ) {
+                decodeRows( data , ptr , rows );
+            } else {
+                decodeColumns( data , ptr , rows );
+            }
+            final Sprite sprite = new Sprite( glyphWidth , glyphHeight );
+            sprite.readRows( rows , 0 );
+            result.add( sprite );
+        }
+        return result;
+    }
+
+    private int get(ByteBuffer data,int index)
+    {
+        final byte value = data.get( index );
+        return ( bitOrder == BitOrder.MSB_FIRST ? value : Bits.REVERSED[ value & 0xff ] ) & 0xff;
+    }
+
+    /*
+     * Rows are copied byte by byte, padding bits in the last byte of each row
+     * get masked by Sprite#readRows().
+     */
+    private void decodeRows(ByteBuffer data,int offset,byte[] rows)
+    {
+        if ( bitOrder == BitOrder.MSB_FIRST )
+        {
+            final ByteBuffer src = data.duplicate();
+            src.position( offset );
+            src.get( rows , 0 , rows.length );
+            return;
+        }
+        for ( int i = 0 ; i < rows.length ; i++ ) {
+            rows[i] = Bits.REVERSED[ data.get( offset + i ) & 0xff ];
+        }
+    }
+
+    /*
+     * Column and page layouts hold 8 vertically adjacent pixels per byte,
+     * 8 such bytes are turned into 8 rows of 8 pixels with a single transpose.
+     */
+    private void decodeColumns(ByteBuffer data,int offset,byte[] rows)
+    {
+        final int bytesPerRow = (glyphWidth+7) >>> 3;
+        final int pages = (glyphHeight+7) >>> 3;
+        for ( int page = 0 ; page < pages ; page++ )
+        {
+            final int rowCount = Math.min( 8 , glyphHeight - page*8 );
+            for ( int bx = 0 ; bx < bytesPerRow ; bx++ )
             {
-                final Sprite g = new Sprite(8, 8);
-                for ( int y = 0 ; y < 8 ; y++ ) 
+                long block = 0;
+                for ( int j = 0 , columns = Math.min( 8 , glyphWidth - bx*8 ) ; j < columns ; j++ )
                 {
-                    final int byteValue = data[dataPtr++] & 0xff;
-                    int readMask = 1<<7;
-                    for ( int x = 0 ; x < 8 ; x++ ) 
-                    {
-                        if ( (byteValue & readMask) != 0 ) 
-                        {
-                            g.setPixel( x , y );
-                        }
-                        readMask >>>= 1;
-                    }
+                    final int x = bx*8 + j;
+                    final int index = layout == Layout.COLUMNS ? x*pages + page : page*glyphWidth + x;
+                    block |= (long) get( data , offset + index ) << ( 56 - (j << 3) );
+                }
+                // byte j held column j with the top-most pixel in the MSB, now byte i holds row i
+                block = Bits.transpose8( block );
+                for ( int i = 0 ; i < rowCount ; i++ ) {
+                    rows[ (page*8 + i) * bytesPerRow + bx ] = (byte) ( block >>> ( 56 - (i << 3) ) );
                 }
-                result.add( g );
             }
-            return result;
-        } 
-        catch (IOException e) {
-            e.printStackTrace();
-            return null;
         }
     }
 }
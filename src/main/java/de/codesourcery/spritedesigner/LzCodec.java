@@ -0,0 +1,103 @@
+package de.codesourcery.spritedesigner;
+
+import java.util.Arrays;
+
+/**
+ * LZ77 variant that only needs the already decompressed output as dictionary.
+ *
+ * <pre>
+ * 0ccccccc                  c+1 literal bytes follow
+ * 1ccccccc dddddddd         copy c+3 bytes starting d+1 bytes before the current output position
+ * </pre>
+ *
+ * Matches are found by a greedy search that only looks at earlier positions in the window starting 
+ * with the same three bytes (kept in hash chains).
+ */
+final class LzCodec extends TokenCodec
+{
+    public static final LzCodec INSTANCE = new LzCodec();
+
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 0x7f + MIN_MATCH;
+    private static final int WINDOW_SIZE = 256;
+
+    private LzCodec() {
+        super( "lz" , "lz_decompress.asm" , 15 , 17 , 10 );
+    }
+
+    @Override
+    public int compress(byte[] src,int srcOffset,int len,byte[] dst,int dstOffset)
+    {
+        final int end = srcOffset + len;
+        // hash chains over 3-byte prefixes, holding positions relative to srcOffset
+        final int[] head = new int[ Integer.highestOneBit( Math.max( 16 , len ) ) << 1 ];
+        final int[] previous = new int[ len ];
+        Arrays.fill( head , -1 );
+        final int mask = head.length - 1;
+
+        int out = dstOffset;
+        int literalStart = srcOffset;
+        int inserted = srcOffset;
+        for ( int ptr = srcOffset ; ptr < end ; )
+        {
+            final int maxLen = Math.min( MAX_MATCH , end - ptr );
+            int bestLen = 0;
+            int bestDistance = 0;
+            if ( maxLen >= MIN_MATCH ) 
+            {
+                // candidates are visited nearest first, so the shortest distance wins among equally long matches
+                for ( int candidate = head[ hash( src , ptr ) & mask ] ; candidate != -1 && ptr - srcOffset - candidate <= WINDOW_SIZE && bestLen < maxLen ; candidate = previous[candidate] )
+                {
+                    // matches may overlap the current position, the decompressor copies byte by byte
+                    final int from = srcOffset + candidate;
+                    int matchLen = 0;
+                    while ( matchLen < maxLen && src[from+matchLen] == src[ptr+matchLen] ) {
+                        matchLen++;
+                    }
+                    if ( matchLen > bestLen )
+                    {
+                        bestLen = matchLen;
+                        bestDistance = ptr - from;
+                    }
+                }
+            }
+            final int next = bestLen >= MIN_MATCH ? ptr + bestLen : ptr + 1;
+            for ( final int limit = Math.min( next , end - MIN_MATCH + 1 ) ; inserted < limit ; inserted++ ) 
+            {
+                final int slot = hash( src , inserted ) & mask;
+                previous[ inserted - srcOffset ] = head[slot];
+                head[slot] = inserted - srcOffset;
+            }
+            if ( bestLen >= MIN_MATCH )
+            {
+                out = writeLiterals( src , literalStart , ptr , dst , out );
+                dst[out++] = (byte) ( 0x80 | ( bestLen - MIN_MATCH ) );
+                dst[out++] = (byte) ( bestDistance - 1 );
+                literalStart = next;
+            }
+            ptr = next;
+        }
+        return writeLiterals( src , literalStart , end , dst , out ) - dstOffset;
+    }
+
+    private static int hash(byte[] data,int offset)
+    {
+        final int value = ( data[offset] & 0xff ) << 16 | ( data[offset+1] & 0xff ) << 8 | ( data[offset+2] & 0xff );
+        return ( value * 0x9E3779B1 ) >>> 15;
+    }
+
+    @Override
+    protected int repeatLength(int control) {
+        return ( control & 0x7f ) + MIN_MATCH;
+    }
+
+    @Override
+    protected int repeatTokenSize() {
+        return 2;
+    }
+
+    @Override
+    protected int repeatDistance(byte[] src,int in) {
+        return ( src[in] & 0xff ) + 1;
+    }
+}
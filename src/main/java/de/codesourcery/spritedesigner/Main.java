@@ -1,30 +1,51 @@
 package de.codesourcery.spritedesigner;
 
+import java.awt.AWTEvent;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.GridLayout;
+import java.awt.Toolkit;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -38,7 +59,12 @@ import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.JViewport;
+import javax.swing.KeyStroke;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileFilter;
 
 import de.codesourcery.spritedesigner.Sprite.Flip;
@@ -48,6 +74,12 @@ public class Main extends JFrame
     private static final File CONFIG_FILE = new File(".chardesigner");
     private static final boolean CONFIRM_DELETE = false;
 
+    // time without user input after which export data gets precomputed
+    private static final int IDLE_MILLIS = 500;
+
+    // min. time between repaints while drawing
+    private static final int FRAME_MILLIS = 16;
+
     public static void main(String[] args) throws InvocationTargetException, InterruptedException
     {
         SwingUtilities.invokeAndWait( () ->  new Main().run() );
@@ -58,25 +90,34 @@ public class Main extends JFrame
     private PreviewPanel previewPanel;
 
     private File currentFile;
+    // non-null while the current sprite set is backed by a memory-mapped file
+    private SpriteLibrary library;
+    // whether exports should write identical sprites only once
+    private boolean deduplicate;
+
+    private final UndoJournal journal = new UndoJournal();
+
+    private final ExportCache exportCache = new ExportCache();
+    // layouts to keep up-to-date in the export cache, starts with the most common ones and grows with every layout exported
+    private final Set<SpriteEncoder> precomputedLayouts = ConcurrentHashMap.newKeySet();
+    private final ForkJoinPool precomputePool = new ForkJoinPool( Math.max( 1 , Runtime.getRuntime().availableProcessors() - 1 ) );
+    private Future<?> precomputeTask;
+    private volatile long lastInputMillis = System.currentTimeMillis();
+    private long lastPrecomputeMillis;
 
     public Main()
     {
         super("SpriteDesigner");
 
-        final boolean doImport = true;
-        if ( doImport ) {
-            spriteSet = new Importer().load();
-        } else {
-            spriteSet = new SpriteSet();
-            spriteSet.add( new Sprite(24,21) );
-        }
+        spriteSet = new SpriteSet();
+        spriteSet.add( new Sprite(24,21) );
 
         previewPanel = new PreviewPanel(spriteSet);
         editorPanel.setSprite( previewPanel.currentSelection );
 
-        if ( ! doImport ) {
-            loadConfig();
-        }
+        precomputedLayouts.addAll( Arrays.asList( SpriteEncoder.rows( Flip.NONE ) , SpriteEncoder.columns( Flip.NONE ) , SpriteEncoder.pages( 8 ) ) );
+
+        loadConfig();
     }
 
     private void run()
@@ -112,6 +153,16 @@ public class Main extends JFrame
             }
         });
 
+        addMenuItem("Open as library..." , menu , () ->
+        {
+            final File selected = askForFile( currentFile );
+            if ( selected != null ) 
+            {
+                openLibrary( selected );
+                saveConfig();
+            }
+        });
+
         menu.addSeparator();
 
         addMenuItem("Import image..." , menu , () ->
@@ -120,9 +171,16 @@ public class Main extends JFrame
             updateWindowTitle();
         });
 
+        addMenuItem("Import image with dithering..." , menu , this::convertImage );
+
+        addMenuItem("Import animated GIF..." , menu , this::importGif );
+
+        addMenuItem("Import ROM..." , menu , this::importRom );
+        addMenuItem("Import sprite sheet..." , menu , this::importSpriteSheet );
+
         addMenuItem("Crop" , menu , () ->
         {
-            currentSelection().cropToSize();
+            journal.cropToSize( currentSelection() );
             editorPanel.repaint();
             previewPanel.repaint();
             updateWindowTitle();
@@ -130,14 +188,14 @@ public class Main extends JFrame
 
         addMenuItem("Crop all" , menu , () ->
         {
-            for ( Sprite s : spriteSet.getSprites() ) {
-                s.cropToSize();
-            }
+            journal.cropToSize( spriteSet.getSprites() );
             editorPanel.repaint();
             previewPanel.repaint();
             updateWindowTitle();
         });
 
+        addMenuItem("Scale..." , menu , this::scaleSprites );
+
         menu.addSeparator();
 
         addMenuItem("Save" , menu , () ->
@@ -151,23 +209,28 @@ public class Main extends JFrame
             {
                 writeGlyphSet( spriteSet , file );
                 currentFile = file;
+                updateWindowTitle();
             }
         });
 
+        final JCheckBoxMenuItem dedupItem = new JCheckBoxMenuItem("Deduplicate identical sprites" , deduplicate );
+        dedupItem.addActionListener( ev -> deduplicate = dedupItem.isSelected() );
+        menu.add( dedupItem );
+
         for ( Flip flip : Flip.values() )
         {
             addMenuItem("Show as row data ("+flip+")..." , menu , () ->
             {
-                final String asm = "charset:\n; data organization: rows "+flip+"\n"+spriteSet.getDataRowsAsAssembly("    ",flip)+
-                    " \ncharset_mapping:\n"+spriteSet.getSpriteMappingAsAssembly("    ");
+                final String asm = toAssembly( "charset:\n; data organization: rows "+flip+"\n" , SpriteEncoder.rows( flip ) ,
+                    " \ncharset_mapping:\n" );
                 showMessage("Row data" , asm );
             });
         }
 
         addMenuItem("Show as column data (8 bits per column)..." , menu , () ->
         {
-            final String asm = "charset:\n; data organization: 8 bits per column columns\n"+spriteSet.getDataColumnsAsAssembly("    ",8)+
-                "\ncharset_mapping:\n"+spriteSet.getSpriteMappingAsAssembly("    ");
+            final String asm = toAssembly( "charset:\n; data organization: 8 bits per column columns\n" , SpriteEncoder.pages( 8 ) ,
+                "\ncharset_mapping:\n" );
             showMessage( "Column data" , asm  );
         });
 
@@ -175,15 +238,55 @@ public class Main extends JFrame
         {
             addMenuItem("Show as column data ("+flip+")..." , menu , () ->
             {
-                final String asm = "charset:\n; data organization: columns "+flip+" \n"+spriteSet.getDataColumnsAsAssembly("    ",flip)+
-                    "\ncharset_mapping:\n"+spriteSet.getSpriteMappingAsAssembly("    ");
+                final String asm = toAssembly( "charset:\n; data organization: columns "+flip+" \n" , SpriteEncoder.columns( flip ) ,
+                    "\ncharset_mapping:\n" );
                 showMessage( "Column data" , asm  );
             });
         }
 
+        for ( SpriteCodec codec : SpriteCodec.all() )
+        {
+            addMenuItem("Show as compressed column data ("+codec.getName()+")..." , menu , () ->
+            {
+                final CompressingExporter exporter = new CompressingExporter( spriteSet , exportCache.encoder( SpriteEncoder.pages( 8 ) ) , codec );
+                exporter.setDeduplicate( deduplicate );
+                final StringWriter out = new StringWriter();
+                try
+                {
+                    out.write( "charset:\n; data organization: 8 bits per column, compressed with "+codec.getName()+"\n" );
+                    exporter.writeAsAssembly( "    " , out );
+                    out.write( "\ncharset_mapping:\n" );
+                    exporter.writeSpriteMappingAsAssembly( "    " , out );
+                    out.write( "\n" );
+                    exporter.writeDecompressorAsAssembly( out );
+                    showMessage( "Compressed column data" , out.toString() );
+                }
+                catch(IOException e)
+                {
+                    e.printStackTrace();
+                    showMessage( "Export failed" , e.getMessage() );
+                }
+            });
+        }
+
+        addMenuItem("Show compression report..." , menu , () ->
+        {
+            final SpriteEncoder encoder = exportCache.encoder( SpriteEncoder.pages( 8 ) );
+            showMessage( "Compression report" , 
+                CompressionReport.create( spriteSet , encoder , 1 , SpriteCodec.all() ) + "\n" +
+                CompressionReport.create( spriteSet , encoder , 8 , SpriteCodec.all() ) );
+        });
+
         menu.addSeparator();
         addMenuItem("Quit" , menu , () -> System.exit(0) );
 
+        final JMenu editMenu = new JMenu("Edit");
+        menuBar.add( editMenu );
+        addMenuItem("Undo" , editMenu , () -> undoOrRedo( true ) )
+            .setAccelerator( KeyStroke.getKeyStroke( KeyEvent.VK_Z , InputEvent.CTRL_DOWN_MASK ) );
+        addMenuItem("Redo" , editMenu , () -> undoOrRedo( false ) )
+            .setAccelerator( KeyStroke.getKeyStroke( KeyEvent.VK_Y , InputEvent.CTRL_DOWN_MASK ) );
+
         setJMenuBar(menuBar);
 
         if ( currentFile != null )
@@ -192,6 +295,69 @@ public class Main extends JFrame
         }
 
         updateWindowTitle();
+
+        Toolkit.getDefaultToolkit().addAWTEventListener( ev -> lastInputMillis = System.currentTimeMillis() ,
+            AWTEvent.MOUSE_EVENT_MASK | AWTEvent.KEY_EVENT_MASK );
+        new Timer( IDLE_MILLIS , ev -> maybePrecompute() ).start();
+    }
+
+    /**
+     * Encodes changed sprites in the background once the user stopped editing, so that
+     * exports only need to encode whatever changed after that.
+     */
+    private void maybePrecompute()
+    {
+        final long now = System.currentTimeMillis();
+        if ( ( precomputeTask != null && ! precomputeTask.isDone() ) || now - lastInputMillis < IDLE_MILLIS || lastInputMillis < lastPrecomputeMillis ) {
+            return;
+        }
+        lastPrecomputeMillis = now;
+        if ( library != null ) {
+            // would decode the whole library
+            return;
+        }
+        // sprites are only changed on this thread, so the versions read here are accurate
+        final List<Sprite> sprites = new ArrayList<>( spriteSet.getSprites() );
+        final int[] versions = sprites.stream().mapToInt( Sprite::version ).toArray();
+        final List<SpriteEncoder> layouts = new ArrayList<>( precomputedLayouts );
+        precomputeTask = precomputePool.submit( () -> exportCache.precompute( sprites , versions , layouts , () -> lastInputMillis >= now ) );
+    }
+
+    private String toAssembly(String header,SpriteEncoder layout,String mappingHeader)
+    {
+        precomputedLayouts.add( layout );
+        final SpriteEncoder encoder = exportCache.encoder( layout );
+
+        final SpriteSetExporter exporter = new SpriteSetExporter( spriteSet );
+        exporter.setParallelism( Runtime.getRuntime().availableProcessors() );
+        exporter.setDeduplicate( deduplicate );
+
+        final StringWriter out = new StringWriter();
+        try
+        {
+            out.write( header );
+            if ( deduplicate )
+            {
+                final List<Sprite> mapped = spriteSet.getSprites().stream().filter( Sprite::hasIndex ).collect( Collectors.toList() );
+                final List<Sprite> unique = DedupIndex.of( mapped ).getUniqueSprites();
+                final int saved = mapped.stream().mapToInt( encoder::sizeInBytes ).sum() - unique.stream().mapToInt( encoder::sizeInBytes ).sum();
+                out.write( "; "+unique.size()+" distinct of "+mapped.size()+" sprites, deduplication saved "+saved+" bytes\n" );
+                exporter.writeAsAssembly( "    " , encoder , out );
+                out.write( mappingHeader );
+                exporter.writeSpriteMappingAsAssembly( "    " , encoder , out );
+            } 
+            else 
+            {
+                exporter.writeAsAssembly( "    " , encoder , out );
+                out.write( mappingHeader );
+                exporter.writeSpriteMappingAsAssembly( "    " , out );
+            }
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException( e ); // can't happen with a StringWriter
+        }
+        return out.toString();
     }
 
     private void showMessage(String title,String message)
@@ -230,6 +396,47 @@ public class Main extends JFrame
         dialog.setDefaultCloseOperation( JFrame.DISPOSE_ON_CLOSE );
     }
 
+    private void scaleSprites()
+    {
+        final Sprite current = currentSelection();
+        final JTextField width = new JTextField( Integer.toString( current.getWidth() ) , 5 );
+        final JTextField height = new JTextField( Integer.toString( current.getHeight() ) , 5 );
+        final JComboBox<SpriteScaler.Algorithm> algorithm = new JComboBox<>( SpriteScaler.Algorithm.values() );
+        final JTextField threshold = new JTextField( "50" , 5 );
+        final JCheckBox all = new JCheckBox( "" , false );
+
+        final JPanel panel = new JPanel( new GridLayout( 0 , 2 ) );
+        panel.add( new JLabel("Width:") );
+        panel.add( width );
+        panel.add( new JLabel("Height:") );
+        panel.add( height );
+        panel.add( new JLabel("Algorithm:") );
+        panel.add( algorithm );
+        panel.add( new JLabel("Area coverage threshold (%):") );
+        panel.add( threshold );
+        panel.add( new JLabel("All sprites:") );
+        panel.add( all );
+
+        if ( JOptionPane.showConfirmDialog( this , panel , "Scale sprites" , JOptionPane.OK_CANCEL_OPTION ) != JOptionPane.OK_OPTION ) {
+            return;
+        }
+        try
+        {
+            final SpriteScaler scaler = new SpriteScaler( (SpriteScaler.Algorithm) algorithm.getSelectedItem() );
+            scaler.setThreshold( asInt( threshold.getText() ) / 100.0 );
+            final List<Sprite> sprites = all.isSelected() ? spriteSet.getSprites() : List.of( current );
+            journal.scale( sprites , asInt( width.getText() ) , asInt( height.getText() ) , scaler );
+        }
+        catch(RuntimeException e)
+        {
+            showMessage( "Scaling failed" , e.getMessage() );
+            return;
+        }
+        editorPanel.setSprite( current );
+        previewPanel.repaint();
+        updateWindowTitle();
+    }
+
     private void changeSpriteSize()
     {
         final JTextField width = new JTextField();
@@ -283,7 +490,7 @@ public class Main extends JFrame
             final Integer h = asInt(height.getText() );
             if ( w != null && h != null && w.intValue() >= 1 && h.intValue() >= 1 && ! currentSelection().hasSize(w,h) )
             {
-                currentSelection().resize(w,h,true);
+                journal.resize( currentSelection() , w , h , true );
                 editorPanel.setSprite( currentSelection() );
                 repaint();
             }
@@ -308,6 +515,186 @@ public class Main extends JFrame
         dialog.setDefaultCloseOperation( JFrame.DISPOSE_ON_CLOSE );
     }
 
+    private void importRom()
+    {
+        final JTextField width = new JTextField( "8" , 5 );
+        final JTextField height = new JTextField( "8" , 5 );
+        final JTextField count = new JTextField( "256" , 5 );
+        final JTextField offset = new JTextField( "0" , 5 );
+        final JTextField stride = new JTextField( "" , 5 );
+        final JComboBox<Importer.Layout> layout = new JComboBox<>( Importer.Layout.values() );
+        final JComboBox<Importer.BitOrder> bitOrder = new JComboBox<>( Importer.BitOrder.values() );
+
+        final JPanel panel = new JPanel( new GridLayout( 0 , 2 ) );
+        panel.add( new JLabel("Glyph width:") );
+        panel.add( width );
+        panel.add( new JLabel("Glyph height:") );
+        panel.add( height );
+        panel.add( new JLabel("Glyph count (empty = all):") );
+        panel.add( count );
+        panel.add( new JLabel("Start offset:") );
+        panel.add( offset );
+        panel.add( new JLabel("Stride (empty = glyph size):") );
+        panel.add( stride );
+        panel.add( new JLabel("Layout:") );
+        panel.add( layout );
+        panel.add( new JLabel("Bit order:") );
+        panel.add( bitOrder );
+
+        if ( JOptionPane.showConfirmDialog( this , panel , "Import ROM" , JOptionPane.OK_CANCEL_OPTION ) != JOptionPane.OK_OPTION ) {
+            return;
+        }
+        final JFileChooser chooser = new JFileChooser();
+        if ( chooser.showOpenDialog( this ) != JFileChooser.APPROVE_OPTION ) {
+            return;
+        }
+        try
+        {
+            final Importer importer = new Importer();
+            importer.setGlyphSize( asInt( width.getText() ) , asInt( height.getText() ) );
+            importer.setGlyphCount( count.getText().trim().isEmpty() ? -1 : asInt( count.getText() ) );
+            importer.setOffset( Long.decode( offset.getText().trim() ) );
+            importer.setStride( stride.getText().trim().isEmpty() ? 0 : asInt( stride.getText() ) );
+            importer.setLayout( (Importer.Layout) layout.getSelectedItem() );
+            importer.setBitOrder( (Importer.BitOrder) bitOrder.getSelectedItem() );
+
+            final SpriteSet set = importer.load( chooser.getSelectedFile() );
+            if ( set.isEmpty() ) {
+                showMessage( "Import failed" , "File holds no glyphs" );
+                return;
+            }
+            currentFile = null;
+            setGlyphSet( set );
+        }
+        catch(IOException | RuntimeException e)
+        {
+            e.printStackTrace();
+            showMessage( "Import failed" , e.getMessage() );
+        }
+    }
+
+    private void convertImage()
+    {
+        final JComboBox<ImageConverter.Method> method = new JComboBox<>( ImageConverter.Method.values() );
+        final JTextField threshold = new JTextField( "128" , 5 );
+        final JComboBox<ImageConverter.Alpha> alpha = new JComboBox<>( ImageConverter.Alpha.values() );
+        final JCheckBox invert = new JCheckBox( "" , false );
+
+        final JPanel panel = new JPanel( new GridLayout( 0 , 2 ) );
+        panel.add( new JLabel("Method:") );
+        panel.add( method );
+        panel.add( new JLabel("Threshold (1-255):") );
+        panel.add( threshold );
+        panel.add( new JLabel("Transparency:") );
+        panel.add( alpha );
+        panel.add( new JLabel("Dark pixels are set:") );
+        panel.add( invert );
+
+        if ( JOptionPane.showConfirmDialog( this , panel , "Import image" , JOptionPane.OK_CANCEL_OPTION ) != JOptionPane.OK_OPTION ) {
+            return;
+        }
+        final File file = askForFile(null);
+        if ( file == null || ! file.isFile() ) {
+            return;
+        }
+        final Sprite current = currentSelection();
+        try
+        {
+            final ImageConverter converter = new ImageConverter( (ImageConverter.Method) method.getSelectedItem() );
+            converter.setThreshold( asInt( threshold.getText() ) );
+            converter.setAlpha( (ImageConverter.Alpha) alpha.getSelectedItem() );
+            converter.setInvert( invert.isSelected() );
+
+            final BufferedImage image = ImageIO.read( file );
+            if ( image == null ) {
+                showMessage( "Import failed" , "Unsupported image format: "+file.getName() );
+                return;
+            }
+            journal.setToImage( current , image , converter );
+        }
+        catch(IOException | RuntimeException e)
+        {
+            e.printStackTrace();
+            showMessage( "Import failed" , e.getMessage() );
+            return;
+        }
+        editorPanel.setSprite( current );
+        previewPanel.repaint();
+        updateWindowTitle();
+    }
+
+    private void importGif()
+    {
+        final File file = askForFile(null);
+        if ( file == null || ! file.isFile() ) {
+            return;
+        }
+        final List<Sprite> frames = new ArrayList<>();
+        try {
+            new GifImporter().load( file , frames::add );
+        }
+        catch(IOException | RuntimeException e)
+        {
+            e.printStackTrace();
+            showMessage( "Import failed" , e.getMessage() );
+            return;
+        }
+        journal.addAll( spriteSet , frames );
+        previewPanel.setCurrentSelection( frames.get( 0 ) );
+        previewPanel.repaint();
+        updateWindowTitle();
+    }
+
+    private void importSpriteSheet()
+    {
+        final JTextField width = new JTextField( "8" , 5 );
+        final JTextField height = new JTextField( "8" , 5 );
+        final JTextField margin = new JTextField( "0" , 5 );
+        final JTextField spacing = new JTextField( "0" , 5 );
+        final JCheckBox skipEmpty = new JCheckBox( "" , false );
+
+        final JPanel panel = new JPanel( new GridLayout( 0 , 2 ) );
+        panel.add( new JLabel("Cell width:") );
+        panel.add( width );
+        panel.add( new JLabel("Cell height:") );
+        panel.add( height );
+        panel.add( new JLabel("Margin:") );
+        panel.add( margin );
+        panel.add( new JLabel("Spacing:") );
+        panel.add( spacing );
+        panel.add( new JLabel("Skip empty cells:") );
+        panel.add( skipEmpty );
+
+        if ( JOptionPane.showConfirmDialog( this , panel , "Import sprite sheet" , JOptionPane.OK_CANCEL_OPTION ) != JOptionPane.OK_OPTION ) {
+            return;
+        }
+        final JFileChooser chooser = new JFileChooser();
+        if ( chooser.showOpenDialog( this ) != JFileChooser.APPROVE_OPTION ) {
+            return;
+        }
+        try
+        {
+            final SpriteSheetImporter importer = new SpriteSheetImporter();
+            importer.setCellSize( asInt( width.getText() ) , asInt( height.getText() ) );
+            importer.setMargin( asInt( margin.getText() ) );
+            importer.setSpacing( asInt( spacing.getText() ) );
+            importer.setSkipEmpty( skipEmpty.isSelected() );
+
+            final SpriteSet set = importer.load( chooser.getSelectedFile() );
+            if ( set.isEmpty() ) {
+                showMessage( "Import failed" , "Image holds no sprites" );
+                return;
+            }
+            currentFile = null;
+            setGlyphSet( set );
+        }
+        catch(IOException | RuntimeException e)
+        {
+            e.printStackTrace();
+            showMessage( "Import failed" , e.getMessage() );
+        }
+    }
+
     private Sprite currentSelection() {
         return previewPanel.currentSelection;
     }
@@ -319,18 +706,38 @@ public class Main extends JFrame
 
     private void setGlyphSet( SpriteSet set)
     {
-        if ( set != null ) {
+        if ( set != null ) 
+        {
+            if ( library != null && library.getSpriteSet() != set ) {
+                closeLibrary();
+            }
             this.spriteSet = set;
+            journal.clear();
             this.previewPanel.setGlyphSet( spriteSet );
             updateWindowTitle();
         }
     }
 
-    private void addMenuItem(String label,JMenu menu, Runnable action)
+    private JMenuItem addMenuItem(String label,JMenu menu, Runnable action)
     {
         final JMenuItem item = new JMenuItem( label );
         menu.add( item );
         item.addActionListener( ev -> action.run() );
+        return item;
+    }
+
+    private void undoOrRedo(boolean undo)
+    {
+        if ( ! ( undo ? journal.undo() : journal.redo() ) ) {
+            return;
+        }
+        // undoing may have removed the selected sprite or changed its size
+        if ( ! spriteSet.isEmpty() && ! spriteSet.getSprites().contains( currentSelection() ) ) {
+            previewPanel.setCurrentSelection( spriteSet.sprite( 0 ) );
+        }
+        editorPanel.setSprite( currentSelection() );
+        previewPanel.repaint();
+        updateWindowTitle();
     }
 
     private SpriteSet loadGlyphSet()
@@ -361,15 +768,45 @@ public class Main extends JFrame
         return null;
     }
 
+    private void openLibrary(File file)
+    {
+        try
+        {
+            final SpriteLibrary newLibrary = SpriteLibrary.open( file );
+            closeLibrary();
+            library = newLibrary;
+            currentFile = file;
+            setGlyphSet( library.getSpriteSet() );
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            showMessage( "Failed to open library" , e.getMessage() );
+        }
+    }
+
+    private void closeLibrary()
+    {
+        if ( library != null )
+        {
+            try {
+                library.close();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+            library = null;
+        }
+    }
+
     private SpriteSet loadGlyphSet(File file)
     {
-        try (ObjectInputStream in = new ObjectInputStream( new FileInputStream( file ) ) )
+        try
         {
-            final SpriteSet result = (SpriteSet) in.readObject();
+            final SpriteSet result = SpriteSetFile.load( file );
             currentFile = file;
             return result;
         }
-        catch(IOException | ClassNotFoundException e)
+        catch(IOException e)
         {
             e.printStackTrace();
         }
@@ -383,6 +820,7 @@ public class Main extends JFrame
         {
             props.setProperty("lastFile" , currentFile.getAbsolutePath());
         }
+        props.setProperty("undoMemoryLimit" , Long.toString( journal.getMaxBytes() ) );
         try ( FileOutputStream out = new FileOutputStream(CONFIG_FILE) ) {
             props.save(out,"AUTO-GENERATED AND WILL BE OVERWRITTEN,DO NOT EDIT");
         } catch (Exception e) {
@@ -409,6 +847,11 @@ public class Main extends JFrame
         } else {
             currentFile = null;
         }
+
+        final String limit = props.getProperty("undoMemoryLimit");
+        if ( limit != null && limit.trim().length() > 0 ) {
+            journal.setMaxBytes( Long.parseLong( limit.trim() ) );
+        }
     }
 
     private FileFilter createFileFilter()
@@ -443,9 +886,19 @@ public class Main extends JFrame
 
     private void writeGlyphSet(SpriteSet set,File output)
     {
-        try (ObjectOutputStream out = new ObjectOutputStream( new FileOutputStream( output  ) ) )
+        try
         {
-            out.writeObject( set );
+            if ( library != null && library.getSpriteSet() == set )
+            {
+                // avoids decoding all sprites into memory 
+                if ( output.equals( library.getFile() ) ) {
+                    library.flush();
+                } else {
+                    library.saveAs( output );
+                }
+            } else {
+                SpriteSetFile.save( set , output , false );
+            }
         }
         catch(IOException e)
         {
@@ -465,7 +918,13 @@ public class Main extends JFrame
         return null;
     }
 
-    private final class PreviewPanel extends JPanel
+    /**
+     * Shows all sprites in a grid that wraps at the viewport's width.
+     *
+     * Only the cells that intersect the area being repainted are painted, so neither
+     * painting time nor memory usage depends on the number of sprites.
+     */
+    private final class PreviewPanel extends JPanel implements Scrollable
     {
         private final int yOffset = 10;
         private final int xOffset = 10;
@@ -473,10 +932,29 @@ public class Main extends JFrame
         private final int previewWidth = 64;
         private final int previewHeight = 64;
 
+        // space for two lines of labels below each thumbnail
+        private final int labelHeight = 35;
+
+        private final int cellWidth = previewWidth + xOffset;
+        private final int cellHeight = previewHeight + labelHeight + yOffset;
+
+        // max. number of rendered thumbnails to keep
+        private static final int MAX_THUMBNAILS = 4096;
+
         private SpriteSet spriteSet;
+        // number of sprites the layout was last computed for
+        private int layoutSize = -1;
 
-        private BufferedImage image;
-        private Graphics2D imageGfx;
+        // most recently painted thumbnails, entries are re-rendered when the sprite's version changed
+        private final Map<Sprite,Thumbnail> thumbnails = new LinkedHashMap<>( 16 , 0.75f , true )
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sprite, Thumbnail> eldest) {
+                return size() > MAX_THUMBNAILS;
+            }
+        };
+        private final Map<String,Integer> labelWidths = new HashMap<>();
+        private Font labelFont;
 
         private Sprite currentHighlight;
         private Sprite currentSelection;
@@ -509,7 +987,7 @@ public class Main extends JFrame
                             String result = JOptionPane.showInputDialog("Enter character mapping", text );
                             if ( result != null && result.length() > 0 )
                             {
-                                sprite.setIndex( result.charAt(0) );
+                                journal.setIndex( sprite , result.charAt(0) );
                                 updateWindowTitle();
                                 repaint();
                             }
@@ -525,7 +1003,8 @@ public class Main extends JFrame
             this.currentSelection = spriteSet.sprite( 0 );
             this.currentHighlight = null;
             editorPanel.setSprite( this.currentSelection );
-            image();
+            thumbnails.clear();
+            updateLayout();
             repaint();
         }
 
@@ -536,7 +1015,7 @@ public class Main extends JFrame
             }
 
             final int idx = spriteSet.indexOf( sprite );
-            spriteSet.delete( sprite );
+            journal.delete( spriteSet , sprite );
             Sprite newFocus = null;
             if ( spriteSet.size() > idx ) {
                 newFocus = spriteSet.sprite( idx );
@@ -564,8 +1043,9 @@ public class Main extends JFrame
         {
             final boolean highlightChanged = ! Objects.equals( currentHighlight , hl );
             if ( highlightChanged ) {
+                repaintCell( currentHighlight );
                 currentHighlight = hl;
-                repaint();
+                repaintCell( currentHighlight );
             }
         }
 
@@ -584,13 +1064,12 @@ public class Main extends JFrame
                     if ( e.getKeyCode() == KeyEvent.VK_SPACE  )
                     {
                         if ( ! spriteSet.isEmpty() ) {
-                            if ( spriteSet.getSprites().get(0).hasIndex() ) {
-                                spriteSet.getSprites().forEach( Sprite::clearIndex );
-                            } else {
-                                for ( int i = 0, len = spriteSet.size() ; i < len ; i++ ) {
-                                    spriteSet.sprite( i ).setIndex( i );
-                                }
+                            final boolean clear = spriteSet.getSprites().get(0).hasIndex();
+                            final int[] indexes = new int[ spriteSet.size() ];
+                            for ( int i = 0, len = spriteSet.size() ; i < len ; i++ ) {
+                                indexes[i] = clear ? -1 : i;
                             }
+                            journal.setIndexes( spriteSet.getSprites() , indexes );
                             previewPanel.repaint();
                             editorPanel.repaint();
                         }
@@ -605,7 +1084,7 @@ public class Main extends JFrame
                         {
                             final Sprite sprite = PreviewPanel.this.currentSelection;
                             final int idx = spriteSet.getSprites().indexOf( sprite);
-                            spriteSet.deleteToEnd( idx );
+                            journal.deleteToEnd( spriteSet , idx );
                             glyphDeleted( sprite, idx-1 >= 0 ? spriteSet.sprite(idx-1) : null );
                             previewPanel.repaint();
                             editorPanel.repaint();
@@ -615,26 +1094,30 @@ public class Main extends JFrame
                     {
                         if ( ( e.getModifiersEx() & KeyEvent.SHIFT_DOWN_MASK) != 0 )
                         {
-                            spriteSet.getSprites().forEach( Sprite::rotateCW );
+                            journal.rotateCW( spriteSet );
                         } else {
-                            currentSelection().rotateCW();
+                            journal.rotateCW( currentSelection() );
                         }
                         previewPanel.repaint();
                         editorPanel.repaint();
                     }
                     else if ( e.getKeyCode() == KeyEvent.VK_I )
                     {
-                        currentSelection().invert();
+                        journal.invert( currentSelection() );
                         previewPanel.repaint();
                         editorPanel.repaint();
                     }
                     else if ( e.getKeyCode() == KeyEvent.VK_S )
                     {
-                        changeSpriteSize();
+                        if ( ( e.getModifiersEx() & KeyEvent.SHIFT_DOWN_MASK) != 0 ) {
+                            scaleSprites();
+                        } else {
+                            changeSpriteSize();
+                        }
                     }
                     else if ( e.getKeyCode() == KeyEvent.VK_C )
                     {
-                        currentSelection.clear();
+                        journal.clear( currentSelection );
                         editorPanel.setSprite( currentSelection );
                         repaint();
                     }
@@ -642,7 +1125,7 @@ public class Main extends JFrame
                     {
                         Sprite newGlyph = new Sprite( currentSelection.getWidth() , currentSelection.getHeight() );
                         final int currentIdx = spriteSet.indexOf( currentSelection );
-                        spriteSet.add( currentIdx+1 , newGlyph );
+                        journal.add( spriteSet , currentIdx+1 , newGlyph );
                         currentSelection = newGlyph;
                         editorPanel.setSprite( newGlyph );
                         repaint();
@@ -667,7 +1150,7 @@ public class Main extends JFrame
                     {
                         if ( ( e.getModifiersEx() & KeyEvent.ALT_DOWN_MASK ) != 0 )
                         {
-                            spriteSet.moveBackwards( currentSelection );
+                            journal.moveBackwards( spriteSet , currentSelection );
                             repaint();
                         } else {
                             int idx = spriteSet.indexOf( currentSelection );
@@ -680,7 +1163,7 @@ public class Main extends JFrame
                     {
                         if ( ( e.getModifiersEx() & KeyEvent.ALT_DOWN_MASK ) != 0 )
                         {
-                            spriteSet.moveForwards( currentSelection );
+                            journal.moveForwards( spriteSet , currentSelection );
                             repaint();
                         } else {
                             int idx = spriteSet.indexOf( currentSelection );
@@ -698,12 +1181,15 @@ public class Main extends JFrame
 
         private int getGlyphIndex( MouseEvent e)
         {
-            if ( e.getX() >= xOffset && e.getY() >= yOffset && e.getY() <= yOffset+previewHeight )
-            {
-                int idx = (e.getX() - xOffset)/(previewWidth+xOffset);
-                if ( idx >= 0 && idx < spriteSet.size() ) {
-                    return idx;
-                }
+            final int x = e.getX() - xOffset;
+            final int y = e.getY() - yOffset;
+            if ( x < 0 || y < 0 || x % cellWidth > previewWidth || y % cellHeight > previewHeight + labelHeight ) {
+                return -1;
+            }
+            final int column = x / cellWidth;
+            final int idx = ( y / cellHeight ) * columns() + column;
+            if ( column < columns() && idx < spriteSet.size() ) {
+                return idx;
             }
             return -1;
         }
@@ -713,82 +1199,188 @@ public class Main extends JFrame
             boolean selectionChanged = ! Objects.equals( this.currentSelection , g );
             if ( selectionChanged )
             {
+                repaintCell( this.currentSelection );
                 this.currentSelection = g;
                 editorPanel.setSprite( g );
                 updateWindowTitle();
-                repaint();
+                repaintCell( g );
+                final int idx = g == null ? -1 : spriteSet.getSprites().indexOf( g );
+                if ( idx != -1 ) {
+                    scrollRectToVisible( cellBounds( idx ) );
+                }
             }
         }
 
-        private BufferedImage image()
+        private int columns()
         {
-            final int width = spriteSet.size()*previewWidth + (spriteSet.size()+1)*xOffset;
-            if ( image == null || image.getWidth() != width )
+            final int width = getParent() instanceof JViewport ? getParent().getWidth() : getWidth();
+            return Math.max( 1 , ( width - xOffset ) / cellWidth );
+        }
+
+        private void updateLayout()
+        {
+            if ( spriteSet.size() != layoutSize )
             {
-                if ( image != null ) {
-                    imageGfx.dispose();
+                layoutSize = spriteSet.size();
+                revalidate();
+            }
+        }
+
+        @Override
+        public Dimension getPreferredSize()
+        {
+            final int columns = columns();
+            final int rows = ( spriteSet.size() + columns - 1 ) / columns;
+            return new Dimension( xOffset + columns * cellWidth , yOffset + rows * cellHeight );
+        }
+
+        /**
+         * Returns the area covered by a sprite's thumbnail and labels.
+         */
+        private Rectangle cellBounds(int index)
+        {
+            final int columns = columns();
+            final int x = xOffset + ( index % columns ) * cellWidth;
+            final int y = yOffset + ( index / columns ) * cellHeight;
+            return new Rectangle( x , y , previewWidth + 1 , previewHeight + labelHeight );
+        }
+
+        private void repaintCell(Sprite sprite)
+        {
+            if ( sprite != null )
+            {
+                // -1 if the sprite was just removed, the whole panel gets repainted then anyway
+                final int idx = spriteSet.getSprites().indexOf( sprite );
+                if ( idx != -1 ) {
+                    // include the labels below the thumbnail, they are drawn in the border's color
+                    final Rectangle bounds = cellBounds( idx );
+                    repaint( bounds.x - xOffset/2 , bounds.y , bounds.width + xOffset , bounds.height );
                 }
-                image = new BufferedImage( width, previewHeight+20 + 15 , BufferedImage.TYPE_INT_RGB );
-                imageGfx = image.createGraphics();
-                setPreferredSize( new Dimension( width , yOffset + previewHeight+1 + 15 ) );
-                getParent().revalidate();
             }
-            return image;
         }
 
-        private Graphics2D imageGfx()
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            return new Dimension( xOffset + 8 * cellWidth , yOffset + cellHeight );
+        }
+
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? cellHeight / 4 : cellWidth / 4;
+        }
+
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? Math.max( cellHeight , visibleRect.height - cellHeight ) : visibleRect.width;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return true;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return false;
+        }
+
+        private Thumbnail thumbnail(Sprite sprite)
         {
-            image();
-            return imageGfx;
+            Thumbnail result = thumbnails.get( sprite );
+            if ( result == null || result.version != sprite.version() )
+            {
+                result = new Thumbnail( sprite , previewWidth , previewHeight );
+                thumbnails.put( sprite , result );
+            }
+            return result;
         }
 
         @Override
         protected void paintComponent(Graphics g)
         {
             super.paintComponent(g);
-            final Graphics2D gfx = imageGfx();
-            gfx.setColor( Color.BLACK );
-            gfx.fillRect( 0, 0 , image().getWidth() , image.getHeight() );
-            for ( int i = 0 ; i < spriteSet.size() ; i++ )
-            {
-                final int x = i*previewWidth+(i+1)*xOffset;
-                final AffineTransform oldTransform = gfx.getTransform();
-                gfx.setTransform( AffineTransform.getTranslateInstance( x , 0 ) );
-                final Sprite sprite = spriteSet.sprite( i );
-                new GlyphRenderer( sprite ).renderGlyph( previewWidth , previewHeight , false , gfx );
-
-                if ( sprite.equals( currentSelection ) )
-                {
-                    gfx.setColor(Color.RED);
-                    gfx.drawRect(0,0,previewWidth,previewHeight);
-                }
-                else if ( sprite.equals( currentHighlight ) )
+            updateLayout();
+
+            final Rectangle clip = g.getClipBounds() != null ? g.getClipBounds() : new Rectangle( getSize() );
+            final int columns = columns();
+            final int firstRow = Math.max( 0 , ( clip.y - yOffset ) / cellHeight );
+            final int lastRow = ( clip.y + clip.height - yOffset ) / cellHeight;
+            final int firstColumn = Math.max( 0 , ( clip.x - xOffset ) / cellWidth );
+            final int lastColumn = Math.min( columns - 1 , ( clip.x + clip.width - xOffset ) / cellWidth );
+            for ( int row = firstRow ; row <= lastRow ; row++ )
+            {
+                for ( int column = firstColumn ; column <= lastColumn ; column++ )
                 {
-                    gfx.setColor(Color.BLUE);
-                    gfx.drawRect(0,0,previewWidth,previewHeight);
+                    final int i = row * columns + column;
+                    if ( i >= spriteSet.size() ) {
+                        return;
+                    }
+                    paintCell( spriteSet.sprite( i ) , xOffset + column * cellWidth , yOffset + row * cellHeight , g );
                 }
-                gfx.setTransform( oldTransform );
+            }
+        }
 
-                final String txt2 = sprite.getWidth()+"x"+sprite.getHeight();
-                if ( sprite.hasIndex() )
-                {
-                    final String txt1 = "'"+Character.toString( (char) sprite.index() )+"'";
-                    gfx.drawString( txt1 , getCenterX(txt1,x) , previewHeight + 15 );
-                    gfx.drawString( txt2 , getCenterX(txt2,x) , previewHeight + 15 + 15);
-                } else {
-                    gfx.drawString( txt2 , getCenterX(txt2,x) , previewHeight + 15 );
-                }
+        private void paintCell(Sprite sprite,int x,int y,Graphics g)
+        {
+            g.drawImage( thumbnail( sprite ).image , x , y , null );
+
+            g.setColor( Color.WHITE );
+            if ( sprite.equals( currentSelection ) )
+            {
+                g.setColor(Color.RED);
+                g.drawRect(x,y,previewWidth,previewHeight);
+            }
+            else if ( sprite.equals( currentHighlight ) )
+            {
+                g.setColor(Color.BLUE);
+                g.drawRect(x,y,previewWidth,previewHeight);
+            }
+
+            final String txt2 = sprite.getWidth()+"x"+sprite.getHeight();
+            if ( sprite.hasIndex() )
+            {
+                final String txt1 = "'"+Character.toString( (char) sprite.index() )+"'";
+                g.drawString( txt1 , getCenterX(txt1,x) , y + previewHeight + 15 );
+                g.drawString( txt2 , getCenterX(txt2,x) , y + previewHeight + 15 + 15);
+            } else {
+                g.drawString( txt2 , getCenterX(txt2,x) , y + previewHeight + 15 );
             }
-            g.drawImage( image() , xOffset , 0 , null );
         }
 
         private int getCenterX(String s,int spriteX0)
         {
-            final int width = getFontMetrics( getFont() ).stringWidth( s );
+            if ( ! Objects.equals( labelFont , getFont() ) )
+            {
+                labelFont = getFont();
+                labelWidths.clear();
+            }
+            final int width = labelWidths.computeIfAbsent( s , key -> getFontMetrics( labelFont ).stringWidth( key ) );
             return spriteX0+previewWidth/2-(width/2);
         }
     }
 
+    /**
+     * A sprite rendered at preview size.
+     */
+    private static final class Thumbnail
+    {
+        public final int version;
+        public final BufferedImage image;
+
+        public Thumbnail(Sprite sprite,int width,int height)
+        {
+            this.version = sprite.version();
+            // previews are black and white only, one bit per pixel keeps thousands of them cheap
+            this.image = new BufferedImage( width+1 , height+1 , BufferedImage.TYPE_BYTE_BINARY );
+            final Graphics2D gfx = image.createGraphics();
+            try {
+                new GlyphRenderer( sprite ).renderGlyph( width , height , false , gfx );
+            } finally {
+                gfx.dispose();
+            }
+        }
+    }
+
     private final class EditorPanel extends JPanel
     {
         private float scalex,scaley;
@@ -796,6 +1388,11 @@ public class Main extends JFrame
         private boolean renderGrid = true;
 
         private Sprite sprite = new Sprite(8,8);
+        private final GlyphRenderer renderer = new GlyphRenderer( sprite );
+
+        // area changed since the last repaint, edits are collected and repainted once per frame
+        private Rectangle dirty;
+        private final Timer frameTimer = new Timer( FRAME_MILLIS , ev -> repaintDirty() );
 
         final MouseAdapter mouseListener = new MouseAdapter()
         {
@@ -835,6 +1432,7 @@ public class Main extends JFrame
 
             public void mouseReleased(MouseEvent e)
             {
+                journal.endEdit();
                 pressed = false;
                 lastX = lastY = -1;
             }
@@ -844,9 +1442,8 @@ public class Main extends JFrame
                 final int x = (int) Math.floor(e.getX() / scalex);
                 final int y = (int) Math.floor(e.getY() / scaley);
                 if ( x >= 0 && y >= 0 && x < sprite.getWidth() && y < sprite.getHeight() ) {
-                    sprite.togglePixel( x, y );
-                    repaint();
-                    previewPanel.repaint();
+                    journal.togglePixel( sprite , x , y );
+                    cellChanged( x , y );
                 }
             }
         };
@@ -854,10 +1451,38 @@ public class Main extends JFrame
         {
             addMouseListener( mouseListener);
             addMouseMotionListener( mouseListener );
+            frameTimer.setRepeats( false );
+        }
+
+        private void cellChanged(int x,int y)
+        {
+            // cells cover the screen pixels nearest-neighbour scaling maps to them, plus the grid line to the right/bottom
+            final int x0 = Math.round( x * scalex );
+            final int y0 = Math.round( y * scaley );
+            final Rectangle cell = new Rectangle( x0 , y0 , Math.round( (x+1) * scalex ) - x0 + 1 , Math.round( (y+1) * scaley ) - y0 + 1 );
+            if ( dirty == null ) {
+                dirty = cell;
+            } else {
+                dirty.add( cell );
+            }
+            if ( ! frameTimer.isRunning() ) {
+                frameTimer.start();
+            }
+        }
+
+        private void repaintDirty()
+        {
+            if ( dirty != null )
+            {
+                repaint( dirty );
+                previewPanel.repaintCell( sprite );
+                dirty = null;
+            }
         }
 
         public void setSprite(Sprite sprite) {
             this.sprite = sprite;
+            renderer.setSprite( sprite );
             repaint();
         }
 
@@ -874,22 +1499,45 @@ public class Main extends JFrame
             scalex = getWidth()  / (float) sprite.getWidth();
             scaley = getHeight() / (float) sprite.getHeight();
 
-            new GlyphRenderer( sprite ).renderGlyph( getWidth() , getHeight() , renderGrid , g );
+            renderer.renderGlyph( getWidth() , getHeight() , renderGrid , g );
         }
     }
 
+    /**
+     * Renders a sprite scaled to some size.
+     *
+     * The sprite is written into an <code>int[]</code> raster with one pixel per sprite pixel, which is then
+     * scaled with a single nearest-neighbour <code>drawImage()</code>. The grid is a transparent overlay image.
+     * Both images are kept and only re-created when the sprite changed (or the size changed, for the grid), so
+     * repainting costs roughly the same no matter how big the sprite is.
+     */
     public static class GlyphRenderer
     {
-        private float scalex,scaley;
-        private final Sprite sprite;
-        private int roundedScaleX;
-        private int roundedScaleY;
+        private static final int BLACK = 0x000000;
+        private static final int WHITE = 0xffffff;
+
+        private Sprite sprite;
+
+        private BufferedImage image;
+        private int[] pixels;
+        private Sprite imageSprite;
+        private int imageVersion;
+
+        private BufferedImage grid;
+        private int gridWidth;
+        private int gridHeight;
+        private int gridColumns;
+        private int gridRows;
 
         public GlyphRenderer(Sprite g)
         {
             this.sprite = g;
         }
 
+        public void setSprite(Sprite sprite) {
+            this.sprite = sprite;
+        }
+
         public void renderGlyph(int width,int height,Graphics g)
         {
             renderGlyph(width, height, true, g);
@@ -897,48 +1545,93 @@ public class Main extends JFrame
 
         public void renderGlyph(int width,int height,boolean renderGrid, Graphics g)
         {
-            final int xmax = sprite.getWidth();
-            final int ymax = sprite.getHeight();
-
-            scalex = width  / (float) xmax;
-            scaley = height / (float) ymax;
-
-            roundedScaleX = (int) Math.ceil(scalex);
-            roundedScaleY = (int) Math.ceil(scaley);
-
-            for ( int x = 0 ; x < xmax ; x++ )
+            if ( g instanceof Graphics2D )
             {
-                for ( int y = 0 ; y < ymax ; y++ )
-                {
-                    renderCell(x,y,sprite.isSet(x,y),renderGrid,g);
-                }
+                final Graphics2D gfx = (Graphics2D) g;
+                final Object oldHint = gfx.getRenderingHint( RenderingHints.KEY_INTERPOLATION );
+                gfx.setRenderingHint( RenderingHints.KEY_INTERPOLATION , RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+                gfx.drawImage( image() , 0 , 0 , width , height , null );
+                gfx.setRenderingHint( RenderingHints.KEY_INTERPOLATION , oldHint != null ? oldHint : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+            } else {
+                g.drawImage( image() , 0 , 0 , width , height , null );
             }
 
-            if ( ! renderGrid )
+            if ( renderGrid )
+            {
+                g.drawImage( grid( width , height ) , 0 , 0 , null );
+            }
+            else
             {
                 g.setColor( Color.WHITE );
                 g.drawRect( 0 , 0 , width , height );
             }
         }
 
-        private void renderCell(int x,int y,boolean set,boolean renderGrid,Graphics g)
+        private BufferedImage image()
         {
-            final int xMin = (int) Math.round(x*scalex);
-            final int yMin = (int) Math.round(y*scaley);
-            g.setColor(Color.BLACK);
+            final int w = sprite.getWidth();
+            final int h = sprite.getHeight();
+            if ( image != null && imageSprite == sprite && imageVersion == sprite.version() && image.getWidth() == w && image.getHeight() == h ) {
+                return image;
+            }
+            if ( image == null || image.getWidth() != w || image.getHeight() != h )
+            {
+                image = new BufferedImage( w , h , BufferedImage.TYPE_INT_RGB );
+                pixels = ( (DataBufferInt) image.getRaster().getDataBuffer() ).getData();
+            }
+            imageSprite = sprite;
+            imageVersion = sprite.version();
 
-            g.fillRect( xMin,yMin , roundedScaleX , roundedScaleY);
-            g.setColor(Color.WHITE);
-            if ( set )
+            final long[] bits = sprite.bits();
+            final int wordsPerRow = Sprite.wordsPerRow( w );
+            for ( int y = 0 , ptr = 0 ; y < h ; y++ )
             {
-                g.fillRect( xMin,yMin , roundedScaleX , roundedScaleY);
+                final int rowStart = y * wordsPerRow;
+                for ( int x = 0 ; x < w ; )
+                {
+                    long word = bits[ rowStart + ( x >>> 6 ) ];
+                    for ( final int end = Math.min( w , x + 64 ) ; x < end ; x++ , word <<= 1 ) {
+                        pixels[ptr++] = word < 0 ? WHITE : BLACK;
+                    }
+                }
             }
-            else
+            return image;
+        }
+
+        private BufferedImage grid(int width,int height)
+        {
+            final int columns = sprite.getWidth();
+            final int rows = sprite.getHeight();
+            if ( grid != null && gridWidth == width && gridHeight == height && gridColumns == columns && gridRows == rows ) {
+                return grid;
+            }
+            gridWidth = width;
+            gridHeight = height;
+            gridColumns = columns;
+            gridRows = rows;
+            grid = new BufferedImage( width + 1 , height + 1 , BufferedImage.TYPE_INT_ARGB );
+
+            // lines at the first screen pixel of each cell, as chosen by nearest-neighbour scaling
+            final float scalex = width  / (float) columns;
+            final float scaley = height / (float) rows;
+            final Graphics2D gfx = grid.createGraphics();
+            try
             {
-                if ( renderGrid ) {
-                    g.drawRect( xMin,yMin , roundedScaleX , roundedScaleY);
+                gfx.setColor( Color.WHITE );
+                for ( int x = 0 ; x <= columns ; x++ )
+                {
+                    final int lineX = Math.round( x * scalex );
+                    gfx.drawLine( lineX , 0 , lineX , height );
                 }
+                for ( int y = 0 ; y <= rows ; y++ )
+                {
+                    final int lineY = Math.round( y * scaley );
+                    gfx.drawLine( 0 , lineY , width , lineY );
+                }
+            } finally {
+                gfx.dispose();
             }
+            return grid;
         }
     }
 
@@ -949,7 +1642,7 @@ public class Main extends JFrame
         {
             try {
                 final BufferedImage image = ImageIO.read(file);
-                currentSelection().setToImage( image );
+                journal.setToImage( currentSelection() , image );
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -960,6 +1653,12 @@ public class Main extends JFrame
     {
         final Sprite sprite = currentSelection();
         String title = "Sprite "+spriteSet.indexOf( sprite )+" ( "+sprite.getWidth()+"x"+sprite.getHeight()+" )";
+        if ( library != null ) 
+        {
+            // statistics would need to decode all sprites
+            setTitle( title+" | library "+library.getFile().getName()+" , "+spriteSet.size()+" sprites , "+library.getDecodedCount()+" loaded" );
+            return;
+        }
         if (  spriteSet.getSprites().stream().anyMatch( Sprite::hasIndex ) )
         {
             final String size;
@@ -0,0 +1,134 @@
+package de.codesourcery.spritedesigner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a sprite in page layout, as used by the SSD1306 and similar displays.
+ * 
+ * The sprite is split into horizontal pages of <code>bitsPerColumn</code> pixel rows, 
+ * each page is written as one byte per pixel column with the top-most pixel in bit 0.
+ * The output is always {@link Sprite#getSizeInBytes()} long, unused trailing bytes are zero. 
+ *
+ * 8 bits per column (the hardware page height) is encoded straight from the packed
+ * pixel storage by transposing 8x8 blocks, other values fall back to the original
+ * bit-by-bit algorithm.
+ */
+public final class PageEncoder implements SpriteEncoder
+{
+    private final int bitsPerColumn;
+
+    public PageEncoder(int bitsPerColumn) 
+    {
+        if ( bitsPerColumn < 1 ) {
+            throw new IllegalArgumentException("Need at least 1 output bit per column");
+        }
+        this.bitsPerColumn = bitsPerColumn;
+    }
+
+    public int getBitsPerColumn() {
+        return bitsPerColumn;
+    }
+
+    @Override
+    public int sizeInBytes(Sprite sprite) {
+        return sprite.getSizeInBytes();
+    }
+
+    @Override
+    public void encode(Sprite sprite, ByteBuffer buffer, int offset)
+    {
+        if ( bitsPerColumn == 8 ) {
+            encodePages( sprite , buffer , offset );
+        } else {
+            encodeGeneric( sprite , buffer , offset );
+        }
+    }
+
+    private void encodePages(Sprite sprite, ByteBuffer buffer, int offset)
+    {
+        final long[] bits = sprite.bits();
+        final int width = sprite.getWidth();
+        final int height = sprite.getHeight();
+        final int wordsPerRow = Sprite.wordsPerRow( width );
+        final int bytesPerRow = (width+7) / 8;
+
+        int ptr = offset;
+        for ( int y0 = 0 ; y0 < height ; y0 += 8 ) 
+        {
+            final int rows = Math.min( 8 , height - y0 );
+            for ( int bx = 0 ; bx < bytesPerRow ; bx++ ) 
+            {
+                long block = 0;
+                for ( int i = 0 ; i < rows ; i++ ) {
+                    block |= (long) Bits.getByte( bits , (y0+i) * wordsPerRow , bx ) << ( 56 - (i << 3) );
+                }
+                // byte j now holds column (8*bx+j) with the top-most pixel in bit 0
+                block = Bits.reverseBitsInBytes( Bits.transpose8( block ) );
+                for ( int j = 0 , columns = Math.min( 8 , width - bx * 8 ) ; j < columns ; j++ ) {
+                    buffer.put( ptr++ , (byte) ( block >>> ( 56 - (j << 3) ) ) );
+                }
+            }
+        }
+        for ( final int end = offset + sizeInBytes( sprite ) ; ptr < end ; ptr++ ) {
+            buffer.put( ptr , (byte) 0 );
+        }
+    }
+
+    private void encodeGeneric(Sprite sprite, ByteBuffer buffer, int offset)
+    {
+        final int size = sizeInBytes( sprite );
+        for ( int i = 0 ; i < size ; i++ ) {
+            buffer.put( offset + i , (byte) 0 );
+        }
+
+        int writePtr = 0;
+        for ( int y=0 ; y < sprite.getHeight() ; y+= bitsPerColumn ) 
+        {
+            for ( int x = 0 ; x < sprite.getWidth() ; x++ ) 
+            {
+                int bitCounter = 0;
+                int currentByte = 0;
+                for ( ; bitCounter < bitsPerColumn; bitCounter++ ) 
+                {
+                    currentByte >>>= 1;
+                    if ( (y+bitCounter) < sprite.getHeight() && sprite.isSet( x , y+bitCounter ) ) 
+                    {
+                        currentByte |= 128;
+                    }
+                    if ( bitCounter != 0 && (bitCounter%8) == 0 ) 
+                    {
+                        put( buffer , offset , size , writePtr++ , currentByte );
+                        currentByte = 0;
+                    }
+                }
+                if ( bitCounter != 0 && (bitCounter%8) == 0 ) 
+                {
+                    put( buffer , offset , size , writePtr++ , currentByte );
+                }
+            }
+        }
+    }
+
+    private static void put(ByteBuffer buffer,int offset,int size,int ptr,int value) 
+    {
+        if ( ptr >= size ) {
+            throw new ArrayIndexOutOfBoundsException("Index "+ptr+" out of bounds for length "+size);
+        }
+        buffer.put( offset + ptr , (byte) value );
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PageEncoder && ( (PageEncoder) obj).bitsPerColumn == bitsPerColumn;
+    }
+
+    @Override
+    public int hashCode() {
+        return bitsPerColumn;
+    }
+
+    @Override
+    public String toString() {
+        return "pages ("+bitsPerColumn+" bits per column)";
+    }
+}
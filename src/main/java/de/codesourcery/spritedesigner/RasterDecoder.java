@@ -0,0 +1,507 @@
+package de.codesourcery.spritedesigner;
+
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Turns rectangular areas of an image into packed sprite bits by reading the image's {@link DataBuffer} directly.
+ *
+ * A pixel is set if drawing the image onto a black {@link BufferedImage#TYPE_BYTE_BINARY} image would turn it
+ * white, which is how {@link Sprite#setToImage(BufferedImage)} always worked. Images that already are of type
+ * <code>TYPE_BYTE_BINARY</code> are taken as they are, any pixel with a non-zero value is set.
+ *
+ * Packed RGB, interleaved 8-bit RGB(A), gray and indexed images are decoded directly, images in any other
+ * format are converted once when the decoder is created.
+ *
+ * {@link #luminance(int, int, int, int, byte[], byte[], int)} reads gray values instead, this is what
+ * {@link ImageConverter} works on.
+ *
+ * Instances are not modified after construction and can be used by several threads at once.
+ */
+final class RasterDecoder
+{
+    private enum Format
+    {
+        /** 1,2 or 4 bits per pixel, looked up in {@link RasterDecoder#lut}. */
+        PACKED,
+        /** One byte per pixel, looked up in {@link RasterDecoder#lut}. */
+        BYTES,
+        /** One int per pixel, 8 bits per channel. */
+        INTS,
+        /** 3 or 4 bytes per pixel. */
+        INTERLEAVED
+    }
+
+    // MUL8[ alpha << 8 | value ] is value blended onto black, rounded like Java2D does
+    private static final byte[] MUL8 = new byte[ 256 * 256 ];
+
+    static
+    {
+        for ( int alpha = 0 ; alpha < 256 ; alpha++ )
+        {
+            for ( int value = 0 ; value < 256 ; value++ ) {
+                MUL8[ alpha << 8 | value ] = (byte) ( ( alpha * value + 127 ) / 255 );
+            }
+        }
+    }
+
+    private final int width;
+    private final int height;
+
+    private Format format;
+    private byte[] bytes;
+    private int[] ints;
+    // data element of image pixel (0,0)
+    private int origin;
+    private int scanlineStride;
+    // PACKED: bits per pixel, otherwise data elements per pixel
+    private int pixelStride;
+    // PACKED: bit position of image column 0 within a row
+    private int bitOffset;
+    // PACKED, BYTES: 1 if a sample value is a set pixel, 0 otherwise
+    private byte[] lut;
+    // PACKED, BYTES: ARGB color of each sample value
+    private int[] palette;
+    // INTS: bit shifts, INTERLEAVED: band offsets. Alpha is -1 for opaque images.
+    private int red;
+    private int green;
+    private int blue;
+    private int alpha;
+
+    public RasterDecoder(BufferedImage image) {
+        this( image , BufferedImage.TYPE_BYTE_BINARY );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param image
+     * @param fallbackType image type to convert to if the image's format can't be read directly.
+     * <code>TYPE_BYTE_BINARY</code> is enough for {@link #decode(int, int, int, int)}, {@link #luminance(int, int, int, int, byte[], byte[], int)}
+     * needs a type that keeps colors.
+     */
+    public RasterDecoder(BufferedImage image,int fallbackType)
+    {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        if ( ! init( image ) )
+        {
+            final BufferedImage converted = new BufferedImage( width , height , fallbackType );
+            final Graphics2D gfx = converted.createGraphics();
+            gfx.drawImage( image , 0 , 0 , null );
+            gfx.dispose();
+            init( converted );
+        }
+    }
+
+    private boolean init(BufferedImage image)
+    {
+        final WritableRaster raster = image.getRaster();
+        final SampleModel sm = raster.getSampleModel();
+        final DataBuffer buffer = raster.getDataBuffer();
+        final ColorModel cm = image.getColorModel();
+        // position of image pixel (0,0) in sample model coordinates, non-zero for sub-images
+        final int x0 = -raster.getSampleModelTranslateX();
+        final int y0 = -raster.getSampleModelTranslateY();
+
+        if ( sm instanceof MultiPixelPackedSampleModel && buffer instanceof DataBufferByte &&
+            ( image.getType() == BufferedImage.TYPE_BYTE_BINARY || cm instanceof IndexColorModel ) )
+        {
+            final MultiPixelPackedSampleModel packed = (MultiPixelPackedSampleModel) sm;
+            format = Format.PACKED;
+            bytes = ( (DataBufferByte) buffer).getData();
+            scanlineStride = packed.getScanlineStride();
+            pixelStride = packed.getPixelBitStride();
+            origin = buffer.getOffset() + y0 * scanlineStride;
+            bitOffset = packed.getDataBitOffset() + x0 * pixelStride;
+            lut = new byte[ 1 << pixelStride ];
+            for ( int i = 1 ; i < lut.length ; i++ ) {
+                lut[i] = (byte) ( image.getType() == BufferedImage.TYPE_BYTE_BINARY ? 1 : bit( (IndexColorModel) cm , i ) );
+            }
+            palette = palette( (IndexColorModel) cm , lut.length );
+            return true;
+        }
+
+        if ( sm instanceof ComponentSampleModel && buffer instanceof DataBufferByte )
+        {
+            final ComponentSampleModel component = (ComponentSampleModel) sm;
+            if ( Arrays.stream( component.getBankIndices() ).anyMatch( bank -> bank != 0 ) ) {
+                return false;
+            }
+            bytes = ( (DataBufferByte) buffer).getData();
+            scanlineStride = component.getScanlineStride();
+            pixelStride = component.getPixelStride();
+            origin = buffer.getOffset() + y0 * scanlineStride + x0 * pixelStride;
+            final int[] bandOffsets = component.getBandOffsets();
+
+            if ( sm.getNumBands() == 1 && cm instanceof IndexColorModel )
+            {
+                format = Format.BYTES;
+                origin += bandOffsets[0];
+                lut = new byte[ 256 ];
+                for ( int i = 0 ; i < lut.length ; i++ ) {
+                    lut[i] = (byte) bit( (IndexColorModel) cm , i );
+                }
+                palette = palette( (IndexColorModel) cm , lut.length );
+                return true;
+            }
+            if ( ! ( cm instanceof ComponentColorModel ) || cm.isAlphaPremultiplied() ) {
+                return false;
+            }
+            if ( sm.getNumBands() == 1 && ! cm.hasAlpha() && cm.getColorSpace() == ColorSpace.getInstance( ColorSpace.CS_GRAY ) )
+            {
+                format = Format.BYTES;
+                origin += bandOffsets[0];
+                lut = new byte[ 256 ];
+                Arrays.fill( lut , 128 , 256 , (byte) 1 );
+                // samples are taken as they are, BufferedImage#getRGB() would treat them as linear and make them lighter
+                palette = new int[ 256 ];
+                for ( int i = 0 ; i < palette.length ; i++ ) {
+                    palette[i] = 0xff000000 | i * 0x010101;
+                }
+                return true;
+            }
+            if ( cm.getColorSpace().isCS_sRGB() && sm.getNumBands() == ( cm.hasAlpha() ? 4 : 3 ) )
+            {
+                format = Format.INTERLEAVED;
+                red = bandOffsets[0];
+                green = bandOffsets[1];
+                blue = bandOffsets[2];
+                alpha = cm.hasAlpha() ? bandOffsets[3] : -1;
+                return true;
+            }
+            return false;
+        }
+
+        if ( sm instanceof SinglePixelPackedSampleModel && buffer instanceof DataBufferInt &&
+             cm instanceof DirectColorModel && ! cm.isAlphaPremultiplied() && cm.getColorSpace().isCS_sRGB() )
+        {
+            final DirectColorModel direct = (DirectColorModel) cm;
+            red = shift( direct.getRedMask() );
+            green = shift( direct.getGreenMask() );
+            blue = shift( direct.getBlueMask() );
+            alpha = direct.getAlphaMask() == 0 ? -1 : shift( direct.getAlphaMask() );
+            if ( red < 0 || green < 0 || blue < 0 || ( alpha < 0 && direct.getAlphaMask() != 0 ) ) {
+                return false;
+            }
+            format = Format.INTS;
+            ints = ( (DataBufferInt) buffer).getData();
+            scanlineStride = ( (SinglePixelPackedSampleModel) sm).getScanlineStride();
+            pixelStride = 1;
+            origin = buffer.getOffset() + y0 * scanlineStride + x0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the position of an 8-bit channel mask, -1 if the mask has a different size.
+     */
+    private static int shift(int mask)
+    {
+        final int shift = Integer.numberOfTrailingZeros( mask );
+        return mask != 0 && mask >>> shift == 0xff ? shift : -1;
+    }
+
+    private static int[] palette(IndexColorModel cm,int size)
+    {
+        final int[] palette = new int[ size ];
+        for ( int i = 0 ; i < size && i < cm.getMapSize() ; i++ ) {
+            palette[i] = cm.getRGB( i );
+        }
+        return palette;
+    }
+
+    private static int bit(IndexColorModel cm,int index)
+    {
+        if ( index >= cm.getMapSize() ) {
+            return 0;
+        }
+        final int argb = cm.getRGB( index );
+        return bit( argb >>> 24 , ( argb >>> 16 ) & 0xff , ( argb >>> 8 ) & 0xff , argb & 0xff );
+    }
+
+    /**
+     * Returns 1 if Java2D turns a color white when drawing onto a black and white image, 0 otherwise.
+     *
+     * The color is blended onto black first. Java2D then picks the palette entry from an inverse color table
+     * that only uses the upper 5 bits of each channel. Written without branches, image data is rarely predictable.
+     */
+    static int bit(int alpha,int red,int green,int blue)
+    {
+        final int a = alpha << 8;
+        final int sum = ( ( MUL8[ a | red ] & 0xff ) >>> 3 ) + ( ( MUL8[ a | green ] & 0xff ) >>> 3 ) + ( ( MUL8[ a | blue ] & 0xff ) >>> 3 );
+        return ( 46 - sum ) >>> 31;
+    }
+
+    /**
+     * Returns the luminance of a color, ITU-R BT.601 weights.
+     */
+    static int luminance(int red,int green,int blue) {
+        return ( 77 * red + 150 * green + 29 * blue + 128 ) >>> 8;
+    }
+
+    private void checkArea(int x,int y,int w,int h)
+    {
+        if ( x < 0 || y < 0 || w < 1 || h < 1 || x + w > width || y + h > height ) {
+            throw new IllegalArgumentException("Area "+x+","+y+" "+w+"x"+h+" is not within the image ("+width+"x"+height+")");
+        }
+    }
+
+    /**
+     * Reads gray values of a rectangular area of the image.
+     *
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @param table maps <code>alpha &lt;&lt; 8 | luminance</code> of a pixel to the gray value to store
+     * @param dst gray values, one row after the other
+     * @param offset position of the area's top-left pixel in <code>dst</code>
+     */
+    public void luminance(int x,int y,int w,int h,byte[] table,byte[] dst,int offset)
+    {
+        checkArea( x , y , w , h );
+        switch( format )
+        {
+            case PACKED:      luminancePacked( x , y , w , h , grayLut( table ) , dst , offset ); break;
+            case BYTES:       luminanceBytes( x , y , w , h , grayLut( table ) , dst , offset ); break;
+            case INTS:        luminanceInts( x , y , w , h , table , dst , offset ); break;
+            case INTERLEAVED: luminanceInterleaved( x , y , w , h , table , dst , offset ); break;
+            default:
+                throw new IllegalStateException("Unhandled format: "+format);
+        }
+    }
+
+    private byte[] grayLut(byte[] table)
+    {
+        final byte[] result = new byte[ palette.length ];
+        for ( int i = 0 ; i < palette.length ; i++ )
+        {
+            final int argb = palette[i];
+            result[i] = table[ ( argb >>> 24 ) << 8 | luminance( ( argb >>> 16 ) & 0xff , ( argb >>> 8 ) & 0xff , argb & 0xff ) ];
+        }
+        return result;
+    }
+
+    /**
+     * Decodes a rectangular area of the image.
+     *
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @return packed bits as used by {@link Sprite}, one row after the other
+     */
+    public long[] decode(int x,int y,int w,int h)
+    {
+        checkArea( x , y , w , h );
+        final long[] bits = new long[ Sprite.wordsPerRow( w ) * h ];
+        switch( format )
+        {
+            case PACKED:      decodePacked( x , y , w , h , bits ); break;
+            case BYTES:       decodeBytes( x , y , w , h , bits ); break;
+            case INTS:        decodeInts( x , y , w , h , bits ); break;
+            case INTERLEAVED: decodeInterleaved( x , y , w , h , bits ); break;
+            default:
+                throw new IllegalStateException("Unhandled format: "+format);
+        }
+        return bits;
+    }
+
+    /*
+     * The decodeXXX() methods shift pixels in from the right, up to 64 pixels per word.
+     * Fields are copied to locals so that the JIT can keep them in registers.
+     */
+
+    private void decodePacked(int x,int y,int w,int h,long[] bits)
+    {
+        final byte[] bytes = this.bytes;
+        final byte[] lut = this.lut;
+        final int bitsPerPixel = pixelStride;
+        final int shift = 8 - bitsPerPixel;
+        final int mask = ( 1 << bitsPerPixel ) - 1;
+        int dst = 0;
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            final int rowStart = origin + ( y + row ) * scanlineStride;
+            int bit = bitOffset + x * bitsPerPixel;
+            for ( int start = 0 ; start < w ; start += 64 )
+            {
+                final int count = Math.min( 64 , w - start );
+                long word = 0;
+                for ( int i = 0 ; i < count ; i++ , bit += bitsPerPixel ) {
+                    word = ( word << 1 ) | lut[ ( bytes[ rowStart + ( bit >>> 3 ) ] >>> ( shift - ( bit & 7 ) ) ) & mask ];
+                }
+                bits[dst++] = word << ( 64 - count );
+            }
+        }
+    }
+
+    private void decodeBytes(int x,int y,int w,int h,long[] bits)
+    {
+        final byte[] bytes = this.bytes;
+        final byte[] lut = this.lut;
+        final int stride = pixelStride;
+        int dst = 0;
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            int ptr = origin + ( y + row ) * scanlineStride + x * stride;
+            for ( int start = 0 ; start < w ; start += 64 )
+            {
+                final int count = Math.min( 64 , w - start );
+                long word = 0;
+                for ( int i = 0 ; i < count ; i++ , ptr += stride ) {
+                    word = ( word << 1 ) | lut[ bytes[ptr] & 0xff ];
+                }
+                bits[dst++] = word << ( 64 - count );
+            }
+        }
+    }
+
+    private void decodeInts(int x,int y,int w,int h,long[] bits)
+    {
+        final int[] ints = this.ints;
+        final int red = this.red;
+        final int green = this.green;
+        final int blue = this.blue;
+        // opaque images read the blue channel as alpha and force it to 0xff
+        final int opaque = alpha < 0 ? 0xff : 0;
+        final int alpha = this.alpha < 0 ? blue : this.alpha;
+        int dst = 0;
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            int ptr = origin + ( y + row ) * scanlineStride + x;
+            for ( int start = 0 ; start < w ; start += 64 )
+            {
+                final int count = Math.min( 64 , w - start );
+                long word = 0;
+                for ( int i = 0 ; i < count ; i++ , ptr++ )
+                {
+                    final int p = ints[ptr];
+                    word = ( word << 1 ) | bit( ( ( p >>> alpha ) | opaque ) & 0xff , ( p >>> red ) & 0xff , ( p >>> green ) & 0xff , ( p >>> blue ) & 0xff );
+                }
+                bits[dst++] = word << ( 64 - count );
+            }
+        }
+    }
+
+    private void decodeInterleaved(int x,int y,int w,int h,long[] bits)
+    {
+        final byte[] bytes = this.bytes;
+        final int stride = pixelStride;
+        final int red = this.red;
+        final int green = this.green;
+        final int blue = this.blue;
+        // opaque images read the blue channel as alpha and force it to 0xff
+        final int opaque = alpha < 0 ? 0xff : 0;
+        final int alpha = this.alpha < 0 ? blue : this.alpha;
+        int dst = 0;
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            int ptr = origin + ( y + row ) * scanlineStride + x * stride;
+            for ( int start = 0 ; start < w ; start += 64 )
+            {
+                final int count = Math.min( 64 , w - start );
+                long word = 0;
+                for ( int i = 0 ; i < count ; i++ , ptr += stride )
+                {
+                    final int a = ( bytes[ ptr + alpha ] | opaque ) & 0xff;
+                    word = ( word << 1 ) | bit( a , bytes[ ptr + red ] & 0xff , bytes[ ptr + green ] & 0xff , bytes[ ptr + blue ] & 0xff );
+                }
+                bits[dst++] = word << ( 64 - count );
+            }
+        }
+    }
+
+    /*
+     * The luminanceXXX() methods work like the decodeXXX() methods but write one byte per pixel.
+     */
+
+    private void luminancePacked(int x,int y,int w,int h,byte[] lut,byte[] dst,int offset)
+    {
+        final byte[] bytes = this.bytes;
+        final int bitsPerPixel = pixelStride;
+        final int shift = 8 - bitsPerPixel;
+        final int mask = ( 1 << bitsPerPixel ) - 1;
+        int out = offset;
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            final int rowStart = origin + ( y + row ) * scanlineStride;
+            int bit = bitOffset + x * bitsPerPixel;
+            for ( int i = 0 ; i < w ; i++ , bit += bitsPerPixel ) {
+                dst[out++] = lut[ ( bytes[ rowStart + ( bit >>> 3 ) ] >>> ( shift - ( bit & 7 ) ) ) & mask ];
+            }
+        }
+    }
+
+    private void luminanceBytes(int x,int y,int w,int h,byte[] lut,byte[] dst,int offset)
+    {
+        final byte[] bytes = this.bytes;
+        final int stride = pixelStride;
+        int out = offset;
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            int ptr = origin + ( y + row ) * scanlineStride + x * stride;
+            for ( int i = 0 ; i < w ; i++ , ptr += stride ) {
+                dst[out++] = lut[ bytes[ptr] & 0xff ];
+            }
+        }
+    }
+
+    private void luminanceInts(int x,int y,int w,int h,byte[] table,byte[] dst,int offset)
+    {
+        final int[] ints = this.ints;
+        final int red = this.red;
+        final int green = this.green;
+        final int blue = this.blue;
+        final int opaque = alpha < 0 ? 0xff : 0;
+        final int alpha = this.alpha < 0 ? blue : this.alpha;
+        int out = offset;
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            int ptr = origin + ( y + row ) * scanlineStride + x;
+            for ( int i = 0 ; i < w ; i++ , ptr++ )
+            {
+                final int p = ints[ptr];
+                final int a = ( ( p >>> alpha ) | opaque ) & 0xff;
+                dst[out++] = table[ a << 8 | luminance( ( p >>> red ) & 0xff , ( p >>> green ) & 0xff , ( p >>> blue ) & 0xff ) ];
+            }
+        }
+    }
+
+    private void luminanceInterleaved(int x,int y,int w,int h,byte[] table,byte[] dst,int offset)
+    {
+        final byte[] bytes = this.bytes;
+        final int stride = pixelStride;
+        final int red = this.red;
+        final int green = this.green;
+        final int blue = this.blue;
+        final int opaque = alpha < 0 ? 0xff : 0;
+        final int alpha = this.alpha < 0 ? blue : this.alpha;
+        int out = offset;
+        for ( int row = 0 ; row < h ; row++ )
+        {
+            int ptr = origin + ( y + row ) * scanlineStride + x * stride;
+            for ( int i = 0 ; i < w ; i++ , ptr += stride )
+            {
+                final int a = ( bytes[ ptr + alpha ] | opaque ) & 0xff;
+                dst[out++] = table[ a << 8 | luminance( bytes[ ptr + red ] & 0xff , bytes[ ptr + green ] & 0xff , bytes[ ptr + blue ] & 0xff ) ];
+            }
+        }
+    }
+}
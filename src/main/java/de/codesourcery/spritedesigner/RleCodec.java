@@ -0,0 +1,63 @@
+package de.codesourcery.spritedesigner;
+
+/**
+ * Run-length encoding.
+ *
+ * <pre>
+ * 0ccccccc                  c+1 literal bytes follow
+ * 1ccccccc vvvvvvvv         repeat byte v c+2 times
+ * </pre>
+ */
+final class RleCodec extends TokenCodec
+{
+    public static final RleCodec INSTANCE = new RleCodec();
+
+    private static final int MAX_RUN = 0x7f + 2;
+
+    private RleCodec() {
+        super( "rle" , "rle_decompress.asm" , 7 , 12 , 8 );
+    }
+
+    @Override
+    public int compress(byte[] src,int srcOffset,int len,byte[] dst,int dstOffset)
+    {
+        final int end = srcOffset + len;
+        int out = dstOffset;
+        int literalStart = srcOffset;
+        for ( int ptr = srcOffset ; ptr < end ; )
+        {
+            final byte value = src[ptr];
+            int run = 1;
+            while ( run < MAX_RUN && ptr + run < end && src[ptr+run] == value ) {
+                run++;
+            }
+            // runs of two bytes take up as much space as a literal but would split up literal tokens
+            if ( run >= 3 )
+            {
+                out = writeLiterals( src , literalStart , ptr , dst , out );
+                dst[out++] = (byte) ( 0x80 | ( run - 2 ) );
+                dst[out++] = value;
+                ptr += run;
+                literalStart = ptr;
+            } else {
+                ptr++;
+            }
+        }
+        return writeLiterals( src , literalStart , end , dst , out ) - dstOffset;
+    }
+
+    @Override
+    protected int repeatLength(int control) {
+        return ( control & 0x7f ) + 2;
+    }
+
+    @Override
+    protected int repeatTokenSize() {
+        return 2;
+    }
+
+    @Override
+    protected int repeatDistance(byte[] src,int in) {
+        return 0;
+    }
+}
@@ -0,0 +1,127 @@
+package de.codesourcery.spritedesigner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import de.codesourcery.spritedesigner.Sprite.Flip;
+
+/**
+ * Encodes a sprite row by row, 8 pixels per byte with the left-most pixel in bit 7.
+ * 
+ * There is one specialized instance per {@link Flip} value that copies whole bytes
+ * straight out of the sprite's packed pixel storage, horizontally flipped output
+ * is produced using a bit-reversal lookup table. 
+ */
+public abstract class RowEncoder implements SpriteEncoder
+{
+    public static final RowEncoder NONE = new RowEncoder(Flip.NONE,false) 
+    {
+        @Override
+        protected void encodeRow(long[] bits, int rowStart, int bytesPerRow, ByteBuffer out, int offset)
+        {
+            int ptr = offset;
+            int remaining = bytesPerRow;
+            final boolean bigEndian = out.order() == ByteOrder.BIG_ENDIAN;
+            for ( int word = rowStart ; remaining > 0 ; word++ ) 
+            {
+                final long value = bits[word];
+                if ( bigEndian && remaining >= 8 ) 
+                {
+                    out.putLong( ptr , value );
+                    ptr += 8;
+                    remaining -= 8;
+                    continue;
+                }
+                for ( int shift = 56 ; shift >= 0 && remaining > 0 ; shift -= 8 , remaining-- ) {
+                    out.put( ptr++ , (byte) ( value >>> shift ) );
+                }
+            }
+        }
+    };
+
+    public static final RowEncoder FLIP_X = new RowEncoder(Flip.FLIP_X,false) 
+    {
+        @Override
+        protected void encodeRow(long[] bits, int rowStart, int bytesPerRow, ByteBuffer out, int offset) {
+            encodeMirrored( bits , rowStart , bytesPerRow , out , offset );
+        }
+    };
+
+    public static final RowEncoder FLIP_Y = new RowEncoder(Flip.FLIP_Y,true) 
+    {
+        @Override
+        protected void encodeRow(long[] bits, int rowStart, int bytesPerRow, ByteBuffer out, int offset) {
+            NONE.encodeRow( bits , rowStart , bytesPerRow , out , offset );
+        }
+    };
+
+    public static final RowEncoder FLIP_XY = new RowEncoder(Flip.FLIP_XY,true) 
+    {
+        @Override
+        protected void encodeRow(long[] bits, int rowStart, int bytesPerRow, ByteBuffer out, int offset) {
+            encodeMirrored( bits , rowStart , bytesPerRow , out , offset );
+        }
+    };
+
+    private final Flip flip;
+    private final boolean reverseRows;
+
+    private RowEncoder(Flip flip,boolean reverseRows) 
+    {
+        this.flip = flip;
+        this.reverseRows = reverseRows;
+    }
+
+    public static RowEncoder of(Flip flip) 
+    {
+        switch( flip ) 
+        {
+            case NONE:    return NONE;
+            case FLIP_X:  return FLIP_X;
+            case FLIP_Y:  return FLIP_Y;
+            case FLIP_XY: return FLIP_XY;
+            default:
+                throw new IllegalArgumentException("Unhandled flip: "+flip);
+        }
+    }
+
+    public Flip getFlip() {
+        return flip;
+    }
+
+    @Override
+    public int sizeInBytes(Sprite sprite) {
+        return ( sprite.getWidth() / 8 ) * sprite.getHeight();
+    }
+
+    @Override
+    public void encode(Sprite sprite,ByteBuffer out,int offset) 
+    {
+        if ( ( sprite.getWidth() % 8 ) != 0 ) {
+            throw new IllegalStateException("Glyph width needs to be a multiple of 8");
+        }
+        final long[] bits = sprite.bits();
+        final int wordsPerRow = Sprite.wordsPerRow( sprite.getWidth() );
+        final int bytesPerRow = sprite.getWidth() / 8;
+        final int height = sprite.getHeight();
+        for ( int i = 0 ; i < height ; i++ ) 
+        {
+            final int y = reverseRows ? height - 1 - i : i;
+            encodeRow( bits , y * wordsPerRow , bytesPerRow , out , offset + i * bytesPerRow );
+        }
+    }
+
+    protected abstract void encodeRow(long[] bits,int rowStart,int bytesPerRow,ByteBuffer out,int offset);
+
+    protected static void encodeMirrored(long[] bits, int rowStart, int bytesPerRow, ByteBuffer out, int offset) 
+    {
+        for ( int i = 0 , src = bytesPerRow - 1 ; i < bytesPerRow ; i++ , src-- ) {
+            out.put( offset+i , Bits.REVERSED[ Bits.getByte( bits , rowStart , src ) ] );
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "rows "+flip;
+    }
+}
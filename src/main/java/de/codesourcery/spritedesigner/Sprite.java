@@ -1,12 +1,14 @@
 package de.codesourcery.spritedesigner;
 
 import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class Sprite implements Serializable
 {
@@ -54,25 +56,112 @@ public class Sprite implements Serializable
         }
     }
 
+    /*
+     * Pixels are stored row by row, 64 pixels per long with the left-most pixel 
+     * of each word in the most significant bit. Every row starts at a new word and 
+     * the unused (padding) bits in the last word of a row are always zero. 
+     */
+    private transient long[] bits;
+    private transient int wordsPerRow;
+    
+    // only populated while (de-)serializing so that the stream format stays compatible with older versions 
     private boolean[][] data;
+    
     public final Dimension size = new Dimension();
     private boolean indexSet;
     private int index;
+    
+    // incremented on every change to pixels, size or index 
+    private transient int version;
 
     public Sprite(int width,int height) 
     {
         size.setSize( width , height);
-        data = newArray(width,height);
+        wordsPerRow = wordsPerRow( width );
+        bits = new long[ wordsPerRow * height ];
     }
     
-    private static boolean[][] newArray(int width,int height) 
+    static int wordsPerRow(int width) {
+        return (width+63) >>> 6;
+    }
+    
+    /**
+     * Returns a mask with all bits set that belong to the right-most word of a row that 
+     * actually hold pixels.
+     */
+    static long lastWordMask(int width) {
+        return -1L << ( -width & 63 );
+    }
+    
+    long[] bits() {
+        return bits;
+    }
+    
+    /**
+     * Returns a counter that changes whenever the pixels, size or index of this sprite change.
+     * 
+     * The counter starts at zero for every new (or de-serialized) instance 
+     * and is not persisted.
+     */
+    public int version() {
+        return version;
+    }
+    
+    void setBits(long[] bits,int width,int height) 
+    {
+        version++;
+        this.bits = bits;
+        this.wordsPerRow = wordsPerRow( width );
+        this.size.setSize( width , height );
+    }
+    
+    private static void setBit(long[] bits,int wordsPerRow,int x,int y) {
+        bits[ y*wordsPerRow + (x >>> 6) ] |= Long.MIN_VALUE >>> x;
+    }
+    
+    /**
+     * Returns 64 consecutive pixels of a row, starting at a given bit offset.
+     * 
+     * Pixels beyond the end of the row are returned as zeros.
+     */
+    private static long get64(long[] bits,int rowStart,int wordsPerRow,int bitOffset) 
     {
-        boolean[][] data = new boolean[width][];
-        for ( int i = 0 ; i < width ; i++ ) 
+        if ( bitOffset < 0 ) {
+            return bitOffset <= -64 ? 0 : get64( bits , rowStart , wordsPerRow , 0 ) >>> -bitOffset;
+        }
+        final int word = bitOffset >>> 6;
+        final int shift = bitOffset & 63;
+        if ( word >= wordsPerRow ) {
+            return 0;
+        }
+        final long hi = bits[ rowStart + word ] << shift;
+        if ( shift == 0 || word+1 >= wordsPerRow ) {
+            return hi;
+        }
+        return hi | ( bits[ rowStart + word + 1 ] >>> (64-shift) );
+    }
+    
+    /**
+     * Copies a rectangular area of this sprite into a newly allocated pixel array.
+     * 
+     * Pixels outside of this sprite's bounds are copied as zeros.
+     */
+    private long[] copyRect(int srcX,int srcY,int width,int height) 
+    {
+        final int dstWordsPerRow = wordsPerRow( width );
+        final long[] dst = new long[ dstWordsPerRow * height ];
+        final long lastMask = lastWordMask( width );
+        final int h = Math.min( height , getHeight() - srcY );
+        for ( int y = Math.max( 0 , -srcY ) ; y < h ; y++ ) 
         {
-            data[i] = new boolean[height];
+            final int srcRow = (srcY+y)*wordsPerRow;
+            final int dstRow = y*dstWordsPerRow;
+            for ( int i = 0 ; i < dstWordsPerRow ; i++ ) {
+                dst[dstRow+i] = get64( bits , srcRow , wordsPerRow , srcX + i*64 );
+            }
+            dst[dstRow+dstWordsPerRow-1] &= lastMask;
         }
-        return data;
+        return dst;
     }
     
     public int index() {
@@ -83,115 +172,19 @@ public class Sprite implements Serializable
      * Rotate counter clock-wise by 90 degrees,
      */
     public void rotateCCW() {
-
-        final boolean[][] copy = newArray( getHeight(), getWidth() );
-        final Iterator<Point> it1 = regularIterator();
-        final Iterator<Point> it2 = ccwIterator();
-        while ( it1.hasNext() && it2.hasNext() ) {
-            final Point p1 = it1.next();
-            final Point p2 = it2.next();
-            copy[p2.x][p2.y] = data[p1.x][p1.y];
-        }
-        this.data = copy;
+        new SpriteRotator().rotateCCW( this );
     }
 
+    /**
+     * Rotate clock-wise by 90 degrees,
+     */
     public void rotateCW() {
-
-        final boolean[][] copy = newArray( getHeight(), getWidth() );
-        final Iterator<Point> it1 = regularIterator();
-        final Iterator<Point> it2 = cwIterator();
-        while ( it1.hasNext() && it2.hasNext() ) {
-            final Point p1 = it1.next();
-            final Point p2 = it2.next();
-            copy[p2.x][p2.y] = data[p1.x][p1.y];
-        }
-        this.data = copy;
-    }
-
-    private Iterator<Point> regularIterator() {
-        return new Iterator<>()
-        {
-            private int x,y;
-
-            @Override
-            public boolean hasNext()
-            {
-                return x < getWidth() && y < getHeight();
-            }
-
-            @Override
-            public Point next()
-            {
-                final Point p = new Point( x, y );
-                x++;
-                if ( x >= getWidth() )
-                {
-                    y++;
-                    x = 0;
-                }
-                return p;
-            }
-        };
-    }
-
-    private Iterator<Point> cwIterator() {
-        return new Iterator<>()
-        {
-            private int x=getWidth()-1,y;
-
-            @Override
-            public boolean hasNext()
-            {
-                return x >= 0 && y >= 0;
-            }
-
-            @Override
-            public Point next()
-            {
-                final Point p = new Point( x, y );
-                y++;
-                if ( y >= getHeight() )
-                {
-                    y=0;
-                    x--;
-                }
-                return p;
-            }
-        };
-    }
-
-    private Iterator<Point> ccwIterator() {
-        return new Iterator<>()
-        {
-            private int x,y=getHeight()-1;
-
-            @Override
-            public boolean hasNext()
-            {
-                return x < getWidth() && y >= 0;
-            }
-
-            @Override
-            public Point next()
-            {
-                final Point p = new Point( x, y );
-                y--;
-                if ( y < 0 )
-                {
-                    y=getHeight()-1;
-                    x++;
-                }
-                return p;
-            }
-        };
+        new SpriteRotator().rotateCW( this );
     }
 
     public void clear() {
-        for ( int x = 0 ; x < getWidth() ; x++ ) {
-            for ( int y = 0 ; y < getHeight() ; y++ ) {
-                data[x][y]=false;
-            }
-        }
+        version++;
+        Arrays.fill( bits , 0L );
     }
 
     public Dimension getSize() {
@@ -210,124 +203,119 @@ public class Sprite implements Serializable
         return size.height;
     }    
 
+    private int wordOffset(int x,int y) 
+    {
+        if ( x < 0 || x >= size.width || y < 0 || y >= size.height ) {
+            throw new ArrayIndexOutOfBoundsException("Pixel ("+x+","+y+") is out of bounds for size "+size.width+"x"+size.height);
+        }
+        return y*wordsPerRow + (x >>> 6);
+    }
+    
     public void togglePixel(int x,int y) {
-        data[x][y] = ! data[x][y];
+        bits[ wordOffset(x,y) ] ^= Long.MIN_VALUE >>> x;
+        version++;
     }
 
     public void setPixel(int x,int y) {
-        data[x][y] = true;
+        bits[ wordOffset(x,y) ] |= Long.MIN_VALUE >>> x;
+        version++;
     }
 
     public void clearPixel(int x,int y) {
-        data[x][y] = false;
+        bits[ wordOffset(x,y) ] &= ~(Long.MIN_VALUE >>> x);
+        version++;
     }
 
     public boolean isSet(int x,int y) {
-        return data[x][y];
+        return ( bits[ wordOffset(x,y) ] & (Long.MIN_VALUE >>> x) ) != 0;
     }
 
-    private void assertSize() {
-        if ( ( getWidth() % 8 ) != 0 ) {
-            throw new IllegalStateException("Glyph width needs to be a multiple of 8");
-        }
-        if ( ( getHeight() % 8 ) != 0 ) {
-            throw new IllegalStateException("Glyph height needs to be a multiple of 8");
-        }
+    public byte[] getDataRows(Flip flip) 
+    {
+        return encode( SpriteEncoder.rows( flip ) );
+    }
+    
+    private byte[] encode(SpriteEncoder encoder) 
+    {
+        final byte[] result = new byte[ encoder.sizeInBytes( this ) ];
+        encoder.encode( this , ByteBuffer.wrap( result ) , 0 );
+        return result;
     }
 
-    public byte[] getDataRows(Flip flip) 
+    /**
+     * Returns the number of bytes {@link #writeRows(byte[], int)} will write.
+     */
+    int sizeInBytesPacked() {
+        return ( (getWidth()+7) >>> 3 ) * getHeight();
+    }
+    
+    /**
+     * Writes all pixels row by row, 8 pixels per byte with the left-most pixel in bit 7.
+     * 
+     * Each row starts with a new byte, unused bits in the last byte of a row are zero.
+     * 
+     * @param dst
+     * @param offset
+     * @see #sizeInBytesPacked()
+     */
+    void writeRows(byte[] dst,int offset) 
+    {
+        final int bytesPerRow = (getWidth()+7) >>> 3;
+        int ptr = offset;
+        for ( int y = 0 , row = 0 ; y < getHeight() ; y++ , row += wordsPerRow ) 
+        {
+            for ( int i = 0 ; i < bytesPerRow ; i++ ) {
+                dst[ptr++] = (byte) Bits.getByte( bits , row , i );
+            }
+        }
+    }
+    
+    /**
+     * Replaces all pixels with data in the format written by {@link #writeRows(byte[], int)}.
+     * 
+     * @param src
+     * @param offset
+     */
+    void readRows(byte[] src,int offset) 
     {
-        if ( ( getWidth() % 8 ) != 0 ) {
-            throw new IllegalStateException("Glyph width needs to be a multiple of 8");
+        version++;
+        if ( wordsPerRow == 0 ) {
+            return;
         }
-        int writePtr = 0;
-        final byte[] result = new byte[ sizeInBits() / 8 ];
-        for (int y = 0 ; y < getHeight(); y++) 
+        final int bytesPerRow = (getWidth()+7) >>> 3;
+        final long lastMask = lastWordMask( getWidth() );
+        int ptr = offset;
+        for ( int y = 0 , row = 0 ; y < getHeight() ; y++ , row += wordsPerRow ) 
         {
-            int currentByte = 0;
-            for ( int x = 0, bitCount = 7 ; x < getWidth() ; x++ ) 
+            long word = 0;
+            for ( int i = 0 ; i < bytesPerRow ; i++ ) 
             {
-                if ( flip.getPixel(x, y, this) )
-                {
-                    currentByte |= 1<<bitCount;
-                }
-                bitCount--;
-                if ( bitCount < 0 ) 
+                word |= ( src[ptr++] & 0xffL ) << ( 56 - ((i & 7) << 3) );
+                if ( (i & 7) == 7 ) 
                 {
-                    result[writePtr++] = (byte) currentByte;
-                    currentByte = 0;
-                    bitCount = 7;
+                    bits[ row + (i >>> 3) ] = word;
+                    word = 0;
                 }
             }
+            if ( (bytesPerRow & 7) != 0 ) {
+                bits[ row + wordsPerRow - 1 ] = word;
+            }
+            bits[ row + wordsPerRow - 1 ] &= lastMask;
         }
-        return result;
     }
-
+    
     public int sizeInBits() {
         return getWidth() * getHeight();
     }
 
     public byte[] getDataColumns(int bitsPerColumn) 
     {
-        if ( bitsPerColumn < 1 ) {
-            throw new IllegalArgumentException("Need at least 1 output bit per column");
-        }
-        final byte[] result = new byte[ getSizeInBytes() ];
-
-        int writePtr = 0;
-        for ( int y=0 ; y < getHeight() ; y+= bitsPerColumn ) 
-        {
-            for ( int x = 0 ; x < getWidth() ; x++ ) 
-            {
-                int bitCounter = 0;
-                int currentByte = 0;
-                for ( ; bitCounter < bitsPerColumn; bitCounter++ ) 
-                {
-                    currentByte >>>= 1;
-                    if ( (y+bitCounter) < getHeight() && isSet( x , y+bitCounter ) ) 
-                    {
-                        currentByte |= 128;
-                    }
-                    if ( bitCounter != 0 && (bitCounter%8) == 0 ) 
-                    {
-                        result[writePtr++] = (byte) currentByte;
-                        currentByte = 0;
-                    }
-                }
-                if ( bitCounter != 0 && (bitCounter%8) == 0 ) 
-                {
-                    result[writePtr++] = (byte) currentByte;
-                }
-            }
-        }
-        return result;
+        return encode( SpriteEncoder.pages( bitsPerColumn ) );
     }
 
     public byte[] getDataColumns(Flip flip) 
     {
-        assertSize();
-        final byte[] result = new byte[ sizeInBits() / 8 ];
-        int writePtr = result.length-1;
-
-        for ( int x = 0 ; x < getWidth() ; x++) 
-        {
-            int currentByte = 0;
-            for ( int y = 0, bitCount = 7 ; y < getHeight() ; y++ ) 
-            {
-                if ( flip.getPixel(x,y,this) )
-                {
-                    currentByte |= 1<<bitCount;
-                }
-                bitCount--;
-                if ( bitCount < 0 ) 
-                {
-                    result[writePtr--] = (byte) currentByte;
-                    currentByte = 0;
-                    bitCount = 7;
-                }
-            }
-        }
-        return result;        
+        return encode( SpriteEncoder.columns( flip ) );
     }
 
     public boolean hasSize(int w,int h) {
@@ -343,63 +331,33 @@ public class Sprite implements Serializable
             return;
         }
         
-        final boolean[][] tmp = newArray(w,h);
-        
         int actualWidth = 0;
         int actualHeight = 0;
-        for ( int x = 0 ; x < getWidth() ; x++ ) {
-            for ( int y = 0 ; y < getHeight() ; y++ ) 
+        for ( int y = 0 ; y < getHeight() ; y++ ) 
+        {
+            for ( int i = 0 , row = y*wordsPerRow ; i < wordsPerRow ; i++ ) 
             {
-                if ( isSet(x,y ) ) {
-                    actualWidth = Math.max( actualWidth , x+1 );
-                    actualHeight = Math.max( actualHeight , y+1 );
+                final long word = bits[row+i];
+                if ( word != 0 ) 
+                {
+                    actualWidth = Math.max( actualWidth , i*64 + 64 - Long.numberOfTrailingZeros( word ) );
+                    actualHeight = y+1;
                 }
             }
         }
         final boolean downScalingNeeded = actualWidth > w || actualHeight > h;
         final boolean upScalingNeeded = (actualWidth != 0 || actualHeight != 0) && (w > getWidth() || h > getHeight());
         
+        final long[] tmp;
         if ( scale && ( downScalingNeeded || upScalingNeeded ) ) 
         {
-            final BufferedImage src = new BufferedImage( getWidth() , getHeight() , BufferedImage.TYPE_BYTE_BINARY );
-            for ( int x = 0 ; x < getWidth() ; x++ ) {
-                for ( int y = 0 ; y < getHeight() ; y++ ) 
-                {
-                    if ( isSet(x,y ) ) 
-                    {
-                        src.setRGB( x ,y , 0xffffff);
-                    } else {
-                        src.setRGB( x ,y , 0 );
-                    }
-                }
-            }
-            final BufferedImage dst = new BufferedImage( w , h , BufferedImage.TYPE_BYTE_BINARY );
-            final Graphics2D dstGfx = dst.createGraphics();
-            dstGfx.drawImage(src, 0 , 0 , w , h , 0, 0, getWidth() , getHeight() , null );
-            dstGfx.dispose();
-            
-            final int[] buffer = new int[1];
-            for ( int x = 0 ; x <  w ; x++ ) 
-            {
-                for ( int y = 0 ; y < h ; y++ ) 
-                {
-                    dst.getData().getPixel(x,y,buffer);
-                    tmp[x][y] = buffer[0] != 0; 
-                }
-            }            
+            tmp = SpriteScaler.nearest( bits , getWidth() , getHeight() , w , h );
         } 
         else 
         {
-            for ( int x = 0 ; x < w && x < getWidth() ; x++ ) 
-            {
-                for ( int y = 0 ; y < h && y < getHeight() ; y++ ) 
-                {
-                    tmp[x][y] = this.data[x][y];
-                }
-            }
+            tmp = copyRect( 0 , 0 , w , h );
         }
-        this.data = tmp;
-        this.size.setSize(w,h);
+        setBits( tmp , w , h );
     }
     
     public int getSizeInBytes() 
@@ -416,32 +374,35 @@ public class Sprite implements Serializable
         }
         this.index = idx;
         this.indexSet = true;
+        version++;
     }
     
     public void clearIndex() {
         this.index = 0;
         this.indexSet = false;
+        version++;
     }
     
-    public void invert() {
-        for ( int x = 0 , w = getWidth() ; x < w ; x++ ) 
+    public void invert() 
+    {
+        version++;
+        final long lastMask = lastWordMask( getWidth() );
+        for ( int row = 0 , len = bits.length ; row < len ; row += wordsPerRow ) 
         {
-            for ( int y = 0 , h = getHeight() ; y < h ; y++ ) 
-            {
-                data[x][y] = ! data[x][y];
+            final int last = row + wordsPerRow - 1;
+            for ( int i = row ; i < last ; i++ ) {
+                bits[i] = ~bits[i];
             }
+            bits[last] = ~bits[last] & lastMask;
         }
     }
     
     public boolean isBlank() 
     {
-        for ( int x = 0 ; x < getWidth() ; x++ ) {
-            for ( int y = 0 ; y < getHeight() ; y++ ) 
-            {
-                if ( isSet(x,y ) ) 
-                {
-                    return false;
-                }
+        for ( long word : bits ) 
+        {
+            if ( word != 0 ) {
+                return false;
             }
         }
         return true;
@@ -449,68 +410,110 @@ public class Sprite implements Serializable
     
     public void cropToSize() 
     {
-        if ( isBlank() ) {
+        final Rectangle bounds = contentBounds();
+        if ( bounds == null || hasSize( bounds.width , bounds.height ) ) {
             return;
         }
+        setBits( copyRect( bounds.x , bounds.y , bounds.width , bounds.height ) , bounds.width , bounds.height );
+    } 
+
+    /**
+     * Returns the smallest rectangle that contains all set pixels.
+     * 
+     * @return bounds or <code>null</code> if no pixel is set
+     */
+    Rectangle contentBounds() 
+    {
+        if ( isBlank() ) {
+            return null;
+        }
         
         int minY = Integer.MAX_VALUE;
         int minX = Integer.MAX_VALUE;
         int maxX = Integer.MIN_VALUE;
         int maxY = Integer.MIN_VALUE;
-        for ( int x = 0 ; x < getWidth() ; x++ ) 
+        for ( int y = 0 ; y < getHeight() ; y++ ) 
         {
-            for ( int y = 0 ; y < getHeight() ; y++ ) 
+            for ( int i = 0 , row = y*wordsPerRow ; i < wordsPerRow ; i++ ) 
             {
-                if ( isSet(x,y ) ) 
+                final long word = bits[row+i];
+                if ( word != 0 ) 
                 {
-                    maxX = Math.max( maxX ,  x );
-                    maxY = Math.max( maxY ,  y );
-                    minX = Math.min( minX ,  x );
-                    minY = Math.min( minY ,  y );
+                    minX = Math.min( minX , i*64 + Long.numberOfLeadingZeros( word ) );
+                    maxX = Math.max( maxX , i*64 + 63 - Long.numberOfTrailingZeros( word ) );
+                    minY = Math.min( minY , y );
+                    maxY = y;
                 }
             }
         }
-        final int newWidth = (maxX-minX)+1;
-        final int newHeight = (maxY-minY)+1;
-        if ( hasSize(newWidth,newHeight ) ) 
-        {
-            return;
-        }
-        
-        final boolean[][] tmp = newArray(newWidth,newHeight);
-        for ( int x = 0 ; x < newWidth ; x++ ) 
-        {
-            for ( int y = 0 ; y < newHeight ; y++ ) 
-            {
-                tmp[x][y] = isSet( minX+x, minY+y );
-            }
+        return new Rectangle( minX , minY , (maxX-minX)+1 , (maxY-minY)+1 );
+    }
+
+    /**
+     * Enlarges this sprite, the inverse of cropping.
+     * 
+     * @param x where the current pixels end up in the enlarged sprite
+     * @param y where the current pixels end up in the enlarged sprite
+     * @param width new width
+     * @param height new height
+     */
+    void expand(int x,int y,int width,int height) {
+        setBits( copyRect( -x , -y , width , height ) , width , height );
+    }
+
+    /**
+     * XORs words of the pixel storage with masks.
+     * 
+     * @param offsets word offsets into {@link #bits()}
+     * @param masks
+     * @param count number of words to change
+     */
+    void xor(int[] offsets,long[] masks,int count) 
+    {
+        version++;
+        for ( int i = 0 ; i < count ; i++ ) {
+            bits[ offsets[i] ] ^= masks[i];
         }
-        this.data = tmp;
-        this.size.setSize( newWidth , newHeight );
-    } 
+    }
     
     public void setToImage(BufferedImage src) 
     {
-        final BufferedImage dst;
-        if ( src.getType() != BufferedImage.TYPE_BYTE_BINARY || src.getData().getNumBands() != 1 ) 
+        final int w = src.getWidth();
+        final int h = src.getHeight();
+        setBits( new RasterDecoder( src ).decode( 0 , 0 , w , h ) , w , h );
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException 
+    {
+        data = new boolean[ getWidth() ][];
+        for ( int x = 0 ; x < getWidth() ; x++ ) 
         {
-            dst = new BufferedImage(src.getWidth(),src.getHeight(),BufferedImage.TYPE_BYTE_BINARY);
-            final Graphics2D gfx = dst.createGraphics();
-            gfx.drawImage( src , 0 , 0 ,null );
-            gfx.dispose();
-        } else {
-            dst = src;
+            data[x] = new boolean[ getHeight() ];
+            for ( int y = 0 ; y < getHeight() ; y++ ) {
+                data[x][y] = isSet( x , y );
+            }
+        }
+        try {
+            out.defaultWriteObject();
+        } finally {
+            data = null;
         }
-        final Raster raster = dst.getData();
-        resize( dst.getWidth() , dst.getHeight() , false );
-        final int[] color = new int[ 1 ];
-        for ( int x = 0 , w = dst.getWidth() ; x < w ; x++ ) 
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException 
+    {
+        in.defaultReadObject();
+        wordsPerRow = wordsPerRow( getWidth() );
+        bits = new long[ wordsPerRow * getHeight() ];
+        for ( int x = 0 ; x < getWidth() ; x++ ) 
         {
-            for ( int y = 0 , h = dst.getHeight() ; y < h ; y++ ) 
+            for ( int y = 0 ; y < getHeight() ; y++ ) 
             {
-                raster.getPixel(x,y,color);
-                data[x][y] = color[0] != 0; 
+                if ( data[x][y] ) {
+                    setBit( bits , wordsPerRow , x , y );
+                }
             }
         }
+        data = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package de.codesourcery.spritedesigner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compresses encoded sprite data so that it can be decompressed by a small routine on the target.
+ *
+ * All codecs produce a stream of tokens that can be decompressed without knowing the
+ * compressed length, decompression simply stops once the requested number of bytes has been produced.
+ * This allows unpacking only the first part of a compressed block.
+ *
+ * Implementations are stateless and may be shared between threads.
+ *
+ * @see CompressingExporter
+ */
+public interface SpriteCodec
+{
+    /**
+     * Returns a short name, also used as label prefix in the decompressor's assembly.
+     */
+    public String getName();
+
+    /**
+     * Returns the max. number of bytes {@link #compress(byte[], int, int, byte[], int)} may write
+     * for a given input length.
+     *
+     * @param len
+     * @return
+     */
+    public int maxCompressedLength(int len);
+
+    /**
+     * Compresses data.
+     *
+     * @param src
+     * @param srcOffset
+     * @param len number of bytes to compress
+     * @param dst destination array, needs to have room for {@link #maxCompressedLength(int)} bytes
+     * @param dstOffset
+     * @return number of bytes written
+     */
+    public int compress(byte[] src,int srcOffset,int len,byte[] dst,int dstOffset);
+
+    /**
+     * Decompresses data, exactly like the assembly routine does.
+     *
+     * @param src
+     * @param srcOffset
+     * @param dst
+     * @param dstOffset
+     * @param len number of bytes to produce
+     * @return number of compressed bytes consumed
+     */
+    public int decompress(byte[] src,int srcOffset,byte[] dst,int dstOffset,int len);
+
+    /**
+     * Returns the approximate number of CPU cycles the AVR decompressor takes to
+     * produce a given number of bytes, including call overhead.
+     *
+     * @param src compressed data
+     * @param srcOffset
+     * @param len number of bytes to produce
+     * @return
+     */
+    public long estimateDecodeCycles(byte[] src,int srcOffset,int len);
+
+    /**
+     * Returns the AVR decompression routine (AVRASM syntax).
+     */
+    public String getDecompressorAsAssembly();
+
+    /**
+     * Run-length encoding, repeated bytes are stored as (count,value) pairs.
+     *
+     * @return
+     */
+    public static SpriteCodec rle() {
+        return RleCodec.INSTANCE;
+    }
+
+    /**
+     * LZ77 variant with a 256 byte window, repeated sequences are stored as (length,distance) pairs.
+     *
+     * @return
+     */
+    public static SpriteCodec lz() {
+        return LzCodec.INSTANCE;
+    }
+
+    /**
+     * Returns all available codecs.
+     */
+    public static List<SpriteCodec> all() {
+        return Arrays.asList( rle() , lz() );
+    }
+
+    /**
+     * Loads a decompressor routine shipped with this application.
+     *
+     * @param resource resource name relative to this class
+     * @return
+     */
+    static String loadAssembly(String resource)
+    {
+        try ( InputStream in = SpriteCodec.class.getResourceAsStream( resource ) )
+        {
+            if ( in == null ) {
+                throw new IOException("Resource not found: "+resource);
+            }
+            return new String( in.readAllBytes() , StandardCharsets.US_ASCII );
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException( e );
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.codesourcery.spritedesigner;
+
+import java.nio.ByteBuffer;
+
+import de.codesourcery.spritedesigner.Sprite.Flip;
+
+/**
+ * Turns a sprite's pixels into bytes in some target-specific data layout.
+ * 
+ * Encoders write straight into a caller-supplied {@link ByteBuffer} (heap or direct) using 
+ * absolute puts, so neither the buffer's position nor its limit is changed.
+ * Implementations are stateless and may be shared between threads.
+ */
+public interface SpriteEncoder
+{
+    /**
+     * Returns the number of bytes {@link #encode(Sprite, ByteBuffer, int)} will write for a given sprite.
+     * 
+     * @param sprite
+     * @return
+     */
+    public int sizeInBytes(Sprite sprite);
+
+    /**
+     * Encode a sprite.
+     * 
+     * @param sprite sprite to encode
+     * @param buffer buffer to write to
+     * @param offset absolute offset where to start writing, <code>sizeInBytes(sprite)</code> bytes will be written
+     */
+    public void encode(Sprite sprite,ByteBuffer buffer,int offset);
+
+    /**
+     * Row-oriented layout, 8 pixels per byte with the left-most pixel in bit 7.
+     * 
+     * @param flip
+     * @return
+     * @see Sprite#getDataRows(Flip)
+     */
+    public static SpriteEncoder rows(Flip flip) {
+        return RowEncoder.of( flip );
+    }
+
+    /**
+     * Column-oriented layout, 8 pixels per byte with the top-most pixel in bit 7 and the
+     * byte order reversed.
+     * 
+     * @param flip
+     * @return
+     * @see Sprite#getDataColumns(Flip)
+     */
+    public static SpriteEncoder columns(Flip flip) {
+        return ColumnEncoder.of( flip );
+    }
+
+    /**
+     * Page-oriented layout as used by the SSD1306 and similar displays.
+     * 
+     * @param bitsPerColumn
+     * @return
+     * @see Sprite#getDataColumns(int)
+     */
+    public static SpriteEncoder pages(int bitsPerColumn) {
+        return new PageEncoder( bitsPerColumn );
+    }
+}
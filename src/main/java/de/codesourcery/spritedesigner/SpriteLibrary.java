@@ -0,0 +1,512 @@
+package de.codesourcery.spritedesigner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A sprite set file that is memory-mapped instead of being read into memory.
+ *
+ * Opening a library only validates the file header, sprites are decoded from the
+ * fixed-size index on first access. Memory usage therefore depends on the number of sprites
+ * actually used and not on the size of the file.
+ *
+ * Changes are written back by {@link #flush()}, which writes a new file and then replaces the old one,
+ * so a crash never leaves a half-written file behind.
+ *
+ * Only uncompressed files as written by {@link SpriteSetFile} can be opened. The checksum is
+ * not verified when opening a library (use {@link SpriteSetFile#load(File)} for that)
+ * but updated on every flush.
+ *
+ * Like {@link SpriteSet}, instances are not thread-safe.
+ */
+public class SpriteLibrary implements Closeable
+{
+    // sun.misc.Unsafe#invokeCleaner(ByteBuffer) and the Unsafe instance, null if not available
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static
+    {
+        Method method = null;
+        Object unsafe = null;
+        try
+        {
+            final Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+            final Field field = unsafeClass.getDeclaredField( "theUnsafe" );
+            field.setAccessible( true );
+            unsafe = field.get( null );
+            method = unsafeClass.getMethod( "invokeCleaner" , ByteBuffer.class );
+        }
+        catch(ReflectiveOperationException | RuntimeException e) {
+            // mappings are released by the garbage collector
+        }
+        INVOKE_CLEANER = method;
+        UNSAFE = unsafe;
+    }
+
+    private File file;
+    private final SpriteList sprites = new SpriteList();
+    private final SpriteSet spriteSet = new SpriteSet( sprites );
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private ByteBuffer reader;
+    private byte[] scratch = new byte[0];
+    private int fileCount;
+    private long payloadLength;
+
+    private SpriteLibrary(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens a sprite set file for reading and writing.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file is no uncompressed sprite set file or could not be mapped
+     */
+    public static SpriteLibrary open(File file) throws IOException
+    {
+        final SpriteLibrary result = new SpriteLibrary( file );
+        result.map();
+        result.sprites.reset();
+        return result;
+    }
+
+    private void map() throws IOException
+    {
+        channel = FileChannel.open( file.toPath() , StandardOpenOption.READ );
+        try
+        {
+            final long size = channel.size();
+            if ( size < SpriteSetFile.HEADER_SIZE + 4 ) {
+                throw new IOException("Not a sprite set file: "+file.getAbsolutePath());
+            }
+            if ( size > Integer.MAX_VALUE ) {
+                throw new IOException("File is too large to be opened as a library: "+file.getAbsolutePath());
+            }
+            buffer = channel.map( MapMode.READ_ONLY , 0 , size );
+            if ( buffer.getInt( 0 ) != SpriteSetFile.MAGIC ) {
+                throw new IOException("Not a sprite set file: "+file.getAbsolutePath());
+            }
+            final int version = buffer.getShort( 4 ) & 0xffff;
+            if ( version != SpriteSetFile.VERSION ) {
+                throw new IOException("Unsupported file version "+version+", expected "+SpriteSetFile.VERSION);
+            }
+            if ( ( buffer.getShort( 6 ) & SpriteSetFile.FLAG_COMPRESSED ) != 0 ) {
+                throw new IOException("Compressed sprite set files can't be opened as a library: "+file.getAbsolutePath());
+            }
+            fileCount = buffer.getInt( 8 );
+            payloadLength = buffer.getLong( 12 );
+            if ( fileCount < 0 || payloadLength != size - SpriteSetFile.HEADER_SIZE - 4 ||
+                 (long) fileCount * SpriteSetFile.INDEX_ENTRY_SIZE > payloadLength )
+            {
+                throw new IOException("Corrupted file header: "+file.getAbsolutePath());
+            }
+            reader = buffer.duplicate();
+        }
+        catch(IOException | RuntimeException e)
+        {
+            unmap();
+            throw e;
+        }
+    }
+
+    private void unmap() throws IOException
+    {
+        final MappedByteBuffer mapping = buffer;
+        buffer = null;
+        reader = null;
+        if ( mapping != null ) {
+            release( mapping );
+        }
+        if ( channel != null )
+        {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Releases a mapping right away instead of when it gets garbage-collected.
+     *
+     * Windows refuses to replace a file that is still mapped. The buffer must not be accessed afterwards.
+     */
+    private static void release(MappedByteBuffer mapping)
+    {
+        if ( INVOKE_CLEANER != null )
+        {
+            try {
+                INVOKE_CLEANER.invoke( UNSAFE , mapping );
+            } catch(ReflectiveOperationException | RuntimeException e) {
+                // released by the garbage collector
+            }
+        }
+    }
+
+    /**
+     * Returns the sprite set backed by this library.
+     *
+     * The set stays valid until this library gets closed.
+     */
+    public SpriteSet getSpriteSet() {
+        return spriteSet;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of sprites that have been decoded so far.
+     */
+    public int getDecodedCount() {
+        return sprites.decodedCount;
+    }
+
+    /**
+     * Returns whether there are changes that have not been written to the file yet.
+     */
+    public boolean isModified()
+    {
+        if ( sprites.structureChanged ) {
+            return true;
+        }
+        for ( int i = 0 , len = sprites.size() ; i < len ; i++ )
+        {
+            final Sprite sprite = sprites.decoded.get( i );
+            if ( sprite != null && sprite.version() != sprites.versions[i] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes all changes back to the file.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException
+    {
+        assertOpen();
+        if ( isModified() ) {
+            rewrite( file );
+        }
+    }
+
+    /**
+     * Writes all sprites to a new file and continues to use that file.
+     * 
+     * @param target
+     * @throws IOException
+     */
+    public void saveAs(File target) throws IOException
+    {
+        assertOpen();
+        rewrite( target );
+    }
+
+    private void rewrite(File target) throws IOException
+    {
+        final File dir = target.getAbsoluteFile().getParentFile();
+        final File tmp = File.createTempFile( "."+target.getName()+"-" , ".tmp" , dir );
+        try
+        {
+            // sprites that have not been decoded yet are read directly from the old mapping
+            final List<Sprite> view = new AbstractList<Sprite>()
+            {
+                @Override
+                public Sprite get(int index) {
+                    return sprites.peek( index );
+                }
+
+                @Override
+                public int size() {
+                    return sprites.size();
+                }
+            };
+            try ( OutputStream out = new FileOutputStream( tmp ) ) {
+                SpriteSetFile.write( view , out , false );
+            }
+            unmap();
+            replace( tmp.toPath() , target.toPath() );
+            file = target;
+        }
+        finally 
+        {
+            Files.deleteIfExists( tmp.toPath() );
+            if ( channel == null ) {
+                map(); // new file or, if moving failed, the old one
+            }
+        }
+        sprites.rewritten();
+    }
+
+    /**
+     * Replaces a file with another one, atomically if possible.
+     *
+     * If the file can't be replaced (for example because another process still has it mapped or open on Windows),
+     * the new contents are copied over it instead.
+     */
+    private static void replace(Path source,Path target) throws IOException
+    {
+        try
+        {
+            Files.move( source , target , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+            return;
+        }
+        catch(IOException e) {
+            // fall back to copying
+        }
+        try ( FileChannel in = FileChannel.open( source , StandardOpenOption.READ );
+              FileChannel out = FileChannel.open( target , StandardOpenOption.WRITE , StandardOpenOption.CREATE ) )
+        {
+            final long size = in.size();
+            for ( long position = 0 ; position < size ; ) {
+                position += in.transferTo( position , size - position , out );
+            }
+            out.truncate( size );
+            out.force( true );
+        }
+    }
+
+    private void assertOpen() throws IOException
+    {
+        if ( channel == null ) {
+            throw new IOException("Library is closed: "+file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Closes this library, discarding all changes that have not been flushed.
+     */
+    @Override
+    public void close() throws IOException {
+        unmap();
+    }
+
+    private int indexEntry(int fileIndex) {
+        return SpriteSetFile.HEADER_SIZE + fileIndex * SpriteSetFile.INDEX_ENTRY_SIZE;
+    }
+
+    private int dataOffset(int fileIndex,int len)
+    {
+        final long dataStart = SpriteSetFile.HEADER_SIZE + (long) fileCount * SpriteSetFile.INDEX_ENTRY_SIZE;
+        final long offset = buffer.getLong( indexEntry( fileIndex ) + 8 );
+        if ( offset < 0 || dataStart + offset + len > SpriteSetFile.HEADER_SIZE + payloadLength ) {
+            throw new UncheckedIOException( new IOException("Corrupted index entry for sprite "+fileIndex+" in "+file.getAbsolutePath() ) );
+        }
+        return (int) ( dataStart + offset );
+    }
+
+    private Sprite decode(int fileIndex)
+    {
+        if ( buffer == null ) {
+            throw new IllegalStateException("Library is closed: "+file.getAbsolutePath());
+        }
+        final int entry = indexEntry( fileIndex );
+        final int width = buffer.getShort( entry ) & 0xffff;
+        final int height = buffer.getShort( entry + 2 ) & 0xffff;
+        final int index = buffer.getInt( entry + 4 );
+
+        final Sprite sprite = new Sprite( width , height );
+        final int len = sprite.sizeInBytesPacked();
+        if ( len > scratch.length ) {
+            scratch = new byte[ len ];
+        }
+        reader.position( dataOffset( fileIndex , len ) );
+        reader.get( scratch , 0 , len );
+        sprite.readRows( scratch , 0 );
+        if ( index >= 0 ) {
+            sprite.setIndex( index );
+        }
+        return sprite;
+    }
+
+    /**
+     * List that decodes sprites on first access.
+     *
+     * As long as no elements were added, removed or replaced, list positions are the same as
+     * the positions in the file.
+     */
+    private final class SpriteList extends AbstractList<Sprite> implements RandomAccess
+    {
+        // null for sprites that have not been decoded yet
+        final ArrayList<Sprite> decoded = new ArrayList<>();
+        // version of each sprite when it was decoded or last written, by file position
+        int[] versions = new int[0];
+        // file position of each element or -1 if not from the file, null while structure is unchanged
+        private int[] fileIndex;
+        boolean structureChanged;
+        int decodedCount;
+
+        void reset()
+        {
+            decoded.clear();
+            decoded.addAll( Collections.nCopies( fileCount , null ) );
+            versions = new int[ fileCount ];
+            fileIndex = null;
+            structureChanged = false;
+            decodedCount = 0;
+            modCount++;
+        }
+
+        void rewritten()
+        {
+            versions = new int[ fileCount ];
+            for ( int i = 0 ; i < fileCount ; i++ )
+            {
+                final Sprite sprite = decoded.get( i );
+                if ( sprite != null ) {
+                    versions[i] = sprite.version();
+                }
+            }
+            fileIndex = null;
+            structureChanged = false;
+        }
+
+        private int fileIndex(int position) {
+            return fileIndex == null ? position : fileIndex[position];
+        }
+
+        private void structureChanged()
+        {
+            if ( fileIndex == null )
+            {
+                fileIndex = new int[ Math.max( 16 , decoded.size() ) ];
+                for ( int i = 0 , len = decoded.size() ; i < len ; i++ ) {
+                    fileIndex[i] = i;
+                }
+            }
+            structureChanged = true;
+            modCount++;
+        }
+
+        /**
+         * Returns an element without keeping it in memory if it has not been decoded yet.
+         */
+        Sprite peek(int index)
+        {
+            final Sprite result = decoded.get( index );
+            return result != null ? result : decode( fileIndex( index ) );
+        }
+
+        @Override
+        public Sprite get(int index)
+        {
+            Sprite result = decoded.get( index );
+            if ( result == null )
+            {
+                final int pos = fileIndex( index );
+                result = decode( pos );
+                versions[pos] = result.version();
+                decoded.set( index , result );
+                decodedCount++;
+            }
+            return result;
+        }
+
+        @Override
+        public int size() {
+            return decoded.size();
+        }
+
+        @Override
+        public Sprite set(int index,Sprite element)
+        {
+            Objects.requireNonNull( element );
+            final Sprite previous = peek( index );
+            structureChanged();
+            fileIndex[index] = -1;
+            decoded.set( index , element );
+            return previous;
+        }
+
+        @Override
+        public void add(int index,Sprite element)
+        {
+            Objects.requireNonNull( element );
+            final int size = decoded.size();
+            if ( index < 0 || index > size ) {
+                throw new IndexOutOfBoundsException("Index "+index+" out of bounds for size "+size);
+            }
+            structureChanged();
+            if ( size == fileIndex.length ) {
+                fileIndex = Arrays.copyOf( fileIndex , size*2 );
+            }
+            System.arraycopy( fileIndex , index , fileIndex , index+1 , size - index );
+            fileIndex[index] = -1;
+            decoded.add( index , element );
+        }
+
+        @Override
+        public Sprite remove(int index)
+        {
+            final Sprite previous = peek( index );
+            structureChanged();
+            System.arraycopy( fileIndex , index+1 , fileIndex , index , decoded.size() - index - 1 );
+            decoded.remove( index );
+            return previous;
+        }
+
+        @Override
+        public boolean remove(Object o)
+        {
+            final int idx = indexOf( o );
+            if ( idx == -1 ) {
+                return false;
+            }
+            remove( idx );
+            return true;
+        }
+
+        @Override
+        public void clear()
+        {
+            structureChanged();
+            decoded.clear();
+        }
+
+        // an element that has not been decoded yet can't be equal to any object the caller knows about
+        @Override
+        public int indexOf(Object o) {
+            return o == null ? -1 : decoded.indexOf( o );
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return o == null ? -1 : decoded.lastIndexOf( o );
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf( o ) != -1;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package de.codesourcery.spritedesigner;
+
+import java.util.Arrays;
+
+/**
+ * Rotates sprites by 90 degrees.
+ * 
+ * Pixels are processed in 8x8 blocks that get transposed in a single long, the result 
+ * is written into a destination buffer that gets recycled between invocations. As long
+ * as subsequent sprites have the same size, rotating does not allocate any memory at all.
+ * 
+ * Instances are not thread-safe.
+ */
+public class SpriteRotator
+{
+    private long[] buffer = new long[0];
+
+    /**
+     * Rotate clock-wise by 90 degrees.
+     * 
+     * @param sprite
+     */
+    public void rotateCW(Sprite sprite) {
+        rotate( sprite , true );
+    }
+
+    /**
+     * Rotate counter clock-wise by 90 degrees.
+     * 
+     * @param sprite
+     */
+    public void rotateCCW(Sprite sprite) {
+        rotate( sprite , false );
+    }
+
+    private void rotate(Sprite sprite,boolean clockwise) 
+    {
+        final int srcWidth = sprite.getWidth();
+        final int srcHeight = sprite.getHeight();
+        final long[] src = sprite.bits();
+        final int srcWordsPerRow = Sprite.wordsPerRow( srcWidth );
+
+        // destination is srcHeight pixels wide and srcWidth pixels high
+        final int dstWordsPerRow = Sprite.wordsPerRow( srcHeight );
+        final int dstLen = dstWordsPerRow * srcWidth;
+        final long[] dst;
+        if ( buffer.length == dstLen ) {
+            dst = buffer;
+            Arrays.fill( dst , 0L );
+        } else {
+            dst = new long[ dstLen ];
+        }
+
+        final int bytesPerRow = (srcWidth+7) >>> 3;
+        for ( int y0 = 0 ; y0 < srcHeight ; y0 += 8 ) 
+        {
+            final int rows = Math.min( 8 , srcHeight - y0 );
+            for ( int bx = 0 ; bx < bytesPerRow ; bx++ ) 
+            {
+                long block = 0;
+                for ( int i = 0 ; i < rows ; i++ ) {
+                    block |= (long) Bits.getByte( src , (y0+i)*srcWordsPerRow , bx ) << ( 56 - (i << 3) );
+                }
+                if ( block == 0 ) {
+                    continue;
+                }
+                block = Bits.transpose8( block );
+                if ( clockwise ) {
+                    block = Bits.reverseBitsInBytes( block );
+                }
+                // byte j now holds source column x0+j , rows y0...y0+7 
+                final int x0 = bx << 3;
+                final int columns = Math.min( 8 , srcWidth - x0 );
+                for ( int j = 0 ; j < columns ; j++ ) 
+                {
+                    final int value = (int) ( block >>> ( 56 - (j << 3) ) ) & 0xff;
+                    if ( clockwise ) {
+                        // (x,y) -> (srcHeight-1-y, x)
+                        Bits.or8( dst , (x0+j)*dstWordsPerRow , srcHeight - 8 - y0 , value );
+                    } else {
+                        // (x,y) -> (y, srcWidth-1-x)
+                        Bits.or8( dst , (srcWidth-1-x0-j)*dstWordsPerRow , y0 , value );
+                    }
+                }
+            }
+        }
+        // hand our buffer to the sprite and recycle the sprite's old one
+        buffer = src;
+        sprite.setBits( dst , srcHeight , srcWidth );
+    }
+}
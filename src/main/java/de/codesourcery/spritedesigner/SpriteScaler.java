@@ -0,0 +1,361 @@
+package de.codesourcery.spritedesigner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Scales sprites, working directly on their packed pixels.
+ *
+ * All algorithms take time linear in the number of output pixels (area coverage also in the number of input pixels).
+ * Lists of sprites are scaled in parallel.
+ */
+public final class SpriteScaler
+{
+    public enum Algorithm
+    {
+        /**
+         * Each pixel takes the value of the source pixel under its center.
+         */
+        NEAREST("nearest neighbour"),
+        /**
+         * A pixel is set if set source pixels cover at least {@link SpriteScaler#setThreshold(double) threshold}
+         * of its area. With a low threshold thin lines survive shrinking, while nearest neighbour often drops them.
+         */
+        AREA("area coverage"),
+        /**
+         * Pixel-art upscaler that doubles the size while keeping diagonal edges smooth (Scale2x, also known as EPX).
+         * Applied as often as the size can be doubled, any remaining difference to the requested size
+         * is scaled with nearest neighbour.
+         */
+        SCALE2X("Scale2x / EPX");
+
+        private final String name;
+
+        Algorithm(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private Algorithm algorithm = Algorithm.NEAREST;
+    private double threshold = 0.5;
+
+    public SpriteScaler() {
+    }
+
+    public SpriteScaler(Algorithm algorithm) {
+        setAlgorithm( algorithm );
+    }
+
+    public void setAlgorithm(Algorithm algorithm)
+    {
+        if ( algorithm == null ) {
+            throw new IllegalArgumentException("Algorithm must not be NULL");
+        }
+        this.algorithm = algorithm;
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Sets the minimum fraction of a pixel's area that set source pixels need to cover for {@link Algorithm#AREA}.
+     *
+     * @param threshold fraction in the range (0,1]
+     */
+    public void setThreshold(double threshold)
+    {
+        if ( ! ( threshold > 0 && threshold <= 1 ) ) {
+            throw new IllegalArgumentException("Threshold needs to be in the range (0,1], was: "+threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Scales a sprite.
+     *
+     * @param sprite
+     * @param width
+     * @param height
+     */
+    public void scale(Sprite sprite,int width,int height)
+    {
+        if ( width < 1 || height < 1 ) {
+            throw new IllegalArgumentException("Size "+width+"x"+height+" is too small, needs to be at least 1x1");
+        }
+        if ( ! sprite.hasSize( width , height ) ) {
+            sprite.setBits( scale( sprite.bits() , sprite.getWidth() , sprite.getHeight() , width , height ) , width , height );
+        }
+    }
+
+    /**
+     * Scales sprites in parallel.
+     *
+     * @param sprites
+     * @param width
+     * @param height
+     */
+    public void scale(List<Sprite> sprites,int width,int height)
+    {
+        if ( width < 1 || height < 1 ) {
+            throw new IllegalArgumentException("Size "+width+"x"+height+" is too small, needs to be at least 1x1");
+        }
+        IntStream.range( 0 , sprites.size() ).parallel().forEach( i -> scale( sprites.get( i ) , width , height ) );
+    }
+
+    /**
+     * Scales all sprites of a set in parallel.
+     *
+     * @param set
+     * @param width
+     * @param height
+     */
+    public void scale(SpriteSet set,int width,int height) {
+        scale( set.getSprites() , width , height );
+    }
+
+    private long[] scale(long[] bits,int width,int height,int newWidth,int newHeight)
+    {
+        switch( algorithm )
+        {
+            case NEAREST:
+                return nearest( bits , width , height , newWidth , newHeight );
+            case AREA:
+                return area( bits , width , height , newWidth , newHeight , threshold );
+            case SCALE2X:
+                long[] result = bits;
+                int w = width;
+                int h = height;
+                while ( w * 2 <= newWidth && h * 2 <= newHeight )
+                {
+                    result = scale2x( result , w , h );
+                    w *= 2;
+                    h *= 2;
+                }
+                return nearest( result , w , h , newWidth , newHeight );
+            default:
+                throw new IllegalStateException("Unhandled algorithm: "+algorithm);
+        }
+    }
+
+    private static boolean isSet(long[] bits,int row,int x) {
+        return ( bits[ row + ( x >>> 6 ) ] & ( Long.MIN_VALUE >>> x ) ) != 0;
+    }
+
+    /**
+     * Nearest-neighbour scaling.
+     *
+     * Samples the source pixel whose area contains the center of a destination pixel.
+     *
+     * @param bits packed pixels, see {@link Sprite#bits()}
+     * @param width
+     * @param height
+     * @param newWidth
+     * @param newHeight
+     * @return packed pixels of the scaled sprite, always a new array
+     */
+    static long[] nearest(long[] bits,int width,int height,int newWidth,int newHeight)
+    {
+        final int srcWordsPerRow = Sprite.wordsPerRow( width );
+        final int dstWordsPerRow = Sprite.wordsPerRow( newWidth );
+        final long[] result = new long[ dstWordsPerRow * newHeight ];
+
+        final int[] columns = new int[ newWidth ];
+        for ( int x = 0 ; x < newWidth ; x++ ) {
+            columns[x] = (int) ( ( 2L * x + 1 ) * width / ( 2L * newWidth ) );
+        }
+        int previousRow = -1;
+        for ( int y = 0 ; y < newHeight ; y++ )
+        {
+            final int srcY = (int) ( ( 2L * y + 1 ) * height / ( 2L * newHeight ) );
+            final int dst = y * dstWordsPerRow;
+            if ( srcY == previousRow )
+            {
+                System.arraycopy( result , dst - dstWordsPerRow , result , dst , dstWordsPerRow );
+                continue;
+            }
+            previousRow = srcY;
+            final int src = srcY * srcWordsPerRow;
+            for ( int start = 0 , ptr = dst ; start < newWidth ; start += 64 )
+            {
+                final int end = Math.min( start + 64 , newWidth );
+                long word = 0;
+                for ( int x = start ; x < end ; x++ )
+                {
+                    final int srcX = columns[x];
+                    word = ( word << 1 ) | ( ( bits[ src + ( srcX >>> 6 ) ] >>> ( 63 - ( srcX & 63 ) ) ) & 1 );
+                }
+                result[ptr++] = word << ( 64 - ( end - start ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Area-coverage scaling.
+     *
+     * Both axes are mapped onto a common grid where a source pixel is <code>newWidth</code> units wide and a destination
+     * pixel <code>width</code> units, so that overlaps are exact integers. Coverage is summed horizontally per source
+     * row first, then vertically per destination column.
+     *
+     * @param bits packed pixels, see {@link Sprite#bits()}
+     * @param width
+     * @param height
+     * @param newWidth
+     * @param newHeight
+     * @param threshold minimum covered fraction of a destination pixel's area
+     * @return packed pixels of the scaled sprite, always a new array
+     */
+    static long[] area(long[] bits,int width,int height,int newWidth,int newHeight,double threshold)
+    {
+        final int srcWordsPerRow = Sprite.wordsPerRow( width );
+
+        // horizontal coverage of each destination column by each source row, in units of 1/width destination pixels
+        final long[] rows = new long[ height * newWidth ];
+        for ( int y = 0 ; y < height ; y++ )
+        {
+            final int src = y * srcWordsPerRow;
+            final int dst = y * newWidth;
+            for ( int x = 0 ; x < width ; x++ )
+            {
+                if ( ! isSet( bits , src , x ) ) {
+                    continue;
+                }
+                // source pixel spans [x*newWidth,(x+1)*newWidth), destination pixel dx spans [dx*width,(dx+1)*width)
+                final long from = (long) x * newWidth;
+                final long to = from + newWidth;
+                for ( int dx = (int) ( from / width ) ; dx < newWidth && (long) dx * width < to ; dx++ ) {
+                    rows[ dst + dx ] += Math.min( to , (long) ( dx + 1 ) * width ) - Math.max( from , (long) dx * width );
+                }
+            }
+        }
+
+        final int dstWordsPerRow = Sprite.wordsPerRow( newWidth );
+        final long[] result = new long[ dstWordsPerRow * newHeight ];
+        // a destination pixel's area is width * height units
+        final double minCoverage = threshold * width * height;
+        final long[] column = new long[ newHeight ];
+        for ( int dx = 0 ; dx < newWidth ; dx++ )
+        {
+            Arrays.fill( column , 0 );
+            for ( int y = 0 ; y < height ; y++ )
+            {
+                final long coverage = rows[ y * newWidth + dx ];
+                if ( coverage == 0 ) {
+                    continue;
+                }
+                final long from = (long) y * newHeight;
+                final long to = from + newHeight;
+                for ( int dy = (int) ( from / height ) ; dy < newHeight && (long) dy * height < to ; dy++ ) {
+                    column[dy] += coverage * ( Math.min( to , (long) ( dy + 1 ) * height ) - Math.max( from , (long) dy * height ) );
+                }
+            }
+            final long mask = Long.MIN_VALUE >>> dx;
+            for ( int dy = 0 ; dy < newHeight ; dy++ )
+            {
+                if ( column[dy] >= minCoverage ) {
+                    result[ dy * dstWordsPerRow + ( dx >>> 6 ) ] |= mask;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scale2x/EPX, doubles width and height.
+     *
+     * Each source pixel P with neighbours A (above), B (right), C (left) and D (below) becomes four pixels:
+     * <pre>
+     * E0 = C==A &amp;&amp; C!=D &amp;&amp; A!=B ? A : P      E1 = A==B &amp;&amp; A!=C &amp;&amp; B!=D ? B : P
+     * E2 = D==C &amp;&amp; D!=B &amp;&amp; C!=A ? C : P      E3 = B==D &amp;&amp; B!=A &amp;&amp; D!=C ? D : P
+     * </pre>
+     * Neighbours outside the sprite are taken to be equal to P. The rules are evaluated for 64 pixels at once
+     * with bitwise operations.
+     *
+     * @param bits packed pixels, see {@link Sprite#bits()}
+     * @param width
+     * @param height
+     * @return packed pixels of a sprite with twice the width and height
+     */
+    static long[] scale2x(long[] bits,int width,int height)
+    {
+        final int srcWordsPerRow = Sprite.wordsPerRow( width );
+        final int dstWordsPerRow = Sprite.wordsPerRow( width * 2 );
+        final long[] result = new long[ dstWordsPerRow * height * 2 ];
+        final int lastWord = srcWordsPerRow - 1;
+        // bit of the right-most pixel in the last word of a row
+        final long lastPixel = Long.MIN_VALUE >>> ( ( width - 1 ) & 63 );
+
+        for ( int y = 0 ; y < height ; y++ )
+        {
+            final int row = y * srcWordsPerRow;
+            final int above = y == 0 ? row : row - srcWordsPerRow;
+            final int below = y == height - 1 ? row : row + srcWordsPerRow;
+            final int dst0 = 2 * y * dstWordsPerRow;
+            final int dst1 = dst0 + dstWordsPerRow;
+            for ( int i = 0 ; i < srcWordsPerRow ; i++ )
+            {
+                final long p = bits[ row + i ];
+                final long a = bits[ above + i ];
+                final long d = bits[ below + i ];
+                // left neighbour shifted in from the previous word, right neighbour from the next one
+                long c = ( p >>> 1 ) | ( i == 0 ? p & Long.MIN_VALUE : bits[ row + i - 1 ] << 63 );
+                long b = ( p << 1 ) | ( i == lastWord ? 0 : bits[ row + i + 1 ] >>> 63 );
+                if ( i == lastWord ) {
+                    b = ( b & ~lastPixel ) | ( p & lastPixel );
+                }
+                final long e0 = select( ~( c ^ a ) & ( c ^ d ) & ( a ^ b ) , a , p );
+                final long e1 = select( ~( a ^ b ) & ( a ^ c ) & ( b ^ d ) , b , p );
+                final long e2 = select( ~( d ^ c ) & ( d ^ b ) & ( c ^ a ) , c , p );
+                final long e3 = select( ~( b ^ d ) & ( b ^ a ) & ( d ^ c ) , d , p );
+
+                // each source word becomes two destination words, the second one may lie beyond the end of the row
+                result[ dst0 + 2 * i ] = interleave( e0 >>> 32 , e1 >>> 32 );
+                result[ dst1 + 2 * i ] = interleave( e2 >>> 32 , e3 >>> 32 );
+                if ( 2 * i + 1 < dstWordsPerRow )
+                {
+                    result[ dst0 + 2 * i + 1 ] = interleave( e0 & 0xffffffffL , e1 & 0xffffffffL );
+                    result[ dst1 + 2 * i + 1 ] = interleave( e2 & 0xffffffffL , e3 & 0xffffffffL );
+                }
+            }
+            // clear padding bits
+            final long mask = Sprite.lastWordMask( width * 2 );
+            result[ dst0 + dstWordsPerRow - 1 ] &= mask;
+            result[ dst1 + dstWordsPerRow - 1 ] &= mask;
+        }
+        return result;
+    }
+
+    private static long select(long condition,long ifSet,long otherwise) {
+        return ( condition & ifSet ) | ( ~condition & otherwise );
+    }
+
+    /**
+     * Interleaves two 32-bit values, left-most pixels first.
+     */
+    private static long interleave(long left,long right) {
+        return ( spread( left ) << 1 ) | spread( right );
+    }
+
+    /**
+     * Moves bit <code>i</code> to bit <code>2*i</code>.
+     */
+    private static long spread(long x)
+    {
+        x = ( x | ( x << 16 ) ) & 0x0000FFFF0000FFFFL;
+        x = ( x | ( x << 8 ) ) & 0x00FF00FF00FF00FFL;
+        x = ( x | ( x << 4 ) ) & 0x0F0F0F0F0F0F0F0FL;
+        x = ( x | ( x << 2 ) ) & 0x3333333333333333L;
+        return ( x | ( x << 1 ) ) & 0x5555555555555555L;
+    }
+}
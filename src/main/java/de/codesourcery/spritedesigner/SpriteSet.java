@@ -1,13 +1,16 @@
 package de.codesourcery.spritedesigner;
 
 import java.awt.Dimension;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
-import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import de.codesourcery.spritedesigner.Sprite.Flip;
 
@@ -15,7 +18,21 @@ public class SpriteSet implements Serializable
 {
     public static final long serialVersionUID = 44L;
     
-    private final List<Sprite> sprites = new ArrayList<>();
+    private final List<Sprite> sprites;
+    
+    public SpriteSet() {
+        this( new ArrayList<>() );
+    }
+    
+    /**
+     * Create instance backed by a custom list.
+     * 
+     * @param sprites list to use, must support all optional operations
+     * @see SpriteLibrary
+     */
+    SpriteSet(List<Sprite> sprites) {
+        this.sprites = sprites;
+    }
     
     public void add(Sprite g) {
         this.sprites.add( g );
@@ -99,67 +116,159 @@ public class SpriteSet implements Serializable
         sprites.set( idx2 , a );
     }
     
+    /**
+     * Rotate all sprites clock-wise by 90 degrees.
+     */
+    public void rotateCW() 
+    {
+        final SpriteRotator rotator = new SpriteRotator();
+        sprites.forEach( rotator::rotateCW );
+    }
+    
+    /**
+     * Rotate all sprites counter clock-wise by 90 degrees.
+     */
+    public void rotateCCW() 
+    {
+        final SpriteRotator rotator = new SpriteRotator();
+        sprites.forEach( rotator::rotateCCW );
+    }
+    
     public byte[] getDataRows(boolean onlyMapped) 
     {
-        return accumulate( onlyMapped , gl -> gl.getDataRows(Flip.NONE) );
+        return accumulate( onlyMapped , SpriteEncoder.rows( Flip.NONE ) );
+    }
+    
+    private byte[] accumulate( boolean onlyMapped , SpriteEncoder encoder) 
+    {
+        final byte[] result = new byte[ sizeInBytes( onlyMapped , encoder ) ];
+        encode( onlyMapped , encoder , ByteBuffer.wrap( result ) , 0 );
+        return result;
     }
     
-    private byte[] accumulate( boolean onlyMapped , Function<Sprite,byte[]> prod) 
+    /**
+     * Returns the number of bytes {@link #encode(boolean, SpriteEncoder, ByteBuffer, int)} will write.
+     * 
+     * @param onlyMapped whether to only include sprites that have an index
+     * @param encoder
+     * @return
+     */
+    public int sizeInBytes(boolean onlyMapped,SpriteEncoder encoder) 
     {
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
-        sprites.stream().filter( in -> onlyMapped ? in.hasIndex() : true ).forEach( sprite -> 
+        int result = 0;
+        for ( Sprite sprite : sprites ) 
         {
-           try 
-           {
-               out.write( prod.apply( sprite ) );
-        } catch (IOException e) {
-            e.printStackTrace();
+            if ( ! onlyMapped || sprite.hasIndex() ) {
+                result += encoder.sizeInBytes( sprite );
+            }
         }
-        });
-        return out.toByteArray();
+        return result;
+    }
+    
+    /**
+     * Encodes sprites back-to-back into a buffer.
+     * 
+     * @param onlyMapped whether to only include sprites that have an index
+     * @param encoder
+     * @param buffer buffer to write to, needs to have enough space for {@link #sizeInBytes(boolean, SpriteEncoder)} bytes
+     * @param offset absolute offset where to start writing
+     * @return number of bytes written
+     * @see SpriteSetExporter#setParallelism(int)
+     */
+    public int encode(boolean onlyMapped,SpriteEncoder encoder,ByteBuffer buffer,int offset) 
+    {
+        return new SpriteSetExporter( this ).encode( onlyMapped , encoder , buffer , offset );
     }
     
     public byte[] getDataColumns(boolean onlyMapped) 
     {    
-        return accumulate( onlyMapped , gl -> gl.getDataColumns(Flip.NONE) );
+        return accumulate( onlyMapped , SpriteEncoder.columns( Flip.NONE ) );
     }
     
     public byte[] getDataColumns(boolean onlyMapped,int bitsPerColumn) 
     {    
-        return accumulate( onlyMapped , gl -> gl.getDataColumns( bitsPerColumn ) );
+        return accumulate( onlyMapped , SpriteEncoder.pages( bitsPerColumn ) );
     }    
     
+    /**
+     * Streams encoded sprites back-to-back to an output stream.
+     * 
+     * @param onlyMapped whether to only include sprites that have an index
+     * @param encoder
+     * @param out stream to write to, will not be closed
+     * @return number of bytes written
+     * @throws IOException
+     * @see SpriteSetExporter
+     */
+    public long writeData(boolean onlyMapped,SpriteEncoder encoder,OutputStream out) throws IOException 
+    {
+        return new SpriteSetExporter( this ).writeData( onlyMapped , encoder , out );
+    }
+    
+    /**
+     * Streams encoded sprites back-to-back to a channel.
+     * 
+     * @param onlyMapped whether to only include sprites that have an index
+     * @param encoder
+     * @param out channel to write to, will not be closed
+     * @return number of bytes written
+     * @throws IOException
+     * @see SpriteSetExporter
+     */
+    public long writeData(boolean onlyMapped,SpriteEncoder encoder,WritableByteChannel out) throws IOException 
+    {
+        return new SpriteSetExporter( this ).writeData( onlyMapped , encoder , out );
+    }
+    
+    /**
+     * Streams all mapped sprites as assembly to a writer.
+     * 
+     * @param prefix
+     * @param encoder
+     * @param out writer to write to, will not be closed
+     * @throws IOException
+     * @see SpriteSetExporter
+     */
+    public void writeAsAssembly(String prefix,SpriteEncoder encoder,Writer out) throws IOException 
+    {
+        new SpriteSetExporter( this ).writeAsAssembly( prefix , encoder , out );
+    }
+    
+    /**
+     * Streams the character-to-sprite mapping table as assembly to a writer.
+     * 
+     * @param prefix
+     * @param out writer to write to, will not be closed
+     * @throws IOException
+     * @see SpriteSetExporter
+     */
+    public void writeSpriteMappingAsAssembly(String prefix,Writer out) throws IOException 
+    {
+        new SpriteSetExporter( this ).writeSpriteMappingAsAssembly( prefix , out );
+    }
+    
     public String getDataRowsAsAssembly(String prefix,Flip flip) 
     {
-        return getAsAssembly( prefix , gl -> gl.getDataRows(flip) );
+        return getAsAssembly( prefix , SpriteEncoder.rows( flip ) );
     }
     
     public String getDataColumnsAsAssembly(String prefix,int bitsPerColumn) {
-        return getAsAssembly( prefix , gl -> gl.getDataColumns(bitsPerColumn) );
+        return getAsAssembly( prefix , SpriteEncoder.pages( bitsPerColumn ) );
     }
     
     public String getDataColumnsAsAssembly(String prefix,Flip flip) {
-        return getAsAssembly( prefix , gl -> gl.getDataColumns(flip) );
+        return getAsAssembly( prefix , SpriteEncoder.columns( flip ) );
     }
     
-    private String getAsAssembly(String prefix,Function<Sprite,byte[]> mapper) 
+    private String getAsAssembly(String prefix,SpriteEncoder encoder) 
     {
-        final List<Sprite> filtered = sprites.stream().filter( Sprite::hasIndex).collect( Collectors.toList() );
-        final HexWriter writer = new HexWriter(16,prefix+".db ");
-        for ( final Sprite sprite : filtered )
-        {
-            writer.appendHexString( mapper.apply( sprite ) );
-            if ( sprite.index() >= 32 )
-            {
-                writer.append( " ; '" ).append( (char) sprite.index() ).append( "'" );
-            }
-            else
-            {
-                writer.append( " ; not printable" );
-            }
-            writer.maybeAppendNewline();
+        final StringWriter out = new StringWriter();
+        try {
+            writeAsAssembly( prefix , encoder , out );
+        } catch (IOException e) {
+            throw new UncheckedIOException( e ); // can't happen with a StringWriter
         }
-        return writer.toString();
+        return out.toString();
     }
     
     public boolean isEmpty() {
@@ -168,161 +277,13 @@ public class SpriteSet implements Serializable
     
     public String getSpriteMappingAsAssembly(String prefix) 
     {
-        final List<Sprite> filtered = sprites.stream().filter( Sprite::hasIndex ).collect( Collectors.toList() );
-        final boolean allHaveSameSize = allSpritesHaveSameSizeInBytes( Sprite::hasIndex );
-        
-        final Map<Integer,Integer> asciiToIndex = new HashMap<>();
-        for ( int i = 0 ; i < filtered.size() ; i++ ) 
-        {
-            asciiToIndex.put( filtered.get(i).index() , i );
-        }
-        
-        final HexWriter result = new HexWriter( 16 , prefix + ".db " );
-        if ( allHaveSameSize ) 
-        {
-            result.result.append("; All sprites have the same size,this table maps to the sprite index");
-            if ( ! isEmpty() ) {
-                result.result.append("(").append( sprites.get(0).getWidth()).append( "x").append(+sprites.get(0).getHeight()).append(" pixels)");
-            }
-        } else {
-            result.result.append("; Sprites have different sizes,this mapping table holds 4-byte entries with each containing 16-bit offset,sprite width (pixels),sprite height (pixels)");
-        }
-        result.result.append("\n");
-        
-        int tableByteOffset = 0;
-        for ( int i = 0 ; i < 256 ; i++ ) 
-        {
-            final Integer glyphIndex = asciiToIndex.get( i );
-            if ( glyphIndex != null ) 
-            {
-                final Sprite sprite = sprites.get( glyphIndex );
-                if ( allHaveSameSize ) {
-                    result.appendHexByteString(glyphIndex);
-                } 
-                else 
-                {
-                    System.out.println("Got sprite at offset "+tableByteOffset);
-                    result.appendHexWordStringLittleEndian( tableByteOffset )
-                          .appendHexByteString( sprite.getWidth() )
-                          .appendHexByteString( sprite.getHeight() );
-                }
-                System.out.println("Sprite "+glyphIndex+" has size "+sprite.getSizeInBytes());
-                tableByteOffset += sprite.getSizeInBytes();
-            } else {
-                if ( allHaveSameSize ) { // one byte per entry 
-                    result.appendHexByteString( 0 );
-                } else {
-                    result.appendHexWordStringLittleEndian( 0 ); // 4 bytes per entry (16 bit offset,sprite width,sprite height)
-                    result.appendHexWordStringLittleEndian( 0 );
-                }
-            }
-        }
-        return result.toString();
-    }
-    
-    private static class HexWriter 
-    {
-        private static final String HEX_CHARS = "0123456789abcdef";
-        
-        protected final StringBuilder result = new StringBuilder();
-
-        private final String linePrefix;
-        private final int bytesPerRow;
-        
-        private int currentByteCount=0;
-        private boolean printLinefeed;
-        
-        public HexWriter(int bytesPerRow) 
-        {
-            this.bytesPerRow = bytesPerRow;
-            this.linePrefix = null;
-        }
-        
-        public String toString() {
-            return result.toString();
-        }
-        
-        public HexWriter(int bytesPerRow,String linePrefix) 
-        {
-            this.bytesPerRow = bytesPerRow;
-            this.linePrefix = linePrefix;
-        }
-        
-        public HexWriter append(String s) {
-            result.append( s );
-            return this;
-        }
-        
-        public HexWriter append(char s) {
-            result.append( s );
-            return this;
-        }
-        
-        private HexWriter writeByte(String s) 
-        {
-            if ( printLinefeed ) 
-            {
-                appendNewline();
-                currentByteCount = 0;
-                printLinefeed = false;
-            }
-            if ( currentByteCount != 0 ) 
-            {
-                result.append( "," );
-            } 
-            else if ( linePrefix != null ) 
-            {
-                result.append( linePrefix );
-            }
-            result.append(s);
-            currentByteCount++;
-            if ( currentByteCount == bytesPerRow ) 
-            {
-                currentByteCount = 0;
-                printLinefeed = true;
-            }
-            return this;
-        }
-        
-        public HexWriter maybeAppendNewline() {
-            printLinefeed = true;
-            return this;
-        }        
-        
-        public HexWriter appendNewline() {
-            result.append( "\n" );
-            return this;
-        }
-        
-        public HexWriter appendHexByteString(int value) 
-        {
-            return writeByte( "0x"+byteToHex(value) );
-        }
-
-        public HexWriter appendHexWordStringLittleEndian(int value) 
-        {
-            writeByte( "0x"+byteToHex( value & 0xff ) );
-            return writeByte( "0x"+byteToHex( (value & 0xff00) >>> 8) );
-        }    
-
-        private String byteToHex(int value) 
-        {
-            if ( value < 0 || value > 255 ) {
-                throw new IllegalArgumentException("Value out of byte range: "+value);
-            }
-            final int lo = value  & 0x0f;
-            final int hi = (value & 0xf0)>>>4;
-            return Character.toString( HEX_CHARS.charAt( hi ) ) + Character.toString( HEX_CHARS.charAt(lo) );
+        final StringWriter out = new StringWriter();
+        try {
+            writeSpriteMappingAsAssembly( prefix , out );
+        } catch (IOException e) {
+            throw new UncheckedIOException( e ); // can't happen with a StringWriter
         }
-
-        public HexWriter appendHexString(byte[] data) 
-        {
-            for ( byte b : data ) 
-            {
-                appendHexByteString( b & 0xff );
-            }
-            return this;
-        }    
+        return out.toString();
     }
     
     public Dimension getMinSize(Predicate<Sprite> pred) 
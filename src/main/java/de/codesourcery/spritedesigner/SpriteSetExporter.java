@@ -0,0 +1,507 @@
+package de.codesourcery.spritedesigner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+
+/**
+ * Streams encoded sprite data to byte channels, output streams or writers.
+ * 
+ * Sprites are encoded one after another into a fixed-size buffer that gets flushed 
+ * whenever the next sprite would not fit, so memory usage does not depend on the number 
+ * of sprites being exported. 
+ * 
+ * With a parallelism level &gt; 1, sprites are encoded concurrently on a dedicated {@link ForkJoinPool}.
+ * Each sprite still ends up at exactly the same position as with sequential encoding, so the output 
+ * is byte-identical regardless of the parallelism level. 
+ * 
+ * With {@link #setDeduplicate(boolean) de-duplication} enabled, sprites with the same size and pixels
+ * as an earlier sprite are skipped and the mapping table points all of them to the same data.
+ * 
+ * Instances are not thread-safe.
+ */
+public class SpriteSetExporter
+{
+    public static final int DEFAULT_BUFFER_SIZE = 64*1024;
+
+    // max. number of sprites encoded in one go
+    private static final int MAX_BATCH_SIZE = 4096;
+    
+    // number of sprites one fork-join task encodes without splitting further
+    private static final int SPRITES_PER_TASK = 32;
+    
+    // number of sprites per chunk of assembly text
+    private static final int SPRITES_PER_CHUNK = 64;
+
+    private final SpriteSet spriteSet;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int parallelism = 1;
+    private boolean deduplicate;
+
+    @FunctionalInterface
+    private interface Sink 
+    {
+        public void write(ByteBuffer buffer,int len) throws IOException;
+    }
+
+    public SpriteSetExporter(SpriteSet spriteSet) 
+    {
+        if ( spriteSet == null ) {
+            throw new IllegalArgumentException("Sprite set must not be NULL");
+        }
+        this.spriteSet = spriteSet;
+    }
+
+    /**
+     * Sets the size of the output buffer.
+     * 
+     * The buffer will still be enlarged if a single encoded sprite does not fit. 
+     * 
+     * @param bufferSize
+     */
+    public void setBufferSize(int bufferSize) 
+    {
+        if ( bufferSize < 1 ) {
+            throw new IllegalArgumentException("Buffer size must be > 0, was: "+bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the number of threads to use for encoding sprites.
+     * 
+     * @param parallelism number of threads, 1 encodes sprites sequentially on the calling thread
+     */
+    public void setParallelism(int parallelism) 
+    {
+        if ( parallelism < 1 ) {
+            throw new IllegalArgumentException("Parallelism must be > 0, was: "+parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets whether to write sprites that look exactly like an earlier sprite only once.
+     * 
+     * @param deduplicate
+     * @see DedupIndex
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    private List<Sprite> select(boolean onlyMapped) 
+    {
+        final List<Sprite> result;
+        if ( ! onlyMapped ) {
+            result = spriteSet.getSprites();
+        } else {
+            result = spriteSet.getSprites().stream().filter( Sprite::hasIndex ).collect( Collectors.toList() );
+        }
+        return deduplicate ? DedupIndex.of( result ).getUniqueSprites() : result;
+    }
+
+    /**
+     * Returns the number of bytes {@link #encode(boolean, SpriteEncoder, ByteBuffer, int)} will write.
+     * 
+     * @param onlyMapped whether to only include sprites that have an index
+     * @param encoder
+     * @return
+     */
+    public int sizeInBytes(boolean onlyMapped,SpriteEncoder encoder) 
+    {
+        int result = 0;
+        for ( Sprite sprite : select( onlyMapped ) ) {
+            result += encoder.sizeInBytes( sprite );
+        }
+        return result;
+    }
+
+    private ForkJoinPool createPool() {
+        return parallelism > 1 ? new ForkJoinPool( parallelism ) : null;
+    }
+
+    /**
+     * Encodes sprites back-to-back into a buffer.
+     * 
+     * @param onlyMapped whether to only include sprites that have an index
+     * @param encoder
+     * @param buffer buffer to write to, needs to have enough space for {@link #sizeInBytes(boolean, SpriteEncoder)} bytes
+     * @param offset absolute offset where to start writing
+     * @return number of bytes written
+     */
+    public int encode(boolean onlyMapped,SpriteEncoder encoder,ByteBuffer buffer,int offset) 
+    {
+        final List<Sprite> sprites = select( onlyMapped );
+        final int[] offsets = new int[ sprites.size() ];
+        int ptr = offset;
+        for ( int i = 0 , len = sprites.size() ; i < len ; i++ ) 
+        {
+            offsets[i] = ptr;
+            ptr += encoder.sizeInBytes( sprites.get(i) );
+        }
+        final ForkJoinPool pool = createPool();
+        try {
+            encode( pool , new EncodeTask( sprites , 0 , sprites.size() , offsets , encoder , buffer ) );
+        } finally {
+            if ( pool != null ) {
+                pool.shutdown();
+            }
+        }
+        return ptr - offset;
+    }
+
+    private static void encode(ForkJoinPool pool,EncodeTask task) 
+    {
+        if ( pool != null ) {
+            pool.invoke( task );
+        } else {
+            task.encode();
+        }
+    }
+
+    /**
+     * Encodes a range of sprites, each at a precomputed offset.
+     */
+    private static final class EncodeTask extends RecursiveAction 
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Sprite> sprites;
+        private final int start;
+        private final int end;
+        private final int[] offsets; // offsets[0] is the offset of sprite 'offsetsStart'
+        private final int offsetsStart;
+        private final SpriteEncoder encoder;
+        private final ByteBuffer buffer;
+
+        public EncodeTask(List<Sprite> sprites,int start,int end,int[] offsets,SpriteEncoder encoder,ByteBuffer buffer)
+        {
+            this( sprites , start , end , offsets , start , encoder , buffer );
+        }
+
+        private EncodeTask(List<Sprite> sprites,int start,int end,int[] offsets,int offsetsStart,SpriteEncoder encoder,ByteBuffer buffer)
+        {
+            this.sprites = sprites;
+            this.start = start;
+            this.end = end;
+            this.offsets = offsets;
+            this.offsetsStart = offsetsStart;
+            this.encoder = encoder;
+            this.buffer = buffer;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( end - start <= SPRITES_PER_TASK ) {
+                encode();
+                return;
+            }
+            final int mid = (start+end) >>> 1;
+            invokeAll( new EncodeTask( sprites , start , mid , offsets , offsetsStart , encoder , buffer ),
+                       new EncodeTask( sprites , mid , end , offsets , offsetsStart , encoder , buffer ) );
+        }
+
+        public void encode() 
+        {
+            for ( int i = start ; i < end ; i++ ) {
+                encoder.encode( sprites.get( i ) , buffer , offsets[i-offsetsStart] );
+            }
+        }
+    }
+
+    /**
+     * Writes encoded sprites back-to-back to an output stream.
+     * 
+     * @param onlyMapped whether to only include sprites that have an index
+     * @param encoder
+     * @param out stream to write to, will not be closed
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public long writeData(boolean onlyMapped,SpriteEncoder encoder,OutputStream out) throws IOException 
+    {
+        return writeData( onlyMapped , encoder , (buffer,len) -> out.write( buffer.array() , 0 , len ) );
+    }
+
+    /**
+     * Writes encoded sprites back-to-back to a channel.
+     * 
+     * @param onlyMapped whether to only include sprites that have an index
+     * @param encoder
+     * @param out channel to write to, will not be closed
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public long writeData(boolean onlyMapped,SpriteEncoder encoder,WritableByteChannel out) throws IOException 
+    {
+        return writeData( onlyMapped , encoder , (buffer,len) -> 
+        {
+            buffer.limit( len ).position( 0 );
+            while ( buffer.hasRemaining() ) {
+                out.write( buffer );
+            }
+            buffer.clear();
+        });
+    }
+
+    private long writeData(boolean onlyMapped,SpriteEncoder encoder,Sink sink) throws IOException 
+    {
+        final List<Sprite> sprites = select( onlyMapped );
+        final int[] offsets = new int[ Math.min( MAX_BATCH_SIZE , sprites.size() ) ];
+        ByteBuffer buffer = ByteBuffer.allocate( bufferSize );
+        long written = 0;
+        final ForkJoinPool pool = createPool();
+        try 
+        {
+            for ( int start = 0 , count = sprites.size() ; start < count ; ) 
+            {
+                // determine how many sprites fit into the buffer
+                int end = start;
+                int ptr = 0;
+                while ( end < count && end - start < offsets.length ) 
+                {
+                    final int len = encoder.sizeInBytes( sprites.get( end ) );
+                    if ( ptr + len > buffer.capacity() ) 
+                    {
+                        if ( end > start ) {
+                            break;
+                        }
+                        buffer = ByteBuffer.allocate( len );
+                    }
+                    offsets[end-start] = ptr;
+                    ptr += len;
+                    end++;
+                }
+                encode( pool , new EncodeTask( sprites , start , end , offsets , encoder , buffer ) );
+                if ( ptr > 0 ) {
+                    sink.write( buffer , ptr );
+                }
+                written += ptr;
+                start = end;
+            }
+        } 
+        finally 
+        {
+            if ( pool != null ) {
+                pool.shutdown();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes all mapped sprites as assembly <code>.db</code> directives.
+     * 
+     * @param prefix prefix to write at the start of each line
+     * @param encoder
+     * @param out writer to write to, will be flushed but not closed
+     * @throws IOException
+     */
+    public void writeAsAssembly(String prefix,SpriteEncoder encoder,Writer out) throws IOException 
+    {
+        final List<Sprite> sprites = select( true );
+        final ForkJoinPool pool = createPool();
+        if ( pool == null ) 
+        {
+            writeAsAssembly( prefix , encoder , sprites , 0 , sprites.size() , out );
+            out.flush();
+            return;
+        }
+        
+        // text is generated in chunks of sprites that are written in their original order,
+        // only a limited number of chunks is in flight at any time to keep memory usage bounded 
+        try 
+        {
+            final int chunksPerWave = parallelism * 4;
+            final List<ForkJoinTask<StringBuilder>> wave = new ArrayList<>( chunksPerWave );
+            for ( int start = 0 , count = sprites.size() ; start < count ; ) 
+            {
+                wave.clear();
+                for ( int i = 0 ; i < chunksPerWave && start < count ; i++ , start += SPRITES_PER_CHUNK ) 
+                {
+                    final int chunkStart = start;
+                    final int chunkEnd = Math.min( count , start + SPRITES_PER_CHUNK );
+                    wave.add( pool.submit( () -> 
+                    {
+                        final StringBuilder text = new StringBuilder();
+                        try {
+                            writeAsAssembly( prefix , encoder , sprites , chunkStart , chunkEnd , text );
+                        } catch (IOException e) {
+                            throw new UncheckedIOException( e ); // can't happen with a StringBuilder
+                        }
+                        return text;
+                    }));
+                }
+                for ( ForkJoinTask<StringBuilder> task : wave ) {
+                    out.append( task.join() );
+                }
+            }
+        } 
+        finally {
+            pool.shutdown();
+        }
+        out.flush();
+    }
+
+    private static void writeAsAssembly(String prefix,SpriteEncoder encoder,List<Sprite> sprites,int start,int end,Appendable out) throws IOException 
+    {
+        final HexWriter writer = new HexWriter(16,prefix+".db ",out);
+        if ( start > 0 ) {
+            // continue where the previous sprite left off
+            writer.maybeAppendNewline();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate( 0 );
+        for ( int i = start ; i < end ; i++ )
+        {
+            final Sprite sprite = sprites.get( i );
+            final int len = encoder.sizeInBytes( sprite );
+            if ( len > buffer.capacity() ) {
+                buffer = ByteBuffer.allocate( len );
+            }
+            encoder.encode( sprite , buffer , 0 );
+            writer.appendHexString( buffer , 0 , len );
+            if ( sprite.index() >= 32 )
+            {
+                writer.append( " ; '" ).append( (char) sprite.index() ).append( "'" );
+            }
+            else
+            {
+                writer.append( " ; not printable" );
+            }
+            writer.maybeAppendNewline();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the table that maps character codes 0...255 to sprites as assembly <code>.db</code> directives.
+     * 
+     * @param prefix prefix to write at the start of each line
+     * @param out writer to write to, will be flushed but not closed
+     * @throws IOException
+     * @see #writeSpriteMappingAsAssembly(String, SpriteEncoder, Writer)
+     */
+    public void writeSpriteMappingAsAssembly(String prefix,Writer out) throws IOException 
+    {
+        writeSpriteMappingAsAssembly( prefix , null , out );
+    }
+
+    /**
+     * Writes the table that maps character codes 0...255 to sprites as assembly <code>.db</code> directives.
+     * 
+     * If sprites have different sizes, the table holds byte offsets into the sprite data. 
+     * 
+     * @param prefix prefix to write at the start of each line
+     * @param encoder encoder the sprite data was written with. Offsets are then calculated in the order
+     * the sprite data was written. If <code>null</code> and de-duplication is disabled, offsets are calculated
+     * from {@link Sprite#getSizeInBytes()} in character code order, like older versions did.
+     * @param out writer to write to, will be flushed but not closed
+     * @throws IOException
+     */
+    public void writeSpriteMappingAsAssembly(String prefix,SpriteEncoder encoder,Writer out) throws IOException 
+    {
+        final List<Sprite> sprites = spriteSet.getSprites();
+        final List<Sprite> filtered = sprites.stream().filter( Sprite::hasIndex ).collect( Collectors.toList() );
+        final boolean allHaveSameSize = spriteSet.allSpritesHaveSameSizeInBytes( Sprite::hasIndex );
+
+        // sprites in the order they were written
+        final DedupIndex dedup = deduplicate ? DedupIndex.of( filtered ) : null;
+        final List<Sprite> data = dedup != null ? dedup.getUniqueSprites() : filtered;
+        int[] offsets = null;
+        if ( dedup != null || encoder != null ) 
+        {
+            offsets = new int[ data.size() ];
+            for ( int i = 0 , ptr = 0 , len = data.size() ; i < len ; i++ ) 
+            {
+                offsets[i] = ptr;
+                ptr += encoder != null ? encoder.sizeInBytes( data.get(i) ) : data.get(i).getSizeInBytes();
+            }
+        }
+
+        final Map<Integer,Integer> asciiToIndex = new HashMap<>();
+        for ( int i = 0 ; i < filtered.size() ; i++ ) 
+        {
+            asciiToIndex.put( filtered.get(i).index() , i );
+        }
+
+        final HexWriter result = new HexWriter( 16 , prefix + ".db " , out );
+        if ( allHaveSameSize ) 
+        {
+            result.append("; All sprites have the same size,this table maps to the sprite index");
+            if ( ! sprites.isEmpty() ) {
+                result.append("(").append( sprites.get(0).getWidth()).append( "x").append(+sprites.get(0).getHeight()).append(" pixels)");
+            }
+        } else {
+            result.append("; Sprites have different sizes,this mapping table holds 4-byte entries with each containing 16-bit offset,sprite width (pixels),sprite height (pixels)");
+        }
+        result.append("\n");
+
+        int tableByteOffset = 0;
+        for ( int i = 0 ; i < 256 ; i++ ) 
+        {
+            final Integer glyphIndex = asciiToIndex.get( i );
+            if ( glyphIndex != null && offsets != null ) 
+            {
+                final int dataIndex = dedup != null ? dedup.uniqueIndex( glyphIndex ) : glyphIndex;
+                final Sprite sprite = data.get( dataIndex );
+                if ( allHaveSameSize ) {
+                    result.appendHexByteString( dataIndex );
+                } 
+                else 
+                {
+                    result.appendHexWordStringLittleEndian( offsets[ dataIndex ] )
+                    .appendHexByteString( sprite.getWidth() )
+                    .appendHexByteString( sprite.getHeight() );
+                }
+            }
+            else if ( glyphIndex != null ) 
+            {
+                final Sprite sprite = sprites.get( glyphIndex );
+                if ( allHaveSameSize ) {
+                    result.appendHexByteString(glyphIndex);
+                } 
+                else 
+                {
+                    result.appendHexWordStringLittleEndian( tableByteOffset )
+                    .appendHexByteString( sprite.getWidth() )
+                    .appendHexByteString( sprite.getHeight() );
+                }
+                tableByteOffset += sprite.getSizeInBytes();
+            } else {
+                if ( allHaveSameSize ) { // one byte per entry 
+                    result.appendHexByteString( 0 );
+                } else {
+                    result.appendHexWordStringLittleEndian( 0 ); // 4 bytes per entry (16 bit offset,sprite width,sprite height)
+                    result.appendHexWordStringLittleEndian( 0 );
+                }
+            }
+        }
+        result.flush();
+        out.flush();
+    }
+}
@@ -0,0 +1,385 @@
+package de.codesourcery.spritedesigner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes sprite sets in a compact binary format.
+ * 
+ * All values are big-endian.
+ * <pre>
+ * header (20 bytes):
+ *   magic           4 bytes  'S','P','R','S'
+ *   version         u16      {@link #VERSION}
+ *   flags           u16      bit 0 set = payload is DEFLATE-compressed
+ *   sprite count    i32
+ *   payload length  i64      number of payload bytes as stored in the file
+ *   
+ * payload: 
+ *   index, one fixed-size entry (16 bytes) per sprite:
+ *     width         u16
+ *     height        u16
+ *     index         i32      -1 if the sprite has no index
+ *     data offset   i64      relative to the start of the pixel data
+ *   pixel data, one block per sprite:
+ *     rows of ceil(width/8) bytes, left-most pixel in bit 7
+ *     
+ * trailer:
+ *   CRC32C          u32      of header and payload as stored
+ * </pre>
+ * 
+ * {@link #load(File)} also reads files written by older versions of this program
+ * using Java serialization.
+ */
+public class SpriteSetFile
+{
+    public static final int MAGIC = 0x53505253; // 'SPRS'
+    public static final int VERSION = 1;
+
+    public static final int FLAG_COMPRESSED = 1<<0;
+
+    public static final int HEADER_SIZE = 20;
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xaced;
+
+    private SpriteSetFile() {
+    }
+
+    /**
+     * Loads a sprite set, either in this binary format or as written by older versions using Java serialization.
+     * 
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static SpriteSet load(File file) throws IOException 
+    {
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( file ) , 64*1024 ) ) {
+            return load( in , file.getAbsolutePath() );
+        }
+    }
+
+    /**
+     * Loads a sprite set, either in this binary format or as written by older versions using Java serialization.
+     * 
+     * @param in stream to read from, needs to support {@link InputStream#mark(int)}. Closed when reading the old format.
+     * @param name name of the input for error messages
+     * @return
+     * @throws IOException
+     */
+    public static SpriteSet load(InputStream in,String name) throws IOException 
+    {
+        in.mark( 4 );
+        final int magic = new DataInputStream( in ).readInt();
+        in.reset();
+        if ( magic == MAGIC ) {
+            return read( in );
+        }
+        if ( (magic >>> 16) == JAVA_SERIALIZATION_MAGIC ) 
+        {
+            try ( ObjectInputStream objIn = new ObjectInputStream( in ) ) {
+                return (SpriteSet) objIn.readObject();
+            } 
+            catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Not a sprite set: "+name,e);
+            }
+        }
+        throw new IOException("Unrecognized file format: "+name);
+    }
+
+    /**
+     * Writes a sprite set to a file.
+     * 
+     * @param set
+     * @param file
+     * @param compress whether to DEFLATE-compress the payload
+     * @throws IOException
+     */
+    public static void save(SpriteSet set,File file,boolean compress) throws IOException 
+    {
+        try ( OutputStream out = new FileOutputStream( file ) ) {
+            write( set , out , compress );
+        }
+    }
+
+    /**
+     * Reads a sprite set.
+     * 
+     * @param input stream to read from, will not be closed. Should be buffered. 
+     * @return
+     * @throws IOException
+     */
+    public static SpriteSet read(InputStream input) throws IOException 
+    {
+        final CRC32C crc = new CRC32C();
+        final DataInputStream header = new DataInputStream( new CheckedInputStream( input , crc ) );
+
+        final int magic = header.readInt();
+        if ( magic != MAGIC ) {
+            throw new IOException("Not a sprite set file");
+        }
+        final int version = header.readUnsignedShort();
+        if ( version != VERSION ) {
+            throw new IOException("Unsupported file version "+version+", expected "+VERSION);
+        }
+        final int flags = header.readUnsignedShort();
+        final int count = header.readInt();
+        final long payloadLength = header.readLong();
+        if ( count < 0 || payloadLength < 0 ) {
+            throw new IOException("Corrupted file header");
+        }
+
+        final LimitedInputStream limited = new LimitedInputStream( new CheckedInputStream( input , crc ) , payloadLength );
+        final Inflater inflater = (flags & FLAG_COMPRESSED) != 0 ? new Inflater() : null;
+        final SpriteSet result = new SpriteSet();
+        try 
+        {
+            final DataInputStream payload = new DataInputStream( inflater != null ? new InflaterInputStream( limited , inflater , 64*1024 ) : limited );
+            
+            final int[] indices = new int[ count ];
+            for ( int i = 0 ; i < count ; i++ ) 
+            {
+                final int width = payload.readUnsignedShort();
+                final int height = payload.readUnsignedShort();
+                indices[i] = payload.readInt();
+                payload.readLong(); // data offset, only needed for random access
+                result.add( new Sprite( width , height ) );
+            }
+            
+            byte[] buffer = new byte[0];
+            for ( int i = 0 ; i < count ; i++ ) 
+            {
+                final Sprite sprite = result.sprite( i );
+                final int len = sprite.sizeInBytesPacked();
+                if ( len > buffer.length ) {
+                    buffer = new byte[ len ];
+                }
+                payload.readFully( buffer , 0 , len );
+                sprite.readRows( buffer , 0 );
+                if ( indices[i] >= 0 ) {
+                    sprite.setIndex( indices[i] );
+                }
+            }
+            // consume any unread payload bytes so that the CRC covers everything
+            limited.skipRemaining();
+        } 
+        finally 
+        {
+            if ( inflater != null ) {
+                inflater.end();
+            }
+        }
+
+        final int expectedCrc = new DataInputStream( input ).readInt();
+        if ( (int) crc.getValue() != expectedCrc ) {
+            throw new IOException("Checksum mismatch, file is corrupted");
+        }
+        return result;
+    }
+
+    /**
+     * Writes a sprite set.
+     * 
+     * @param set
+     * @param output stream to write to, will be flushed but not closed
+     * @param compress whether to DEFLATE-compress the payload
+     * @throws IOException
+     */
+    public static void write(SpriteSet set,OutputStream output,boolean compress) throws IOException 
+    {
+        write( set.getSprites() , output , compress );
+    }
+    
+    /**
+     * Writes a list of sprites.
+     * 
+     * The list is iterated more than once, so implementations that create sprites on-the-fly must 
+     * return equal sprites each time.
+     * 
+     * @param sprites
+     * @param output stream to write to, will be flushed but not closed
+     * @param compress whether to DEFLATE-compress the payload
+     * @throws IOException
+     */
+    static void write(List<Sprite> sprites,OutputStream output,boolean compress) throws IOException 
+    {
+        final CRC32C crc = new CRC32C();
+        final DataOutputStream out = new DataOutputStream( new CheckedOutputStream( new BufferedOutputStream( output , 64*1024 ) , crc ) );
+
+        final long payloadLength;
+        ByteArrayOutputStream compressed = null;
+        if ( compress ) 
+        {
+            // payload length needs to be known up-front
+            compressed = new ByteArrayOutputStream();
+            final Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION );
+            try ( DeflaterOutputStream deflaterOut = new DeflaterOutputStream( compressed , deflater , 64*1024 ) ) {
+                writePayload( sprites , new DataOutputStream( deflaterOut ) );
+            } finally {
+                deflater.end();
+            }
+            payloadLength = compressed.size();
+        } else {
+            payloadLength = payloadLength( sprites );
+        }
+
+        out.writeInt( MAGIC );
+        out.writeShort( VERSION );
+        out.writeShort( compress ? FLAG_COMPRESSED : 0 );
+        out.writeInt( sprites.size() );
+        out.writeLong( payloadLength );
+        if ( compressed != null ) {
+            compressed.writeTo( out );
+        } else {
+            writePayload( sprites , out );
+        }
+        out.flush();
+        // CRC is computed over everything written so far
+        final int checksum = (int) crc.getValue();
+        out.writeInt( checksum );
+        out.flush();
+    }
+
+    /**
+     * Returns the size of the uncompressed payload.
+     * 
+     * @param set
+     * @return
+     */
+    public static long payloadLength(SpriteSet set) 
+    {
+        return payloadLength( set.getSprites() );
+    }
+    
+    private static long payloadLength(List<Sprite> sprites) 
+    {
+        long result = (long) sprites.size() * INDEX_ENTRY_SIZE;
+        for ( Sprite sprite : sprites ) {
+            result += sprite.sizeInBytesPacked();
+        }
+        return result;
+    }
+
+    private static void writePayload(List<Sprite> sprites,DataOutputStream out) throws IOException 
+    {
+        long offset = 0;
+        for ( Sprite sprite : sprites ) 
+        {
+            writeIndexEntry( sprite , offset , out );
+            offset += sprite.sizeInBytesPacked();
+        }
+        byte[] buffer = new byte[0];
+        for ( Sprite sprite : sprites ) 
+        {
+            final int len = sprite.sizeInBytesPacked();
+            if ( len > buffer.length ) {
+                buffer = new byte[ len ];
+            }
+            sprite.writeRows( buffer , 0 );
+            out.write( buffer , 0 , len );
+        }
+    }
+
+    private static void writeIndexEntry(Sprite sprite,long dataOffset,DataOutputStream out) throws IOException 
+    {
+        if ( sprite.getWidth() > 0xffff || sprite.getHeight() > 0xffff ) {
+            throw new IOException("Sprite too large: "+sprite.getWidth()+"x"+sprite.getHeight());
+        }
+        out.writeShort( sprite.getWidth() );
+        out.writeShort( sprite.getHeight() );
+        out.writeInt( sprite.hasIndex() ? sprite.index() : -1 );
+        out.writeLong( dataOffset );
+    }
+
+    /**
+     * Stops reading after a given number of bytes.
+     */
+    private static final class LimitedInputStream extends FilterInputStream 
+    {
+        private long remaining;
+
+        public LimitedInputStream(InputStream in,long limit) 
+        {
+            super( in );
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException 
+        {
+            if ( remaining <= 0 ) {
+                return -1;
+            }
+            final int result = super.read();
+            if ( result == -1 ) {
+                throw new EOFException("Premature end of file");
+            }
+            remaining--;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException 
+        {
+            if ( remaining <= 0 ) {
+                return -1;
+            }
+            final int result = super.read( b , off , (int) Math.min( len , remaining ) );
+            if ( result == -1 ) {
+                throw new EOFException("Premature end of file");
+            }
+            remaining -= result;
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException 
+        {
+            final long result = super.skip( Math.min( n , remaining ) );
+            remaining -= result;
+            return result;
+        }
+
+        public void skipRemaining() throws IOException 
+        {
+            final byte[] buffer = new byte[ 8192 ];
+            while ( read( buffer , 0 , buffer.length ) != -1 );
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min( super.available() , remaining );
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // never close the underlying stream
+        }
+    }
+}
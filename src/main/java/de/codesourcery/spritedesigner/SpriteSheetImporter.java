@@ -0,0 +1,158 @@
+package de.codesourcery.spritedesigner;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Imports sprites from a sprite sheet, an image holding equally sized cells in a grid.
+ *
+ * Cells are read row by row, starting at the top-left corner. The first cell starts <code>margin</code>
+ * pixels from the left and top edge, neighbouring cells are <code>spacing</code> pixels apart. Only cells that
+ * are completely inside the image are imported.
+ *
+ * Pixels are converted like {@link Sprite#setToImage(BufferedImage)} does unless an {@link ImageConverter} is set,
+ * cells are decoded in parallel.
+ */
+public final class SpriteSheetImporter
+{
+    private int cellWidth = 8;
+    private int cellHeight = 8;
+    private int margin;
+    private int spacing;
+    private boolean skipEmpty;
+    private ImageConverter converter;
+
+    public void setCellSize(int width,int height)
+    {
+        if ( width < 1 || height < 1 ) {
+            throw new IllegalArgumentException("Cell size needs to be at least 1x1, was "+width+"x"+height);
+        }
+        this.cellWidth = width;
+        this.cellHeight = height;
+    }
+
+    /**
+     * Sets the distance of the first cell from the left and top edge of the image.
+     *
+     * @param margin margin in pixels
+     */
+    public void setMargin(int margin)
+    {
+        if ( margin < 0 ) {
+            throw new IllegalArgumentException("Margin must be >= 0, was: "+margin);
+        }
+        this.margin = margin;
+    }
+
+    /**
+     * Sets the gap between neighbouring cells.
+     *
+     * @param spacing spacing in pixels
+     */
+    public void setSpacing(int spacing)
+    {
+        if ( spacing < 0 ) {
+            throw new IllegalArgumentException("Spacing must be >= 0, was: "+spacing);
+        }
+        this.spacing = spacing;
+    }
+
+    /**
+     * Sets whether cells without any set pixels are left out.
+     *
+     * @param skipEmpty
+     */
+    public void setSkipEmpty(boolean skipEmpty) {
+        this.skipEmpty = skipEmpty;
+    }
+
+    /**
+     * Sets how image pixels are converted. Each cell is converted on its own, so {@link ImageConverter.Method#OTSU}
+     * picks a threshold per cell and ordered dithering patterns start at each cell's top-left corner.
+     *
+     * @param converter converter to use, <code>null</code> to convert like {@link Sprite#setToImage(BufferedImage)}
+     */
+    public void setConverter(ImageConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Returns the number of cells that fit next to each other.
+     *
+     * @param size image width or height
+     * @param cellSize cell width or height
+     * @return
+     */
+    private int cells(int size,int cellSize)
+    {
+        return size - margin < cellSize ? 0 : ( size - margin + spacing ) / ( cellSize + spacing );
+    }
+
+    /**
+     * Imports sprites from an image file.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file could not be read or has an unsupported format
+     */
+    public SpriteSet load(File file) throws IOException
+    {
+        final BufferedImage image = ImageIO.read( file );
+        if ( image == null ) {
+            throw new IOException("Unsupported image format: "+file);
+        }
+        return load( image );
+    }
+
+    /**
+     * Imports sprites from an image.
+     *
+     * @param image
+     * @return
+     */
+    public SpriteSet load(BufferedImage image)
+    {
+        final int columns = cells( image.getWidth() , cellWidth );
+        final int rows = cells( image.getHeight() , cellHeight );
+        final ImageConverter converter = this.converter;
+        final RasterDecoder decoder = converter == null ? new RasterDecoder( image ) : new RasterDecoder( image , BufferedImage.TYPE_INT_ARGB );
+
+        final Sprite[] sprites = new Sprite[ columns * rows ];
+        IntStream.range( 0 , sprites.length ).parallel().forEach( i ->
+        {
+            final int x = margin + ( i % columns ) * ( cellWidth + spacing );
+            final int y = margin + ( i / columns ) * ( cellHeight + spacing );
+            final long[] bits = converter == null ? decoder.decode( x , y , cellWidth , cellHeight ) : converter.convert( decoder , x , y , cellWidth , cellHeight );
+            if ( skipEmpty && isEmpty( bits ) ) {
+                return;
+            }
+            final Sprite sprite = new Sprite( cellWidth , cellHeight );
+            sprite.setBits( bits , cellWidth , cellHeight );
+            sprites[i] = sprite;
+        });
+
+        final SpriteSet result = new SpriteSet();
+        for ( Sprite sprite : sprites )
+        {
+            if ( sprite != null ) {
+                result.add( sprite );
+            }
+        }
+        return result;
+    }
+
+    private static boolean isEmpty(long[] bits)
+    {
+        for ( long word : bits )
+        {
+            if ( word != 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
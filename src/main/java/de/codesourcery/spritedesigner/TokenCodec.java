@@ -0,0 +1,155 @@
+package de.codesourcery.spritedesigner;
+
+/**
+ * Base class for codecs that produce a stream of byte-aligned tokens.
+ *
+ * Each token starts with a control byte <code>c</code>. If bit 7 is clear, <code>c+1</code> literal
+ * bytes follow, otherwise the token repeats earlier data in a codec-specific way.
+ */
+abstract class TokenCodec implements SpriteCodec
+{
+    protected static final int MAX_LITERALS = 128;
+
+    // AVR cycles for a literal token and for each of its bytes, see the decompressor routines
+    private static final int LITERAL_TOKEN_CYCLES = 7;
+    private static final int LITERAL_BYTE_CYCLES = 11;
+
+    private final String name;
+    private final String assemblyResource;
+    private final int callCycles;
+    private final int repeatTokenCycles;
+    private final int repeatByteCycles;
+
+    protected TokenCodec(String name,String assemblyResource,int callCycles,int repeatTokenCycles,int repeatByteCycles)
+    {
+        this.name = name;
+        this.assemblyResource = assemblyResource;
+        this.callCycles = callCycles;
+        this.repeatTokenCycles = repeatTokenCycles;
+        this.repeatByteCycles = repeatByteCycles;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int maxCompressedLength(int len) {
+        return len + ( len + MAX_LITERALS - 1 ) / MAX_LITERALS;
+    }
+
+    /**
+     * Writes literal tokens for a range of input bytes.
+     *
+     * @return new output offset
+     */
+    protected static int writeLiterals(byte[] src,int start,int end,byte[] dst,int out)
+    {
+        for ( int ptr = start ; ptr < end ; )
+        {
+            final int count = Math.min( MAX_LITERALS , end - ptr );
+            dst[out++] = (byte) ( count - 1 );
+            System.arraycopy( src , ptr , dst , out , count );
+            out += count;
+            ptr += count;
+        }
+        return out;
+    }
+
+    @Override
+    public int decompress(byte[] src,int srcOffset,byte[] dst,int dstOffset,int len)
+    {
+        int in = srcOffset;
+        int out = dstOffset;
+        final int end = dstOffset + len;
+        while ( out < end )
+        {
+            final int control = src[in++] & 0xff;
+            if ( control < 0x80 )
+            {
+                final int count = Math.min( control + 1 , end - out );
+                System.arraycopy( src , in , dst , out , count );
+                in += control + 1;
+                out += count;
+            }
+            else
+            {
+                final int count = Math.min( repeatLength( control ) , end - out );
+                final int distance = repeatDistance( src , in );
+                in += repeatTokenSize() - 1;
+                if ( distance == 0 )
+                {
+                    final byte value = src[in-1];
+                    for ( int i = 0 ; i < count ; i++ ) {
+                        dst[out++] = value;
+                    }
+                }
+                else
+                {
+                    // copy byte by byte, source and destination may overlap
+                    for ( int i = 0 ; i < count ; i++ , out++ ) {
+                        dst[out] = dst[out-distance];
+                    }
+                }
+            }
+        }
+        return in - srcOffset;
+    }
+
+    @Override
+    public long estimateDecodeCycles(byte[] src,int srcOffset,int len)
+    {
+        long cycles = callCycles;
+        int in = srcOffset;
+        for ( int produced = 0 ; produced < len ; )
+        {
+            final int control = src[in++] & 0xff;
+            if ( control < 0x80 )
+            {
+                final int count = Math.min( control + 1 , len - produced );
+                cycles += LITERAL_TOKEN_CYCLES + (long) count * LITERAL_BYTE_CYCLES;
+                in += control + 1;
+                produced += count;
+            }
+            else
+            {
+                final int count = Math.min( repeatLength( control ) , len - produced );
+                cycles += repeatTokenCycles + (long) count * repeatByteCycles;
+                in += repeatTokenSize() - 1;
+                produced += count;
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * Returns the number of bytes a repeat token with a given control byte produces.
+     */
+    protected abstract int repeatLength(int control);
+
+    /**
+     * Returns the size of a repeat token, including the control byte.
+     */
+    protected abstract int repeatTokenSize();
+
+    /**
+     * Returns how far back in the output the data to repeat starts or 0 if the token's
+     * last byte is the value to repeat.
+     *
+     * @param src compressed data
+     * @param in offset of the first byte after the control byte
+     * @return
+     */
+    protected abstract int repeatDistance(byte[] src,int in);
+
+    @Override
+    public String getDecompressorAsAssembly() {
+        return SpriteCodec.loadAssembly( assemblyResource );
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
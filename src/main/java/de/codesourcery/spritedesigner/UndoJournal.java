@@ -0,0 +1,763 @@
+package de.codesourcery.spritedesigner;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Performs changes to sprites and sprite sets and records them so that they can be undone and redone.
+ *
+ * Changes are recorded as compactly as possible:
+ * <ul>
+ *   <li>pixel edits as XOR masks of the pixel storage words that changed</li>
+ *   <li>invertible operations (rotating, inverting, cropping, re-ordering, ...) as a description of the operation</li>
+ *   <li>operations that lose information (like scaling) as a snapshot of the sprite's previous pixels</li>
+ * </ul>
+ * Rotating a whole set for example is recorded as a single entry, so undoing it does not need a copy of the set.
+ *
+ * The memory used by recorded changes is limited, the oldest changes are discarded once
+ * {@link #setMaxBytes(long) the limit} is exceeded.
+ *
+ * Undoing only restores the right state if all changes to the sprites involved went through the same journal.
+ * Instances are not thread-safe.
+ */
+public final class UndoJournal
+{
+    public static final long DEFAULT_MAX_BYTES = 64*1024*1024;
+
+    // approx. memory used by a recorded change besides its data
+    private static final int CHANGE_OVERHEAD = 32;
+    // approx. memory used by a sprite besides its pixels
+    private static final int SPRITE_OVERHEAD = 64;
+
+    private final Deque<Change> undoStack = new ArrayDeque<>();
+    private final Deque<Change> redoStack = new ArrayDeque<>();
+    private long maxBytes;
+    private long sizeInBytes;
+
+    // pixel edit that subsequent pixel toggles on the same sprite are merged into
+    private PixelDelta openEdit;
+
+    private interface Change
+    {
+        public void undo();
+
+        public void redo();
+
+        public long sizeInBytes();
+    }
+
+    /**
+     * Change that is undone and redone by running an operation.
+     */
+    private static final class Operation implements Change
+    {
+        private final Runnable undo;
+        private final Runnable redo;
+        private final long sizeInBytes;
+
+        public Operation(Runnable undo,Runnable redo,long sizeInBytes)
+        {
+            this.undo = undo;
+            this.redo = redo;
+            this.sizeInBytes = CHANGE_OVERHEAD + sizeInBytes;
+        }
+
+        @Override
+        public void undo() {
+            undo.run();
+        }
+
+        @Override
+        public void redo() {
+            redo.run();
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return sizeInBytes;
+        }
+    }
+
+    /**
+     * Pixel changes stored as XOR masks, undoing and redoing both apply the masks again.
+     */
+    private static final class PixelDelta implements Change
+    {
+        private final Sprite sprite;
+        private int[] offsets;
+        private long[] masks;
+        private int count;
+        // position of each word in offsets[] while the edit is still open
+        private Map<Integer,Integer> positions;
+
+        public PixelDelta(Sprite sprite,int[] offsets,long[] masks,int count)
+        {
+            this.sprite = sprite;
+            this.offsets = offsets;
+            this.masks = masks;
+            this.count = count;
+        }
+
+        public void toggle(int offset,long mask)
+        {
+            if ( positions == null )
+            {
+                positions = new HashMap<>();
+                for ( int i = 0 ; i < count ; i++ ) {
+                    positions.put( offsets[i] , i );
+                }
+            }
+            final Integer existing = positions.get( offset );
+            if ( existing != null ) {
+                masks[ existing ] ^= mask;
+                return;
+            }
+            if ( count == offsets.length )
+            {
+                offsets = Arrays.copyOf( offsets , Math.max( 4 , count * 2 ) );
+                masks = Arrays.copyOf( masks , offsets.length );
+            }
+            positions.put( offset , count );
+            offsets[count] = offset;
+            masks[count++] = mask;
+        }
+
+        public void close()
+        {
+            positions = null;
+            offsets = Arrays.copyOf( offsets , count );
+            masks = Arrays.copyOf( masks , count );
+        }
+
+        @Override
+        public void undo() {
+            sprite.xor( offsets , masks , count );
+        }
+
+        @Override
+        public void redo() {
+            sprite.xor( offsets , masks , count );
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return CHANGE_OVERHEAD + offsets.length * 12L;
+        }
+    }
+
+    /**
+     * Snapshot of a sprite's pixels, undoing and redoing both swap the snapshot with the sprite's current pixels.
+     */
+    private static final class Snapshot implements Change
+    {
+        private final Sprite sprite;
+        private long[] bits;
+        private int width;
+        private int height;
+
+        public Snapshot(Sprite sprite,long[] bits,int width,int height)
+        {
+            this.sprite = sprite;
+            this.bits = bits;
+            this.width = width;
+            this.height = height;
+        }
+
+        private void swap()
+        {
+            final long[] oldBits = sprite.bits();
+            final int oldWidth = sprite.getWidth();
+            final int oldHeight = sprite.getHeight();
+            sprite.setBits( bits , width , height );
+            bits = oldBits;
+            width = oldWidth;
+            height = oldHeight;
+        }
+
+        @Override
+        public void undo() {
+            swap();
+        }
+
+        @Override
+        public void redo() {
+            swap();
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return CHANGE_OVERHEAD + bits.length * 8L;
+        }
+    }
+
+    /**
+     * Snapshots of several sprites that are undone and redone together.
+     */
+    private static final class Snapshots implements Change
+    {
+        private final Snapshot[] snapshots;
+
+        public Snapshots(Snapshot[] snapshots) {
+            this.snapshots = snapshots;
+        }
+
+        @Override
+        public void undo()
+        {
+            for ( Snapshot snapshot : snapshots ) {
+                snapshot.undo();
+            }
+        }
+
+        @Override
+        public void redo()
+        {
+            for ( Snapshot snapshot : snapshots ) {
+                snapshot.redo();
+            }
+        }
+
+        @Override
+        public long sizeInBytes()
+        {
+            long result = CHANGE_OVERHEAD;
+            for ( Snapshot snapshot : snapshots ) {
+                result += snapshot.sizeInBytes();
+            }
+            return result;
+        }
+    }
+
+    public UndoJournal() {
+        this( DEFAULT_MAX_BYTES );
+    }
+
+    public UndoJournal(long maxBytes) {
+        setMaxBytes( maxBytes );
+    }
+
+    /**
+     * Sets how much memory recorded changes may use.
+     *
+     * @param maxBytes max. number of bytes, changes that are bigger on their own can't be undone
+     */
+    public void setMaxBytes(long maxBytes)
+    {
+        if ( maxBytes < 0 ) {
+            throw new IllegalArgumentException("Memory limit must be >= 0, was: "+maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by all recorded changes.
+     */
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public boolean canUndo() {
+        return ! undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return ! redoStack.isEmpty();
+    }
+
+    /**
+     * Discards all recorded changes.
+     */
+    public void clear()
+    {
+        openEdit = null;
+        undoStack.clear();
+        redoStack.clear();
+        sizeInBytes = 0;
+    }
+
+    /**
+     * Undoes the most recent change.
+     *
+     * @return <code>false</code> if there was nothing to undo
+     */
+    public boolean undo()
+    {
+        endEdit();
+        final Change change = undoStack.pollLast();
+        if ( change == null ) {
+            return false;
+        }
+        sizeInBytes -= change.sizeInBytes();
+        change.undo();
+        sizeInBytes += change.sizeInBytes();
+        redoStack.addLast( change );
+        return true;
+    }
+
+    /**
+     * Redoes the most recently undone change.
+     *
+     * @return <code>false</code> if there was nothing to redo
+     */
+    public boolean redo()
+    {
+        endEdit();
+        final Change change = redoStack.pollLast();
+        if ( change == null ) {
+            return false;
+        }
+        sizeInBytes -= change.sizeInBytes();
+        change.redo();
+        sizeInBytes += change.sizeInBytes();
+        undoStack.addLast( change );
+        return true;
+    }
+
+    private void record(Change change)
+    {
+        endEdit();
+        for ( Change discarded : redoStack ) {
+            sizeInBytes -= discarded.sizeInBytes();
+        }
+        redoStack.clear();
+        undoStack.addLast( change );
+        sizeInBytes += change.sizeInBytes();
+        trim();
+    }
+
+    private void trim()
+    {
+        // drop undoable changes first, then changes that could be redone
+        while ( sizeInBytes > maxBytes && ! undoStack.isEmpty() )
+        {
+            final Change change = undoStack.pollFirst();
+            if ( change == openEdit ) {
+                openEdit = null;
+            }
+            sizeInBytes -= change.sizeInBytes();
+        }
+        while ( sizeInBytes > maxBytes && ! redoStack.isEmpty() ) {
+            sizeInBytes -= redoStack.pollFirst().sizeInBytes();
+        }
+    }
+
+    private static long sizeOf(Sprite sprite) {
+        return SPRITE_OVERHEAD + sprite.bits().length * 8L;
+    }
+
+    // ================== pixel edits ==================
+
+    /**
+     * Toggles a pixel.
+     *
+     * Subsequent toggles on the same sprite are recorded as a single change until {@link #endEdit()} is called,
+     * so a whole stroke drawn with the mouse is undone at once.
+     *
+     * @param sprite
+     * @param x
+     * @param y
+     */
+    public void togglePixel(Sprite sprite,int x,int y)
+    {
+        sprite.togglePixel( x , y );
+        final int offset = y * Sprite.wordsPerRow( sprite.getWidth() ) + ( x >>> 6 );
+        final long mask = Long.MIN_VALUE >>> x;
+        if ( openEdit != null && openEdit.sprite == sprite && undoStack.peekLast() == openEdit )
+        {
+            sizeInBytes -= openEdit.sizeInBytes();
+            openEdit.toggle( offset , mask );
+            sizeInBytes += openEdit.sizeInBytes();
+            trim();
+            return;
+        }
+        final PixelDelta edit = new PixelDelta( sprite , new int[] { offset } , new long[] { mask } , 1 );
+        record( edit );
+        if ( undoStack.peekLast() == edit ) {
+            openEdit = edit;
+        }
+    }
+
+    /**
+     * Stops merging pixel toggles into the current change.
+     */
+    public void endEdit()
+    {
+        if ( openEdit != null )
+        {
+            sizeInBytes -= openEdit.sizeInBytes();
+            openEdit.close();
+            sizeInBytes += openEdit.sizeInBytes();
+            openEdit = null;
+        }
+    }
+
+    /**
+     * Clears all pixels of a sprite.
+     *
+     * @param sprite
+     */
+    public void clear(Sprite sprite) {
+        modify( sprite , sprite::clear );
+    }
+
+    /**
+     * Replaces a sprite's pixels with those of an image.
+     *
+     * @param sprite
+     * @param image
+     * @see Sprite#setToImage(BufferedImage)
+     */
+    public void setToImage(Sprite sprite,BufferedImage image) {
+        modify( sprite , () -> sprite.setToImage( image ) );
+    }
+
+    /**
+     * Replaces a sprite's pixels with those of an image.
+     *
+     * @param sprite
+     * @param image
+     * @param converter
+     * @see ImageConverter#convert(BufferedImage, Sprite)
+     */
+    public void setToImage(Sprite sprite,BufferedImage image,ImageConverter converter) {
+        modify( sprite , () -> converter.convert( image , sprite ) );
+    }
+
+    /**
+     * Runs an arbitrary operation that changes a sprite's pixels.
+     *
+     * The change is recorded as XOR masks if the sprite's size did not change, otherwise as a snapshot.
+     *
+     * @param sprite
+     * @param operation
+     */
+    public void modify(Sprite sprite,Runnable operation)
+    {
+        final int width = sprite.getWidth();
+        final int height = sprite.getHeight();
+        final int len = Sprite.wordsPerRow( width ) * height;
+        final long[] before = Arrays.copyOf( sprite.bits() , len );
+        operation.run();
+        if ( ! sprite.hasSize( width , height ) ) {
+            record( new Snapshot( sprite , before , width , height ) );
+            return;
+        }
+        final long[] after = sprite.bits();
+        int count = 0;
+        for ( int i = 0 ; i < len ; i++ )
+        {
+            if ( before[i] != after[i] ) {
+                count++;
+            }
+        }
+        final int[] offsets = new int[ count ];
+        final long[] masks = new long[ count ];
+        for ( int i = 0 , j = 0 ; i < len ; i++ )
+        {
+            if ( before[i] != after[i] )
+            {
+                offsets[j] = i;
+                masks[j++] = before[i] ^ after[i];
+            }
+        }
+        if ( count > 0 ) {
+            record( new PixelDelta( sprite , offsets , masks , count ) );
+        }
+    }
+
+    // ================== invertible operations ==================
+
+    public void invert(Sprite sprite)
+    {
+        sprite.invert();
+        record( new Operation( sprite::invert , sprite::invert , 0 ) );
+    }
+
+    public void rotateCW(Sprite sprite)
+    {
+        sprite.rotateCW();
+        record( new Operation( sprite::rotateCCW , sprite::rotateCW , 0 ) );
+    }
+
+    public void rotateCCW(Sprite sprite)
+    {
+        sprite.rotateCCW();
+        record( new Operation( sprite::rotateCW , sprite::rotateCCW , 0 ) );
+    }
+
+    /**
+     * Rotates all sprites of a set clock-wise.
+     *
+     * @param set
+     */
+    public void rotateCW(SpriteSet set)
+    {
+        set.rotateCW();
+        record( new Operation( set::rotateCCW , set::rotateCW , 0 ) );
+    }
+
+    /**
+     * Rotates all sprites of a set counter clock-wise.
+     *
+     * @param set
+     */
+    public void rotateCCW(SpriteSet set)
+    {
+        set.rotateCCW();
+        record( new Operation( set::rotateCW , set::rotateCCW , 0 ) );
+    }
+
+    public void cropToSize(Sprite sprite) {
+        cropToSize( List.of( sprite ) );
+    }
+
+    /**
+     * Crops sprites to the smallest size that still contains all set pixels.
+     *
+     * Only the position and size of the removed borders are recorded.
+     *
+     * @param sprites
+     */
+    public void cropToSize(List<Sprite> sprites)
+    {
+        final List<Sprite> cropped = new ArrayList<>();
+        // x,y,width,height before cropping for each sprite
+        int[] bounds = new int[ 0 ];
+        for ( Sprite sprite : sprites )
+        {
+            final Rectangle content = sprite.contentBounds();
+            if ( content != null && ! sprite.hasSize( content.width , content.height ) )
+            {
+                final int i = cropped.size() * 4;
+                if ( i == bounds.length ) {
+                    bounds = Arrays.copyOf( bounds , Math.max( 16 , bounds.length * 2 ) );
+                }
+                bounds[i] = content.x;
+                bounds[i+1] = content.y;
+                bounds[i+2] = sprite.getWidth();
+                bounds[i+3] = sprite.getHeight();
+                sprite.cropToSize();
+                cropped.add( sprite );
+            }
+        }
+        if ( cropped.isEmpty() ) {
+            return;
+        }
+        final Sprite[] changed = cropped.toArray( new Sprite[0] );
+        final int[] oldBounds = Arrays.copyOf( bounds , changed.length * 4 );
+        record( new Operation( () ->
+        {
+            for ( int i = 0 ; i < changed.length ; i++ ) {
+                changed[i].expand( oldBounds[i*4] , oldBounds[i*4+1] , oldBounds[i*4+2] , oldBounds[i*4+3] );
+            }
+        }, () ->
+        {
+            for ( Sprite sprite : changed ) {
+                sprite.cropToSize();
+            }
+        }, changed.length * 20L ) );
+    }
+
+    /**
+     * Resizes a sprite.
+     *
+     * Enlarging or cutting off blank borders without scaling is recorded as an operation,
+     * everything else as a snapshot.
+     *
+     * @param sprite
+     * @param width
+     * @param height
+     * @param scale
+     * @see Sprite#resize(int, int, boolean)
+     */
+    public void resize(Sprite sprite,int width,int height,boolean scale)
+    {
+        final int oldWidth = sprite.getWidth();
+        final int oldHeight = sprite.getHeight();
+        if ( sprite.hasSize( width , height ) ) {
+            return;
+        }
+        final Rectangle content = sprite.contentBounds();
+        final boolean lossless = content == null || ( ! scale && content.x + content.width <= width && content.y + content.height <= height );
+        if ( ! lossless ) {
+            modify( sprite , () -> sprite.resize( width , height , scale ) );
+            return;
+        }
+        sprite.resize( width , height , scale );
+        record( new Operation( () -> sprite.resize( oldWidth , oldHeight , false ) , () -> sprite.resize( width , height , false ) , 0 ) );
+    }
+
+    /**
+     * Scales sprites, recorded as a single change.
+     *
+     * @param sprites
+     * @param width
+     * @param height
+     * @param scaler
+     * @see SpriteScaler#scale(List, int, int)
+     */
+    public void scale(List<Sprite> sprites,int width,int height,SpriteScaler scaler)
+    {
+        final List<Snapshot> snapshots = new ArrayList<>();
+        for ( Sprite sprite : sprites )
+        {
+            // scaling replaces the pixel array, so the current one doesn't need to be copied
+            if ( ! sprite.hasSize( width , height ) ) {
+                snapshots.add( new Snapshot( sprite , sprite.bits() , sprite.getWidth() , sprite.getHeight() ) );
+            }
+        }
+        if ( snapshots.isEmpty() ) {
+            return;
+        }
+        scaler.scale( sprites , width , height );
+        record( new Snapshots( snapshots.toArray( new Snapshot[0] ) ) );
+    }
+
+    /**
+     * Sets or clears the index of a sprite.
+     *
+     * @param sprite
+     * @param index new index or -1 to clear it
+     */
+    public void setIndex(Sprite sprite,int index) {
+        setIndexes( List.of( sprite ) , new int[] { index } );
+    }
+
+    /**
+     * Sets or clears the indexes of sprites.
+     *
+     * @param sprites
+     * @param indexes new index for each sprite, -1 clears it
+     */
+    public void setIndexes(List<Sprite> sprites,int[] indexes)
+    {
+        if ( sprites.size() != indexes.length ) {
+            throw new IllegalArgumentException("Need exactly one index per sprite");
+        }
+        final Sprite[] changed = sprites.toArray( new Sprite[0] );
+        final int[] oldIndexes = new int[ changed.length ];
+        final int[] newIndexes = indexes.clone();
+        for ( int i = 0 ; i < changed.length ; i++ ) {
+            oldIndexes[i] = changed[i].hasIndex() ? changed[i].index() : -1;
+        }
+        applyIndexes( changed , newIndexes );
+        record( new Operation( () -> applyIndexes( changed , oldIndexes ) , () -> applyIndexes( changed , newIndexes ) , changed.length * 12L ) );
+    }
+
+    private static void applyIndexes(Sprite[] sprites,int[] indexes)
+    {
+        for ( int i = 0 ; i < sprites.length ; i++ )
+        {
+            if ( indexes[i] == -1 ) {
+                sprites[i].clearIndex();
+            } else {
+                sprites[i].setIndex( indexes[i] );
+            }
+        }
+    }
+
+    // ================== sprite set structure ==================
+
+    /**
+     * Inserts a sprite into a set.
+     *
+     * @param set
+     * @param index
+     * @param sprite
+     */
+    public void add(SpriteSet set,int index,Sprite sprite)
+    {
+        set.add( index , sprite );
+        record( new Operation( () -> set.getSprites().remove( index ) , () -> set.add( index , sprite ) , 0 ) );
+    }
+
+    /**
+     * Appends sprites to a set.
+     *
+     * @param set
+     * @param sprites
+     */
+    public void addAll(SpriteSet set,List<Sprite> sprites)
+    {
+        final int start = set.size();
+        set.getSprites().addAll( sprites );
+        record( new Operation( () -> set.deleteToEnd( start ) , () -> set.getSprites().addAll( sprites ) , 0 ) );
+    }
+
+    /**
+     * Removes a sprite from a set.
+     *
+     * The removed sprite is kept as long as the change can be undone.
+     *
+     * @param set
+     * @param sprite
+     */
+    public void delete(SpriteSet set,Sprite sprite)
+    {
+        final int index = set.indexOf( sprite );
+        set.getSprites().remove( index );
+        record( new Operation( () -> set.add( index , sprite ) , () -> set.getSprites().remove( index ) , sizeOf( sprite ) ) );
+    }
+
+    /**
+     * Removes all sprites starting at some index from a set.
+     *
+     * The removed sprites are kept as long as the change can be undone.
+     *
+     * @param set
+     * @param start index of first sprite to delete, inclusive
+     */
+    public void deleteToEnd(SpriteSet set,int start)
+    {
+        final List<Sprite> removed = new ArrayList<>( set.getSprites().subList( start , set.size() ) );
+        set.deleteToEnd( start );
+        final long size = removed.stream().mapToLong( UndoJournal::sizeOf ).sum() + removed.size() * 8L;
+        record( new Operation( () -> set.getSprites().addAll( removed ) , () -> set.deleteToEnd( start ) , size ) );
+    }
+
+    /**
+     * Exchanges a sprite with its predecessor.
+     *
+     * @param set
+     * @param sprite
+     */
+    public void moveBackwards(SpriteSet set,Sprite sprite)
+    {
+        final int index = set.indexOf( sprite );
+        if ( index > 0 ) {
+            swap( set , sprite , set.sprite( index - 1 ) );
+        }
+    }
+
+    /**
+     * Exchanges a sprite with its successor.
+     *
+     * @param set
+     * @param sprite
+     */
+    public void moveForwards(SpriteSet set,Sprite sprite)
+    {
+        final int index = set.indexOf( sprite );
+        if ( index + 1 < set.size() ) {
+            swap( set , sprite , set.sprite( index + 1 ) );
+        }
+    }
+
+    private void swap(SpriteSet set,Sprite a,Sprite b)
+    {
+        set.swap( a , b );
+        record( new Operation( () -> set.swap( a , b ) , () -> set.swap( a , b ) , 0 ) );
+    }
+}
@@ -0,0 +1,59 @@
+; -----------------------------------------------------------------------------
+; LZ decompressor for AVR (AVRASM syntax)
+;
+; Token format:
+;   0ccccccc                 c+1 literal bytes follow
+;   1ccccccc dddddddd        copy c+3 bytes starting d+1 bytes before
+;                            the current output position
+;
+; Back-references only point into the data already written, so no extra
+; RAM besides the destination buffer is needed. Decompression stops as soon
+; as the requested number of bytes has been written, so only the start of a
+; compressed block needs to be unpacked.
+;
+; in:       Z       = address of compressed data in program memory (byte address)
+;           X       = destination address in SRAM
+;           r25:r24 = number of bytes to write
+; out:      X       = points right after the last byte written
+; clobbers: r0, r16, r17, r24, r25, X, Z (Y is preserved)
+;
+; Cycles: 15 per call, 7 + 11 per byte for literals, 17 + 10 per byte for matches
+; -----------------------------------------------------------------------------
+lz_decompress:
+    push r28
+    push r29
+    adiw r24, 0             ; nothing to do ?
+    breq lz_done
+lz_next_token:
+    lpm r16, Z+             ; control byte
+    sbrc r16, 7
+    rjmp lz_match
+    inc r16                 ; c+1 literal bytes
+lz_literal:
+    lpm r0, Z+
+    st X+, r0
+    sbiw r24, 1
+    breq lz_done
+    dec r16
+    brne lz_literal
+    rjmp lz_next_token
+lz_match:
+    andi r16, 0x7f
+    subi r16, -3            ; copy c+3 bytes
+    lpm r17, Z+             ; distance - 1
+    movw r28, r26           ; Y = X - (distance - 1) - 1
+    sbiw r28, 1
+    sub r28, r17
+    sbci r29, 0
+lz_copy:
+    ld r0, Y+
+    st X+, r0
+    sbiw r24, 1
+    breq lz_done
+    dec r16
+    brne lz_copy
+    rjmp lz_next_token
+lz_done:
+    pop r29
+    pop r28
+    ret
@@ -0,0 +1,47 @@
+; -----------------------------------------------------------------------------
+; RLE decompressor for AVR (AVRASM syntax)
+;
+; Token format:
+;   0ccccccc                 c+1 literal bytes follow
+;   1ccccccc vvvvvvvv        repeat byte v c+2 times
+;
+; Decompression stops as soon as the requested number of bytes has been
+; written, so only the start of a compressed block needs to be unpacked.
+;
+; in:       Z       = address of compressed data in program memory (byte address)
+;           X       = destination address in SRAM
+;           r25:r24 = number of bytes to write
+; out:      X       = points right after the last byte written
+; clobbers: r0, r16, r24, r25, X, Z
+;
+; Cycles: 7 per call, 7 + 11 per byte for literals, 12 + 8 per byte for runs
+; -----------------------------------------------------------------------------
+rle_decompress:
+    adiw r24, 0             ; nothing to do ?
+    breq rle_done
+rle_next_token:
+    lpm r16, Z+             ; control byte
+    sbrc r16, 7
+    rjmp rle_run
+    inc r16                 ; c+1 literal bytes
+rle_literal:
+    lpm r0, Z+
+    st X+, r0
+    sbiw r24, 1
+    breq rle_done
+    dec r16
+    brne rle_literal
+    rjmp rle_next_token
+rle_run:
+    andi r16, 0x7f
+    subi r16, -2            ; repeat c+2 times
+    lpm r0, Z+
+rle_fill:
+    st X+, r0
+    sbiw r24, 1
+    breq rle_done
+    dec r16
+    brne rle_fill
+    rjmp rle_next_token
+rle_done:
+    ret